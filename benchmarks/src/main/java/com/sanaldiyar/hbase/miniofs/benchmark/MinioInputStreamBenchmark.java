@@ -0,0 +1,170 @@
+/*
+Copyright 2020 Kazım SARIKAYA
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+ */
+package com.sanaldiyar.hbase.miniofs.benchmark;
+
+import com.sanaldiyar.hbase.miniofs.MinioFileSystem;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.Path;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Read path benchmarks of {@link com.sanaldiyar.hbase.miniofs.MinioInputStream}
+ * against the in-process stand-in.
+ *
+ * @author kazim
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 10)
+public class MinioInputStreamBenchmark {
+
+    @Param({"65536", "131072", "1048576"})
+    public int bufferSize;
+
+    @Param({"65536"})
+    public int blockSize;
+
+    @Param({"16777216"})
+    public int fileSize;
+
+    @Param({"0", "5"})
+    public long latency;
+
+    @Param({"0"})
+    public long bandwidth;
+
+    @Param({"false", "true"})
+    public boolean parallelFetch;
+
+    private StandInFileSystem standIn;
+    private Path file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Configuration conf = new Configuration(true);
+        conf.setInt(MinioFileSystem.MINIO_STREAM_BUFFER_SIZE, bufferSize);
+        conf.setBoolean(MinioFileSystem.MINIO_PARALLEL_FETCH_ENABLED, parallelFetch);
+        standIn = new StandInFileSystem(conf, latency, bandwidth);
+        byte[] data = new byte[fileSize];
+        new Random(fileSize).nextBytes(data);
+        standIn.getServer().putObject(StandInFileSystem.BUCKET, "data/default/t1/r1/cf/", new byte[0]);
+        standIn.getServer().putObject(StandInFileSystem.BUCKET, "data/default/t1/r1/cf/hfile", data);
+        file = new Path(standIn.getRoot(), "data/default/t1/r1/cf/hfile");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        standIn.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Reader {
+
+        private FSDataInputStream in;
+        private byte[] block;
+        private long scanPosition;
+
+        @Setup(Level.Iteration)
+        public void open(MinioInputStreamBenchmark benchmark) throws IOException {
+            in = benchmark.standIn.getFileSystem().open(benchmark.file);
+            block = new byte[benchmark.blockSize];
+            scanPosition = 0;
+        }
+
+        @TearDown(Level.Iteration)
+        public void close() throws IOException {
+            in.close();
+        }
+
+    }
+
+    private long randomBlock() {
+        return ThreadLocalRandom.current().nextInt(fileSize / blockSize) * (long) blockSize;
+    }
+
+    /**
+     * Streams the whole file with stream reads of a block.
+     */
+    @Benchmark
+    public long sequentialRead(Reader reader) throws IOException {
+        reader.in.seek(0);
+        long total = 0;
+        int r;
+        while ((r = reader.in.read(reader.block, 0, reader.block.length)) > 0) {
+            total += r;
+        }
+        return total;
+    }
+
+    /**
+     * Positional reads of random blocks as done by hbase block reads.
+     */
+    @Benchmark
+    public byte[] randomPread(Reader reader) throws IOException {
+        reader.in.readFully(randomBlock(), reader.block);
+        return reader.block;
+    }
+
+    /**
+     * Forward seeks of a random stride followed by a short read, as a scan
+     * skipping cells does.
+     */
+    @Benchmark
+    public int seekScan(Reader reader) throws IOException {
+        long stride = ThreadLocalRandom.current().nextInt(4 * blockSize);
+        reader.scanPosition += stride;
+        if (reader.scanPosition + 512 > fileSize) {
+            reader.scanPosition = 0;
+        }
+        reader.in.seek(reader.scanPosition);
+        int r = reader.in.read(reader.block, 0, 512);
+        reader.scanPosition += Math.max(r, 0);
+        return r;
+    }
+
+    /**
+     * Random positional reads of many readers sharing the file.
+     */
+    @Benchmark
+    @Threads(16)
+    public byte[] concurrentPread(Reader reader) throws IOException {
+        reader.in.readFully(randomBlock(), reader.block);
+        return reader.block;
+    }
+
+}
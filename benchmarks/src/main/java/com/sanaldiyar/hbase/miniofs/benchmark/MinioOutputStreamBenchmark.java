@@ -0,0 +1,210 @@
+/*
+Copyright 2020 Kazım SARIKAYA
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+ */
+package com.sanaldiyar.hbase.miniofs.benchmark;
+
+import com.sanaldiyar.hbase.miniofs.MinioFileSystem;
+import com.sanaldiyar.hbase.miniofs.MinioStandInServer;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Write path benchmarks of {@link com.sanaldiyar.hbase.miniofs.MinioOutputStream}
+ * and {@link com.sanaldiyar.hbase.miniofs.MinioMultipartUploader} against the
+ * in-process stand-in. Run with -prof gc for the allocation rate.
+ *
+ * @author kazim
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 10)
+public class MinioOutputStreamBenchmark {
+
+    private final static int WRITE_SIZE = 64 << 10;
+
+    @Param({"5242880", "8388608", "16777216"})
+    public int partSize;
+
+    @Param({"4096"})
+    public int smallFileSize;
+
+    @Param({"67108864"})
+    public int largeFileSize;
+
+    @Param({"8388608"})
+    public int concurrentFileSize;
+
+    @Param({"0", "5"})
+    public long latency;
+
+    @Param({"0"})
+    public long bandwidth;
+
+    private StandInFileSystem standIn;
+    private byte[] data;
+    private final AtomicInteger threadIds = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Configuration conf = new Configuration(true);
+        conf.setInt(MinioFileSystem.MINIO_UPLOAD_PART_SIZE, partSize);
+        standIn = new StandInFileSystem(conf, latency, bandwidth);
+        data = new byte[WRITE_SIZE];
+        new Random(partSize).nextBytes(data);
+    }
+
+    @TearDown(Level.Iteration)
+    public void clean() {
+        standIn.getServer().clearBucket(StandInFileSystem.BUCKET);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        standIn.close();
+    }
+
+    /**
+     * Requests the stand-in received per written file.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Requests {
+
+        public long files;
+        public long requests;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            files = 0;
+            requests = 0;
+        }
+
+        public double requestsPerFile() {
+            return files == 0 ? 0 : (double) requests / files;
+        }
+
+    }
+
+    @State(Scope.Thread)
+    public static class Writer {
+
+        private Path dir;
+        private long fileNo;
+
+        @Setup(Level.Trial)
+        public void setUp(MinioOutputStreamBenchmark benchmark) {
+            dir = new Path(benchmark.standIn.getRoot(), "data/default/t1/r" + benchmark.threadIds.incrementAndGet() + "/.tmp/cf");
+        }
+
+        Path nextFile() {
+            return new Path(dir, "f" + fileNo++);
+        }
+
+    }
+
+    /**
+     * Stream opened and filled before each invocation of the close benchmark.
+     */
+    @State(Scope.Thread)
+    public static class OpenStream {
+
+        private FSDataOutputStream out;
+
+        @Setup(Level.Invocation)
+        public void open(MinioOutputStreamBenchmark benchmark, Writer writer) throws IOException {
+            out = benchmark.standIn.getFileSystem().create(writer.nextFile());
+            benchmark.write(out, benchmark.largeFileSize);
+        }
+
+    }
+
+    private void write(FSDataOutputStream out, int size) throws IOException {
+        for (int written = 0; written < size; written += WRITE_SIZE) {
+            out.write(data, 0, Math.min(WRITE_SIZE, size - written));
+        }
+    }
+
+    private void writeFile(Path path, int size, Requests requests) throws IOException {
+        MinioStandInServer server = standIn.getServer();
+        long before = server.getRequestCount();
+        try (FSDataOutputStream out = standIn.getFileSystem().create(path)) {
+            write(out, size);
+        }
+        requests.requests += server.getRequestCount() - before;
+        requests.files++;
+    }
+
+    @Benchmark
+    public void smallCreate(Writer writer, Requests requests) throws IOException {
+        writeFile(writer.nextFile(), smallFileSize, requests);
+    }
+
+    /**
+     * Sequential write of a large file, the file is overwritten by each
+     * invocation to bound the memory of the stand-in.
+     */
+    @Benchmark
+    public void largeWrite(Writer writer, Requests requests) throws IOException {
+        writeFile(new Path(writer.dir, "large"), largeFileSize, requests);
+    }
+
+    /**
+     * Writers of distinct files in parallel, the requests are not counted
+     * since they cannot be told apart per thread.
+     */
+    @Benchmark
+    @Threads(8)
+    public void concurrentWrite(Writer writer) throws IOException {
+        try (FSDataOutputStream out = standIn.getFileSystem().create(new Path(writer.dir, "concurrent"))) {
+            write(out, concurrentFileSize);
+        }
+    }
+
+    /**
+     * Latency of closing a stream holding a large file, which uploads the
+     * last part and completes the upload.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void closeLatency(OpenStream stream) throws IOException {
+        stream.out.close();
+    }
+
+}
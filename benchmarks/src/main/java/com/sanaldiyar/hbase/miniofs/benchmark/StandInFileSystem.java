@@ -0,0 +1,80 @@
+/*
+Copyright 2020 Kazım SARIKAYA
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+ */
+package com.sanaldiyar.hbase.miniofs.benchmark;
+
+import com.sanaldiyar.hbase.miniofs.MinioFileSystem;
+import com.sanaldiyar.hbase.miniofs.MinioStandInServer;
+import com.sanaldiyar.hbase.miniofs.MinioUtil;
+import java.io.Closeable;
+import java.io.IOException;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Minio file system backed by an in-process {@link MinioStandInServer}.
+ *
+ * MinioUtil is configured once per JVM, so a benchmark must use a single
+ * stand-in per fork.
+ *
+ * @author kazim
+ */
+final class StandInFileSystem implements Closeable {
+
+    final static String BUCKET = "bench";
+
+    private final MinioStandInServer server;
+    private final FileSystem fileSystem;
+    private final Path root;
+
+    /**
+     * @param conf configuration of the file system, hbase.rootdir is set to
+     * the stand-in
+     * @param latency injected latency in milliseconds
+     * @param bandwidth injected bandwidth in bytes per second, 0 for
+     * unlimited
+     */
+    StandInFileSystem(Configuration conf, long latency, long bandwidth) throws IOException {
+        this.server = new MinioStandInServer().start();
+        server.createBucket(BUCKET);
+        server.setLatency(latency);
+        server.setBandwidth(bandwidth);
+        conf.set(MinioFileSystem.MINIO_ROOT, server.getRootUri(BUCKET));
+        MinioUtil.getInstance().setConf(conf);
+        this.root = new Path(conf.get(MinioFileSystem.MINIO_ROOT));
+        this.fileSystem = root.getFileSystem(conf);
+    }
+
+    MinioStandInServer getServer() {
+        return server;
+    }
+
+    FileSystem getFileSystem() {
+        return fileSystem;
+    }
+
+    Path getRoot() {
+        return root;
+    }
+
+    @Override
+    public void close() throws IOException {
+        fileSystem.close();
+        server.close();
+    }
+
+}
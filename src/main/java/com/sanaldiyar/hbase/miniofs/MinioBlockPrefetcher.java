@@ -0,0 +1,328 @@
+/*
+Copyright 2020 Kazım SARIKAYA
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+ */
+package com.sanaldiyar.hbase.miniofs;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Prefetches the next blocks of an hfile while it is read sequentially. The
+ * hfile v3 block header gives the on disk size of the block and every block
+ * is fetched together with the header of the following one, so the next
+ * block can be fetched with an exactly sized get as soon as the previous one
+ * arrives.
+ *
+ * Prefetching starts only after two adjacent buffer fills walked over a
+ * block header, random positional reads do not trigger it. It stops at the
+ * first block which is not a data, leaf index or bloom chunk block, that is
+ * at the end of the scanned section of the file.
+ *
+ * @author kazim
+ */
+public class MinioBlockPrefetcher {
+
+    private final static Logger logger = LoggerFactory.getLogger(MinioBlockPrefetcher.class.getName());
+
+    /**
+     * magic(8) onDiskSizeWithoutHeader(4) uncompressedSizeWithoutHeader(4)
+     * prevBlockOffset(8) checksumType(1) bytesPerChecksum(4)
+     * onDiskDataSizeWithHeader(4)
+     */
+    public final static int HEADER_SIZE = 33;
+    private final static int MAGIC_LENGTH = 8;
+    private final static int MAX_BLOCK_SIZE = 64 << 20;
+
+    private final static List<byte[]> SCANNED_BLOCK_MAGICS = Arrays.asList(
+            "DATABLK*".getBytes(StandardCharsets.US_ASCII),
+            "DATABLKE".getBytes(StandardCharsets.US_ASCII),
+            "IDXLEAF2".getBytes(StandardCharsets.US_ASCII),
+            "BLMFBLK2".getBytes(StandardCharsets.US_ASCII));
+
+    private final MinioUtil minioUtil;
+    private final Path path;
+    private final String key;
+    private final long filesize;
+    private final int depth;
+    private final MinioStreamStatistics streamStatistics;
+    private final LinkedList<Segment> segments = new LinkedList<>();
+    private MinioIOClass ioClass;
+    private long lastFillStart = -1;
+    private long lastFillEnd = -1;
+    private long chainOffset = -1;
+    private int chainSize = -1;
+    private byte[] carry;
+    private boolean closed = false;
+
+    public MinioBlockPrefetcher(MinioUtil minioUtil, Path path, String key, long filesize, int depth, MinioStreamStatistics streamStatistics) {
+        this.minioUtil = minioUtil;
+        this.path = path;
+        this.key = key;
+        this.filesize = filesize;
+        this.depth = Math.max(1, depth);
+        this.streamStatistics = streamStatistics;
+    }
+
+    /**
+     * @param data buffer holding a block header
+     * @param off offset of the header in the buffer
+     * @return on disk size of the block including its header, or -1 if there
+     * is no header of a scanned block at the offset
+     */
+    static int parseBlockSize(byte[] data, int off) {
+        if (off < 0 || off + HEADER_SIZE > data.length) {
+            return -1;
+        }
+        boolean known = false;
+        for (byte[] magic : SCANNED_BLOCK_MAGICS) {
+            if (Arrays.equals(data, off, off + MAGIC_LENGTH, magic, 0, MAGIC_LENGTH)) {
+                known = true;
+                break;
+            }
+        }
+        if (!known) {
+            return -1;
+        }
+        ByteBuffer header = ByteBuffer.wrap(data);
+        int onDiskSizeWithoutHeader = header.getInt(off + MAGIC_LENGTH);
+        int uncompressedSizeWithoutHeader = header.getInt(off + MAGIC_LENGTH + 4);
+        int onDiskDataSizeWithHeader = header.getInt(off + HEADER_SIZE - 4);
+        if (onDiskSizeWithoutHeader <= 0 || onDiskSizeWithoutHeader > MAX_BLOCK_SIZE || uncompressedSizeWithoutHeader < 0
+                || onDiskDataSizeWithHeader < HEADER_SIZE || onDiskDataSizeWithHeader > onDiskSizeWithoutHeader + HEADER_SIZE) {
+            return -1;
+        }
+        return onDiskSizeWithoutHeader + HEADER_SIZE;
+    }
+
+    /**
+     * Copies prefetched data starting at the position into the buffer.
+     *
+     * @param start position of the stream
+     * @param buffer buffer of the stream
+     * @param max bytes of the buffer in use
+     * @return bytes copied or -1 if the position was not prefetched
+     * @throws InterruptedIOException if waiting for the data is interrupted
+     */
+    public int read(long start, byte[] buffer, int max) throws InterruptedIOException {
+        Segment segment = null;
+        synchronized (this) {
+            ioClass = MinioIOScheduler.classify(MinioOperation.GET, key);
+            for (Segment s : segments) {
+                if (s.start <= start && start < s.end) {
+                    segment = s;
+                }
+            }
+            if (segment == null) {
+                if (!segments.isEmpty()) {
+                    logger.trace("block prefetch of {} dropped, read moved to {}", path, start);
+                    segments.clear();
+                }
+                return -1;
+            }
+            while (segments.getFirst() != segment) {
+                segments.removeFirst();
+            }
+        }
+        byte[] data;
+        try {
+            data = segment.data.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("waiting for the prefetched block interrupted");
+        } catch (ExecutionException ex) {
+            logger.debug("block prefetch of {} from {} failed", path, segment.start, ex.getCause());
+            clear();
+            return -1;
+        }
+        int len = (int) Math.min(max, segment.start + data.length - start);
+        if (len <= 0) {
+            clear();
+            return -1;
+        }
+        System.arraycopy(data, (int) (start - segment.start), buffer, 0, len);
+        streamStatistics.increment(MinioStreamStatistics.BLOCK_PREFETCH_HITS);
+        synchronized (this) {
+            lastFillStart = start;
+            lastFillEnd = start + len;
+            topUp();
+        }
+        return len;
+    }
+
+    /**
+     * Follows the block chain over a buffer filled from the server and starts
+     * prefetching when the reads are sequential.
+     *
+     * @param start position of the first byte in the buffer
+     * @param buffer buffer of the stream
+     * @param len bytes in the buffer
+     * @param position position of the read that filled the buffer
+     */
+    public synchronized void onFill(long start, byte[] buffer, int len, long position) {
+        ioClass = MinioIOScheduler.classify(MinioOperation.GET, key);
+        long end = start + len;
+        // hfile readers skip at most a cached header
+        boolean sequential = lastFillEnd >= 0 && position >= lastFillEnd && position <= lastFillEnd + HEADER_SIZE;
+        long off = -1;
+        int size = -1;
+        if (sequential && chainOffset >= start && chainSize < 0 && chainOffset + HEADER_SIZE <= end) {
+            // the header split by the end of the previous buffer is in this one
+            off = chainOffset;
+            size = parseBlockSize(buffer, (int) (off - start));
+        } else if (sequential && carry != null && chainOffset + carry.length == start && chainOffset + HEADER_SIZE <= end) {
+            byte[] header = Arrays.copyOf(carry, HEADER_SIZE);
+            System.arraycopy(buffer, 0, header, carry.length, HEADER_SIZE - carry.length);
+            off = chainOffset;
+            size = parseBlockSize(header, 0);
+        } else if (sequential && chainOffset >= 0 && chainSize > 0 && chainOffset + chainSize >= start && chainOffset + chainSize < end) {
+            off = chainOffset + chainSize;
+            size = parseBlockSize(buffer, (int) (off - start));
+        } else if (sequential && chainOffset >= 0 && chainSize > 0 && chainOffset + chainSize >= end) {
+            // still inside a block larger than the buffer
+            lastFillStart = start;
+            lastFillEnd = end;
+            carry = null;
+            return;
+        } else {
+            off = position;
+            size = parseBlockSize(buffer, (int) (position - start));
+        }
+        carry = null;
+        while (size > 0 && off + size + HEADER_SIZE <= end) {
+            int next = parseBlockSize(buffer, (int) (off + size - start));
+            if (next < 0) {
+                size = -1;
+                break;
+            }
+            off += size;
+            size = next;
+        }
+        if (size > 0) {
+            chainOffset = off;
+            chainSize = size;
+            if (off + size < end) {
+                // the header of the next block is split by the end of the buffer
+                chainOffset = off + size;
+                chainSize = -1;
+                carry = Arrays.copyOfRange(buffer, (int) (chainOffset - start), len);
+            }
+        } else {
+            chainOffset = -1;
+            chainSize = -1;
+        }
+        if (sequential && chainSize > 0 && segments.isEmpty() && !closed) {
+            schedule(chainOffset, chainSize, end);
+        }
+        lastFillStart = start;
+        lastFillEnd = end;
+    }
+
+    public synchronized void clear() {
+        segments.clear();
+        chainOffset = -1;
+        chainSize = -1;
+        carry = null;
+        lastFillStart = -1;
+        lastFillEnd = -1;
+    }
+
+    public synchronized void close() {
+        closed = true;
+        clear();
+    }
+
+    private void topUp() {
+        while (!closed && !segments.isEmpty() && segments.size() < depth) {
+            Segment last = segments.getLast();
+            if (!last.data.isDone() || last.data.isCompletedExceptionally()) {
+                return;
+            }
+            byte[] data = last.data.getNow(null);
+            long next = last.blockOffset + last.blockSize;
+            int size = parseBlockSize(data, (int) (next - last.start));
+            if (size < 0 || next >= filesize) {
+                return;
+            }
+            schedule(next, size, next);
+        }
+    }
+
+    private void schedule(long blockOffset, int blockSize, long from) {
+        long start = Math.max(blockOffset, from);
+        long end = Math.min(filesize, blockOffset + blockSize + HEADER_SIZE);
+        if (start >= end) {
+            return;
+        }
+        Segment segment = new Segment(blockOffset, blockSize, start, end);
+        segments.add(segment);
+        streamStatistics.increment(MinioStreamStatistics.BLOCK_PREFETCH_GETS);
+        logger.trace("block of {} at {} size {} will be prefetched from {}", path, blockOffset, blockSize, start);
+        MinioIOClass cls = ioClass;
+        minioUtil.getExecutor().execute(() -> {
+            MinioIOScheduler.IOClassScope scope = MinioIOScheduler.withIOClass(cls);
+            try {
+                int len = (int) (end - start);
+                byte[] data = new byte[len];
+                long begin = System.nanoTime();
+                int readed = minioUtil.fillData(path, start, data, 0, len);
+                streamStatistics.increment(MinioStreamStatistics.NETWORK_WAIT_MICROS, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - begin));
+                streamStatistics.increment(MinioStreamStatistics.BYTES_FETCHED, readed);
+                streamStatistics.increment(MinioStreamStatistics.BLOCK_PREFETCH_BYTES, readed);
+                segment.data.complete(readed == len ? data : Arrays.copyOf(data, readed));
+            } catch (IOException | RuntimeException ex) {
+                segment.data.completeExceptionally(ex);
+            } finally {
+                scope.close();
+            }
+            synchronized (this) {
+                topUp();
+            }
+        });
+    }
+
+    synchronized int getPrefetchedBlocks() {
+        return segments.size();
+    }
+
+    private static class Segment {
+
+        private final long blockOffset;
+        private final int blockSize;
+        private final long start;
+        private final long end;
+        private final CompletableFuture<byte[]> data = new CompletableFuture<>();
+
+        Segment(long blockOffset, int blockSize, long start, long end) {
+            this.blockOffset = blockOffset;
+            this.blockSize = blockSize;
+            this.start = start;
+            this.end = end;
+        }
+
+    }
+
+}
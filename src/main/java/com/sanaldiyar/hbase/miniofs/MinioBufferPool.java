@@ -0,0 +1,108 @@
+/*
+Copyright 2020 Kazım SARIKAYA
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+ */
+package com.sanaldiyar.hbase.miniofs;
+
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Shared pool of heap read buffers. Buffers are kept in power of two size
+ * classes starting at 4KB, a borrowed buffer may be larger than requested.
+ * Released buffers are kept until the idle bytes reach the configured limit,
+ * the rest are left to the garbage collector.
+ *
+ * @author kazim
+ */
+public class MinioBufferPool {
+
+    private final static int MIN_CLASS = 12;
+    private final static int MAX_CLASS = 30;
+
+    private final boolean enabled;
+    private final long maxPooled;
+    private final AtomicLong pooled = new AtomicLong();
+    private final ConcurrentLinkedDeque<byte[]>[] classes;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public MinioBufferPool(Configuration conf) {
+        this.enabled = conf.getBoolean(MinioFileSystem.MINIO_BUFFER_POOL_ENABLED, true);
+        this.maxPooled = conf.getLong(MinioFileSystem.MINIO_BUFFER_POOL_MAX_SIZE, MinioFileSystem.MINIO_DEFAULT_BUFFER_POOL_MAX_SIZE);
+        this.classes = new ConcurrentLinkedDeque[MAX_CLASS + 1];
+        for (int i = MIN_CLASS; i <= MAX_CLASS; i++) {
+            classes[i] = new ConcurrentLinkedDeque<>();
+        }
+    }
+
+    private static int sizeClass(int size) {
+        return Math.max(MIN_CLASS, 32 - Integer.numberOfLeadingZeros(size - 1));
+    }
+
+    /**
+     * @param size requested size
+     * @return a buffer of at least the requested size
+     */
+    public byte[] borrow(int size) {
+        int cls = sizeClass(size);
+        if (!enabled || cls > MAX_CLASS) {
+            return new byte[size];
+        }
+        byte[] buffer = classes[cls].pollFirst();
+        if (buffer != null) {
+            pooled.addAndGet(-buffer.length);
+            MinioFileSystemMetrics.getInstance().setBufferPoolBytes(pooled.get());
+            return buffer;
+        }
+        MinioFileSystemMetrics.getInstance().incrementBufferPoolAllocations();
+        return new byte[1 << cls];
+    }
+
+    /**
+     * @param buffer buffer given by borrow, it must not be used after
+     */
+    public void release(byte[] buffer) {
+        if (!enabled || buffer == null || buffer.length < 1 << MIN_CLASS || Integer.bitCount(buffer.length) != 1) {
+            return;
+        }
+        int cls = sizeClass(buffer.length);
+        if (cls > MAX_CLASS || pooled.addAndGet(buffer.length) > maxPooled) {
+            pooled.addAndGet(-buffer.length);
+            return;
+        }
+        classes[cls].addFirst(buffer);
+        MinioFileSystemMetrics.getInstance().setBufferPoolBytes(pooled.get());
+    }
+
+    /**
+     * @param buffer buffer given by borrow
+     * @param size requested size
+     * @return true if borrow would return a buffer of the same length for the
+     * size
+     */
+    public boolean fits(byte[] buffer, int size) {
+        int cls = sizeClass(size);
+        if (!enabled || cls > MAX_CLASS) {
+            return buffer.length == size;
+        }
+        return buffer.length == 1 << cls;
+    }
+
+    public long getPooledBytes() {
+        return pooled.get();
+    }
+
+}
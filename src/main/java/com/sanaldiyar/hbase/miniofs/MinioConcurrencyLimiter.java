@@ -0,0 +1,210 @@
+/*
+Copyright 2020 Kazım SARIKAYA
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+ */
+package com.sanaldiyar.hbase.miniofs;
+
+import java.io.InterruptedIOException;
+import java.util.EnumMap;
+import java.util.Map;
+import org.apache.hadoop.conf.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Limits in flight minio requests per request class with AIMD. The limit grows
+ * by one per round trip while the requests are healthy and it is cut when the
+ * server throttles or the recent latency exceeds the long term latency by the
+ * configured tolerance. The latency of a request moving more than the latency
+ * unit is counted per unit, so a large transfer is not taken for congestion.
+ *
+ * @author kazim
+ */
+public class MinioConcurrencyLimiter {
+
+    private final static Logger logger = LoggerFactory.getLogger(MinioConcurrencyLimiter.class.getName());
+
+    private final static double SHORT_LATENCY_DECAY = 0.2;
+    private final static double LONG_LATENCY_DECAY = 0.01;
+
+    private final boolean enabled;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final double latencyTolerance;
+    private final long latencyUnit;
+    private final Map<MinioRequestClass, Limit> limits = new EnumMap<>(MinioRequestClass.class);
+
+    public MinioConcurrencyLimiter(Configuration conf) {
+        this.enabled = conf.getBoolean(MinioFileSystem.MINIO_LIMITER_ENABLED, true);
+        this.minLimit = Math.max(1, conf.getInt(MinioFileSystem.MINIO_LIMITER_MIN_LIMIT, MinioFileSystem.MINIO_DEFAULT_LIMITER_MIN_LIMIT));
+        this.maxLimit = Math.max(minLimit, conf.getInt(MinioFileSystem.MINIO_LIMITER_MAX_LIMIT, MinioFileSystem.MINIO_DEFAULT_LIMITER_MAX_LIMIT));
+        this.backoffRatio = conf.getDouble(MinioFileSystem.MINIO_LIMITER_BACKOFF_RATIO, MinioFileSystem.MINIO_DEFAULT_LIMITER_BACKOFF_RATIO);
+        this.latencyTolerance = conf.getDouble(MinioFileSystem.MINIO_LIMITER_LATENCY_TOLERANCE, MinioFileSystem.MINIO_DEFAULT_LIMITER_LATENCY_TOLERANCE);
+        this.latencyUnit = Math.max(1, conf.getLong(MinioFileSystem.MINIO_LIMITER_LATENCY_UNIT, MinioFileSystem.MINIO_DEFAULT_LIMITER_LATENCY_UNIT));
+        int initialLimit = conf.getInt(MinioFileSystem.MINIO_LIMITER_INITIAL_LIMIT, MinioFileSystem.MINIO_DEFAULT_LIMITER_INITIAL_LIMIT);
+        for (MinioRequestClass cls : MinioRequestClass.values()) {
+            limits.put(cls, new Limit(cls, Math.max(minLimit, Math.min(maxLimit, initialLimit))));
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void acquire(MinioRequestClass cls) throws InterruptedIOException {
+        if (!enabled) {
+            return;
+        }
+        try {
+            limits.get(cls).acquire();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("waiting for a " + cls.getName() + " request slot interrupted");
+        }
+    }
+
+    /**
+     * Takes a slot without waiting, for callers queueing the requests
+     * themselves.
+     *
+     * @param cls request class
+     * @return true if a slot is taken
+     */
+    public boolean tryAcquire(MinioRequestClass cls) {
+        if (!enabled) {
+            return true;
+        }
+        return limits.get(cls).tryAcquire();
+    }
+
+    /**
+     * @param cls request class given to acquire
+     * @param nanos duration of the request
+     * @param throttled true if the server rejected the request because of
+     * load or the request timed out
+     */
+    public void release(MinioRequestClass cls, long nanos, boolean throttled) {
+        release(cls, nanos, 0, throttled);
+    }
+
+    /**
+     * @param cls request class given to acquire
+     * @param nanos duration of the request
+     * @param bytes bytes moved in the request body
+     * @param throttled true if the server rejected the request because of
+     * load or the request timed out
+     */
+    public void release(MinioRequestClass cls, long nanos, long bytes, boolean throttled) {
+        if (!enabled) {
+            return;
+        }
+        double latency = bytes > latencyUnit ? (double) nanos * latencyUnit / bytes : nanos;
+        limits.get(cls).release(latency, throttled);
+    }
+
+    public int getLimit(MinioRequestClass cls) {
+        return limits.get(cls).getLimit();
+    }
+
+    public int getInFlight(MinioRequestClass cls) {
+        return limits.get(cls).getInFlight();
+    }
+
+    public int getQueueDepth(MinioRequestClass cls) {
+        return limits.get(cls).getWaiting();
+    }
+
+    private class Limit {
+
+        private final MinioRequestClass cls;
+        private double limit;
+        private int inFlight = 0;
+        private int waiting = 0;
+        private double shortLatency = 0;
+        private double longLatency = 0;
+        private long lastDecrease = 0;
+
+        Limit(MinioRequestClass cls, int initialLimit) {
+            this.cls = cls;
+            this.limit = initialLimit;
+            updateMetrics();
+        }
+
+        synchronized void acquire() throws InterruptedException {
+            waiting++;
+            updateMetrics();
+            try {
+                while (inFlight >= (int) limit) {
+                    wait();
+                }
+            } finally {
+                waiting--;
+            }
+            inFlight++;
+            updateMetrics();
+        }
+
+        synchronized boolean tryAcquire() {
+            // the blocked callers came first
+            if (waiting > 0 || inFlight >= (int) limit) {
+                return false;
+            }
+            inFlight++;
+            updateMetrics();
+            return true;
+        }
+
+        synchronized void release(double latency, boolean throttled) {
+            inFlight--;
+            long now = System.nanoTime();
+            if (!throttled) {
+                shortLatency = shortLatency == 0 ? latency : shortLatency + SHORT_LATENCY_DECAY * (latency - shortLatency);
+                longLatency = longLatency == 0 ? latency : longLatency + LONG_LATENCY_DECAY * (latency - longLatency);
+            }
+            boolean overloaded = throttled || shortLatency > latencyTolerance * longLatency;
+            if (overloaded) {
+                // cut at most once per round trip, the requests in flight were sent with the old limit
+                if (now - lastDecrease > shortLatency) {
+                    limit = Math.max(minLimit, limit * backoffRatio);
+                    lastDecrease = now;
+                    logger.debug("{} concurrency limit decreased to {} throttled: {}", cls.getName(), (int) limit, throttled);
+                }
+            } else if (inFlight + 1 >= limit / 2) {
+                limit = Math.min(maxLimit, limit + 1.0 / limit);
+            }
+            updateMetrics();
+            notifyAll();
+        }
+
+        synchronized int getLimit() {
+            return (int) limit;
+        }
+
+        synchronized int getInFlight() {
+            return inFlight;
+        }
+
+        synchronized int getWaiting() {
+            return waiting;
+        }
+
+        private void updateMetrics() {
+            MinioFileSystemMetrics.getInstance().setConcurrency(cls, (int) limit, inFlight, waiting);
+        }
+
+    }
+
+}
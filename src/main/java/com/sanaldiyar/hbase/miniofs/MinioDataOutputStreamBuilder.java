@@ -0,0 +1,59 @@
+/*
+Copyright 2020 Kazım SARIKAYA
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+ */
+package com.sanaldiyar.hbase.miniofs;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.EnumSet;
+import org.apache.hadoop.fs.CreateFlag;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FSDataOutputStreamBuilder;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Builder of createFile which passes the expected size option to the output
+ * stream.
+ *
+ * @author kazim
+ */
+public class MinioDataOutputStreamBuilder extends FSDataOutputStreamBuilder<FSDataOutputStream, MinioDataOutputStreamBuilder> {
+
+    private final MinioFileSystem fileSystem;
+
+    MinioDataOutputStreamBuilder(MinioFileSystem fileSystem, Path path) {
+        super(fileSystem, path);
+        this.fileSystem = fileSystem;
+    }
+
+    @Override
+    public MinioDataOutputStreamBuilder getThisBuilder() {
+        return this;
+    }
+
+    @Override
+    public FSDataOutputStream build() throws IOException {
+        rejectUnknownMandatoryKeys(Collections.singleton(MinioFileSystem.MINIO_UPLOAD_EXPECTED_SIZE), " for " + getPath());
+        EnumSet<CreateFlag> flags = getFlags();
+        if (flags.contains(CreateFlag.APPEND)) {
+            return fileSystem.append(getPath(), getBufferSize(), getProgress());
+        }
+        long expectedSize = getOptions().getLong(MinioFileSystem.MINIO_UPLOAD_EXPECTED_SIZE, -1);
+        return fileSystem.create_internal(getPath(), getPermission(), flags.contains(CreateFlag.OVERWRITE), getBufferSize(),
+                getReplication(), getBlockSize(), getProgress(), isRecursive(), expectedSize);
+    }
+
+}
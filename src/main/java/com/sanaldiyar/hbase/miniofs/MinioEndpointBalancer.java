@@ -0,0 +1,245 @@
+/*
+Copyright 2020 Kazım SARIKAYA
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+ */
+package com.sanaldiyar.hbase.miniofs;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.minio.BucketExistsArgs;
+import io.minio.MinioClient;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.util.concurrent.HadoopExecutors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Spreads requests over the minio endpoints. Every endpoint has its own
+ * client and connection pool. Endpoints failing repeatedly are ejected and
+ * probed in the background until they answer again.
+ *
+ * @author kazim
+ */
+public class MinioEndpointBalancer {
+
+    private final static Logger logger = LoggerFactory.getLogger(MinioEndpointBalancer.class.getName());
+
+    public final static String POLICY_LEAST_OUTSTANDING = "least-outstanding";
+    public final static String POLICY_LATENCY = "latency";
+
+    private final static double LATENCY_DECAY = 0.2;
+    private final static long TIMEOUT_MINUTES = 5;
+
+    private final List<Endpoint> endpoints;
+    private final String bucket;
+    private final boolean latencyAware;
+    private final int ejectFailures;
+    private ScheduledExecutorService prober;
+
+    public MinioEndpointBalancer(Configuration conf, List<String> urls, String bucket, String accessKey, String secretKey) {
+        this.bucket = bucket;
+        this.latencyAware = POLICY_LATENCY.equals(conf.get(MinioFileSystem.MINIO_ENDPOINT_BALANCER, POLICY_LEAST_OUTSTANDING));
+        this.ejectFailures = conf.getInt(MinioFileSystem.MINIO_ENDPOINT_EJECT_FAILURES, MinioFileSystem.MINIO_DEFAULT_ENDPOINT_EJECT_FAILURES);
+        int maxIdle = conf.getInt(MinioFileSystem.MINIO_CONNECTION_MAX_IDLE, MinioFileSystem.MINIO_DEFAULT_CONNECTION_MAX_IDLE);
+        long keepAlive = conf.getLong(MinioFileSystem.MINIO_CONNECTION_KEEP_ALIVE, MinioFileSystem.MINIO_DEFAULT_CONNECTION_KEEP_ALIVE);
+
+        List<Endpoint> tmp = new ArrayList<>();
+        for (String url : urls) {
+            OkHttpClient httpClient = new OkHttpClient.Builder()
+                    .connectionPool(new ConnectionPool(maxIdle, keepAlive, TimeUnit.MILLISECONDS))
+                    .connectTimeout(TIMEOUT_MINUTES, TimeUnit.MINUTES)
+                    .writeTimeout(TIMEOUT_MINUTES, TimeUnit.MINUTES)
+                    .readTimeout(TIMEOUT_MINUTES, TimeUnit.MINUTES)
+                    .protocols(Arrays.asList(Protocol.HTTP_1_1))
+                    .build();
+            MinioFileClient client = new MinioFileClient(MinioClient.builder()
+                    .endpoint(url)
+                    .credentials(accessKey, secretKey)
+                    .httpClient(httpClient)
+                    .build());
+            tmp.add(new Endpoint(url, client));
+            logger.debug("minio endpoint {} added", url);
+        }
+        this.endpoints = Collections.unmodifiableList(tmp);
+
+        if (endpoints.size() > 1) {
+            long interval = conf.getLong(MinioFileSystem.MINIO_ENDPOINT_PROBE_INTERVAL, MinioFileSystem.MINIO_DEFAULT_ENDPOINT_PROBE_INTERVAL);
+            prober = HadoopExecutors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setDaemon(true)
+                    .setNameFormat("miniofs-endpoint-prober")
+                    .build());
+            prober.scheduleWithFixedDelay(this::probe, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public List<Endpoint> getEndpoints() {
+        return endpoints;
+    }
+
+    public Endpoint acquire() {
+        return acquire(null);
+    }
+
+    /**
+     * Selects an endpoint with power of two choices over the healthy
+     * endpoints.
+     *
+     * @param exclude client of the endpoint to avoid if there is another
+     * healthy one, may be null
+     * @return selected endpoint, it should be released after the request
+     */
+    public Endpoint acquire(MinioClient exclude) {
+        Endpoint selected;
+        if (endpoints.size() == 1) {
+            selected = endpoints.get(0);
+        } else {
+            List<Endpoint> candidates = new ArrayList<>(endpoints.size());
+            for (Endpoint ep : endpoints) {
+                if (ep.healthy && ep.client != exclude) {
+                    candidates.add(ep);
+                }
+            }
+            if (candidates.isEmpty()) {
+                for (Endpoint ep : endpoints) {
+                    if (ep.healthy) {
+                        candidates.add(ep);
+                    }
+                }
+            }
+            if (candidates.isEmpty()) {
+                candidates.addAll(endpoints);
+            }
+            if (candidates.size() == 1) {
+                selected = candidates.get(0);
+            } else {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                int first = random.nextInt(candidates.size());
+                int second = random.nextInt(candidates.size() - 1);
+                if (second >= first) {
+                    second++;
+                }
+                Endpoint a = candidates.get(first);
+                Endpoint b = candidates.get(second);
+                selected = a.getLoad(latencyAware) <= b.getLoad(latencyAware) ? a : b;
+            }
+        }
+        selected.outstanding.incrementAndGet();
+        return selected;
+    }
+
+    /**
+     * @param endpoint endpoint returned by acquire
+     * @param nanos duration of the request
+     * @param failed true if the endpoint did not answer properly
+     * @param throttled true if the endpoint answered with a throttling error,
+     * it is healthy and only asked for less load
+     */
+    public void release(Endpoint endpoint, long nanos, boolean failed, boolean throttled) {
+        endpoint.outstanding.decrementAndGet();
+        if (throttled) {
+            // neither a failure nor a latency sample, the limiter backs off
+            return;
+        }
+        if (failed) {
+            int failures = endpoint.failures.incrementAndGet();
+            if (endpoints.size() > 1 && failures >= ejectFailures && endpoint.healthy) {
+                endpoint.healthy = false;
+                logger.warn("minio endpoint {} ejected after {} consecutive failures", endpoint.url, failures);
+            }
+        } else {
+            endpoint.failures.set(0);
+            endpoint.recordLatency(nanos);
+        }
+    }
+
+    private void probe() {
+        for (Endpoint ep : endpoints) {
+            if (ep.healthy) {
+                continue;
+            }
+            try {
+                ep.client.bucketExists(BucketExistsArgs.builder().bucket(bucket).build());
+                ep.failures.set(0);
+                ep.healthy = true;
+                logger.info("minio endpoint {} is healthy again", ep.url);
+            } catch (Exception ex) {
+                logger.debug("minio endpoint {} is still unhealthy: {}", ep.url, ex.toString());
+            }
+        }
+    }
+
+    /**
+     * Stops the prober, called when the jvm shuts down.
+     */
+    public void close() {
+        if (prober != null) {
+            prober.shutdownNow();
+        }
+    }
+
+    public static class Endpoint {
+
+        private final String url;
+        private final MinioFileClient client;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicInteger failures = new AtomicInteger();
+        private volatile boolean healthy = true;
+        private volatile double latency = 0;
+
+        Endpoint(String url, MinioFileClient client) {
+            this.url = url;
+            this.client = client;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public MinioFileClient getClient() {
+            return client;
+        }
+
+        public int getOutstanding() {
+            return outstanding.get();
+        }
+
+        public boolean isHealthy() {
+            return healthy;
+        }
+
+        private synchronized void recordLatency(long nanos) {
+            latency = latency == 0 ? nanos : latency + LATENCY_DECAY * (nanos - latency);
+        }
+
+        private double getLoad(boolean latencyAware) {
+            if (latencyAware) {
+                return (outstanding.get() + 1) * latency;
+            }
+            return outstanding.get();
+        }
+
+    }
+
+}
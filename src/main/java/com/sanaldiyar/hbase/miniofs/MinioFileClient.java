@@ -0,0 +1,59 @@
+/*
+Copyright 2020 Kazım SARIKAYA
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+ */
+package com.sanaldiyar.hbase.miniofs;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Multimap;
+import io.minio.MinioClient;
+import io.minio.ObjectWriteResponse;
+import io.minio.errors.ErrorResponseException;
+import io.minio.errors.InsufficientDataException;
+import io.minio.errors.InternalException;
+import io.minio.errors.InvalidResponseException;
+import io.minio.errors.ServerException;
+import io.minio.errors.XmlParserException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Minio client which puts a local file as a single object. The request body
+ * is written from the channel of the file, an input stream is buffered on the
+ * heap by the client as a whole to compute its digests.
+ *
+ * @author kazim
+ */
+public class MinioFileClient extends MinioClient {
+
+    public MinioFileClient(MinioClient client) {
+        super(client);
+    }
+
+    /**
+     * @param length bytes from the beginning of the file to put
+     */
+    public ObjectWriteResponse putFile(String bucket, String object, File file, int length) throws ErrorResponseException, InsufficientDataException, InternalException, InvalidKeyException, InvalidResponseException, IOException, NoSuchAlgorithmException, ServerException, XmlParserException {
+        Multimap<String, String> headers = HashMultimap.create();
+        headers.put("Content-Type", "application/octet-stream");
+        try (RandomAccessFile data = new RandomAccessFile(file, "r")) {
+            return putObject(bucket, null, object, data, length, headers, HashMultimap.create());
+        }
+    }
+
+}
@@ -0,0 +1,72 @@
+/*
+Copyright 2020 Kazım SARIKAYA
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+ */
+package com.sanaldiyar.hbase.miniofs;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A range of a file read by {@link MinioInputStream#readVectored}. The data
+ * future is completed when the range is read. Negative offsets and lengths
+ * are rejected here, the class is final so the reads can trust them.
+ *
+ * @author kazim
+ */
+public final class MinioFileRange {
+
+    private final long offset;
+    private final int length;
+    private CompletableFuture<ByteBuffer> data;
+
+    public MinioFileRange(long offset, int length) {
+        if (offset < 0 || length < 0) {
+            throw new IllegalArgumentException(String.format("invalid range offset %d length %d", offset, length));
+        }
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public static MinioFileRange createFileRange(long offset, int length) {
+        return new MinioFileRange(offset, length);
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public long getEnd() {
+        return offset + length;
+    }
+
+    public CompletableFuture<ByteBuffer> getData() {
+        return data;
+    }
+
+    public void setData(CompletableFuture<ByteBuffer> data) {
+        this.data = data;
+    }
+
+    @Override
+    public String toString() {
+        return "range[" + offset + "," + getEnd() + ")";
+    }
+
+}
@@ -32,10 +32,16 @@ public class MinioFileStatus extends FileStatus {
     private final long ma_time;
     private final Path path;
     private final long length;
+    private final String etag;
 
     public MinioFileStatus(Path path, boolean isDirectory, long length) {
+        this(path, isDirectory, length, null);
+    }
+
+    public MinioFileStatus(Path path, boolean isDirectory, long length, String etag) {
         this.path = path;
         this.length = length;
+        this.etag = etag;
         ma_time = new Date().getTime();
         isDir = isDirectory;
     }
@@ -93,4 +99,11 @@ public class MinioFileStatus extends FileStatus {
         return path;
     }
 
+    /**
+     * @return etag of the object version or null if it is not known
+     */
+    public String getEtag() {
+        return etag;
+    }
+
 }
@@ -18,12 +18,17 @@ package com.sanaldiyar.hbase.miniofs;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.URI;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.CreateFlag;
@@ -34,7 +39,10 @@ import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.ParentNotDirectoryException;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.impl.AbstractFSBuilderImpl;
+import org.apache.hadoop.fs.impl.OpenFileParameters;
 import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.util.LambdaUtils;
 import org.apache.hadoop.util.Progressable;
 import org.apache.hadoop.util.concurrent.HadoopExecutors;
 import org.slf4j.Logger;
@@ -49,14 +57,142 @@ public class MinioFileSystem extends FileSystem {
     public final static int MINIO_DEFAULT_PART_SIZE = 5 << 20;
     public final static int MINIO_DEFAULT_BUFFER_SIZE = 128 << 10;
 
+    public final static String MINIO_UPLOAD_PART_ADAPTIVE = "fs.minio.upload-part.adaptive";
+    public final static String MINIO_UPLOAD_PART_MAX_SIZE = "fs.minio.upload-part.max-size";
+    public final static String MINIO_UPLOAD_PART_GROWTH_FACTOR = "fs.minio.upload-part.growth-factor";
+    public final static String MINIO_UPLOAD_PART_GROWTH_INTERVAL = "fs.minio.upload-part.growth-interval";
+    public final static String MINIO_UPLOAD_EXPECTED_SIZE = "fs.minio.upload.expected-size";
+    public final static long MINIO_DEFAULT_UPLOAD_PART_MAX_SIZE = 128L << 20;
+    public final static double MINIO_DEFAULT_UPLOAD_PART_GROWTH_FACTOR = 2;
+    public final static int MINIO_DEFAULT_UPLOAD_PART_GROWTH_INTERVAL = 4;
+
+    public final static String MINIO_BUFFER_DIRS = "fs.minio.buffer.dirs";
+    public final static String MINIO_BUFFER_DIRS_MIN_FREE = "fs.minio.buffer.dirs.min-free";
+    public final static String MINIO_BUFFER_DIRS_RETRY_INTERVAL = "fs.minio.buffer.dirs.failure-retry-interval";
+    public final static long MINIO_DEFAULT_BUFFER_DIRS_MIN_FREE = 16L << 20;
+    public final static long MINIO_DEFAULT_BUFFER_DIRS_RETRY_INTERVAL = 60000;
+
+    public final static String MINIO_RETRY_MAX_ATTEMPTS = "fs.minio.retry.max-attempts";
+    public final static String MINIO_RETRY_OPERATION_MAX_ATTEMPTS = "fs.minio.retry.%s.max-attempts";
+    public final static String MINIO_RETRY_BASE_DELAY = "fs.minio.retry.base-delay.ms";
+    public final static String MINIO_RETRY_MAX_DELAY = "fs.minio.retry.max-delay.ms";
+    public final static String MINIO_RETRY_BUDGET_RATIO = "fs.minio.retry.budget.ratio";
+    public final static String MINIO_RETRY_BUDGET_MIN_PER_SECOND = "fs.minio.retry.budget.min-per-second";
+    public final static int MINIO_DEFAULT_RETRY_MAX_ATTEMPTS = 4;
+    public final static long MINIO_DEFAULT_RETRY_BASE_DELAY = 100;
+    public final static long MINIO_DEFAULT_RETRY_MAX_DELAY = 5000;
+    public final static float MINIO_DEFAULT_RETRY_BUDGET_RATIO = 0.2f;
+    public final static float MINIO_DEFAULT_RETRY_BUDGET_MIN_PER_SECOND = 10f;
+
+    public final static String MINIO_HEDGE_ENABLED = "fs.minio.hedge.enabled";
+    public final static String MINIO_HEDGE_PERCENTILE = "fs.minio.hedge.percentile";
+    public final static String MINIO_HEDGE_BUDGET_PERCENT = "fs.minio.hedge.budget.percent";
+    public final static String MINIO_HEDGE_MIN_DELAY = "fs.minio.hedge.min-delay.ms";
+    public final static String MINIO_HEDGE_MIN_SAMPLES = "fs.minio.hedge.min-samples";
+    public final static String MINIO_HEDGE_WINDOW_SIZE = "fs.minio.hedge.window-size";
+    public final static double MINIO_DEFAULT_HEDGE_PERCENTILE = 95;
+    public final static double MINIO_DEFAULT_HEDGE_BUDGET_PERCENT = 5;
+    public final static long MINIO_DEFAULT_HEDGE_MIN_DELAY = 2;
+    public final static long MINIO_DEFAULT_HEDGE_MIN_SAMPLES = 100;
+    public final static int MINIO_DEFAULT_HEDGE_WINDOW_SIZE = 1024;
+
+    public final static String MINIO_ENDPOINTS = "fs.minio.endpoints";
+    public final static String MINIO_ENDPOINT_BALANCER = "fs.minio.endpoints.balancer";
+    public final static String MINIO_ENDPOINT_EJECT_FAILURES = "fs.minio.endpoints.eject-failures";
+    public final static String MINIO_ENDPOINT_PROBE_INTERVAL = "fs.minio.endpoints.probe-interval.ms";
+    public final static String MINIO_CONNECTION_MAX_IDLE = "fs.minio.connection.max-idle";
+    public final static String MINIO_CONNECTION_KEEP_ALIVE = "fs.minio.connection.keep-alive.ms";
+    public final static int MINIO_DEFAULT_ENDPOINT_EJECT_FAILURES = 3;
+    public final static long MINIO_DEFAULT_ENDPOINT_PROBE_INTERVAL = 5000;
+    public final static int MINIO_DEFAULT_CONNECTION_MAX_IDLE = 16;
+    public final static long MINIO_DEFAULT_CONNECTION_KEEP_ALIVE = 5 * 60 * 1000;
+
+    public final static String MINIO_LIMITER_ENABLED = "fs.minio.limiter.enabled";
+    public final static String MINIO_LIMITER_INITIAL_LIMIT = "fs.minio.limiter.initial-limit";
+    public final static String MINIO_LIMITER_MIN_LIMIT = "fs.minio.limiter.min-limit";
+    public final static String MINIO_LIMITER_MAX_LIMIT = "fs.minio.limiter.max-limit";
+    public final static String MINIO_LIMITER_BACKOFF_RATIO = "fs.minio.limiter.backoff-ratio";
+    public final static String MINIO_LIMITER_LATENCY_TOLERANCE = "fs.minio.limiter.latency-tolerance";
+    public final static String MINIO_LIMITER_LATENCY_UNIT = "fs.minio.limiter.latency-unit";
+    public final static int MINIO_DEFAULT_LIMITER_INITIAL_LIMIT = 32;
+    public final static int MINIO_DEFAULT_LIMITER_MIN_LIMIT = 2;
+    public final static int MINIO_DEFAULT_LIMITER_MAX_LIMIT = 256;
+    public final static double MINIO_DEFAULT_LIMITER_BACKOFF_RATIO = 0.9;
+    public final static double MINIO_DEFAULT_LIMITER_LATENCY_TOLERANCE = 2.0;
+    public final static long MINIO_DEFAULT_LIMITER_LATENCY_UNIT = 1024 * 1024;
+
+    public final static String MINIO_SCHEDULER_ENABLED = "fs.minio.scheduler.enabled";
+    public final static String MINIO_SCHEDULER_MAX_CONCURRENCY = "fs.minio.scheduler.max-concurrency";
+    public final static String MINIO_SCHEDULER_CLASS_WEIGHT = "fs.minio.scheduler.%s.weight";
+    public final static String MINIO_SCHEDULER_CLASS_BANDWIDTH = "fs.minio.scheduler.%s.bandwidth";
+    public final static int MINIO_DEFAULT_SCHEDULER_MAX_CONCURRENCY = 128;
+
+    public final static String MINIO_VECTORED_MAX_MERGE_GAP = "fs.minio.vectored.max-merge-gap";
+    public final static String MINIO_VECTORED_MAX_MERGED_SIZE = "fs.minio.vectored.max-merged-size";
+    public final static int MINIO_DEFAULT_VECTORED_MAX_MERGE_GAP = 16 << 10;
+    public final static int MINIO_DEFAULT_VECTORED_MAX_MERGED_SIZE = 8 << 20;
+
+    public final static String MINIO_TAIL_PREFETCH = "fs.minio.tail-prefetch";
+    public final static String MINIO_TAIL_PREFETCH_ENABLED = "fs.minio.tail-prefetch.enabled";
+    public final static String MINIO_TAIL_PREFETCH_PATTERN = "fs.minio.tail-prefetch.pattern";
+    public final static String MINIO_TAIL_PREFETCH_SIZE = "fs.minio.tail-prefetch.size";
+    public final static String MINIO_TAIL_PREFETCH_MAX_SIZE = "fs.minio.tail-prefetch.max-size";
+    public final static String MINIO_DEFAULT_TAIL_PREFETCH_PATTERN = ".*/[0-9a-f]{32}/(\\.tmp/)?[^/]+/[0-9a-f]{32}(_SeqId_[0-9]+_)?";
+    public final static int MINIO_DEFAULT_TAIL_PREFETCH_SIZE = 64 << 10;
+    public final static int MINIO_DEFAULT_TAIL_PREFETCH_MAX_SIZE = 1 << 20;
+
+    public final static String MINIO_BLOCK_PREFETCH_ENABLED = "fs.minio.block-prefetch.enabled";
+    public final static String MINIO_BLOCK_PREFETCH_DEPTH = "fs.minio.block-prefetch.depth";
+    public final static int MINIO_DEFAULT_BLOCK_PREFETCH_DEPTH = 4;
+
+    public final static String MINIO_PARALLEL_FETCH_ENABLED = "fs.minio.parallel-fetch.enabled";
+    public final static String MINIO_PARALLEL_FETCH_WINDOW = "fs.minio.parallel-fetch.window";
+    public final static String MINIO_PARALLEL_FETCH_MIN_RANGE = "fs.minio.parallel-fetch.min-range";
+    public final static String MINIO_PARALLEL_FETCH_MAX_STREAMS = "fs.minio.parallel-fetch.max-streams";
+    public final static int MINIO_DEFAULT_PARALLEL_FETCH_WINDOW = 16 << 20;
+    public final static int MINIO_DEFAULT_PARALLEL_FETCH_MIN_RANGE = 1 << 20;
+    public final static int MINIO_DEFAULT_PARALLEL_FETCH_MAX_STREAMS = 8;
+
+    public final static String MINIO_SINGLE_FLIGHT_ENABLED = "fs.minio.single-flight.enabled";
+    public final static String MINIO_SINGLE_FLIGHT_ALIGNMENT = "fs.minio.single-flight.alignment";
+    public final static int MINIO_DEFAULT_SINGLE_FLIGHT_ALIGNMENT = 64 << 10;
+
+    public final static String MINIO_BUFFER_POOL_ENABLED = "fs.minio.buffer-pool.enabled";
+    public final static String MINIO_BUFFER_POOL_MAX_SIZE = "fs.minio.buffer-pool.max-size";
+    public final static long MINIO_DEFAULT_BUFFER_POOL_MAX_SIZE = 256L << 20;
+
+    public final static String MINIO_REPLICA_CACHE_ENABLED = "fs.minio.replica-cache.enabled";
+    public final static String MINIO_REPLICA_CACHE_DIR = "fs.minio.replica-cache.dir";
+    public final static String MINIO_REPLICA_CACHE_MAX_FILE_SIZE = "fs.minio.replica-cache.max-file-size";
+    public final static String MINIO_REPLICA_CACHE_MAX_SIZE = "fs.minio.replica-cache.max-size";
+    public final static String MINIO_REPLICA_CACHE_REVALIDATE_INTERVAL = "fs.minio.replica-cache.revalidate-interval";
+    public final static long MINIO_DEFAULT_REPLICA_CACHE_MAX_FILE_SIZE = 1L << 20;
+    public final static long MINIO_DEFAULT_REPLICA_CACHE_MAX_SIZE = 256L << 20;
+    public final static long MINIO_DEFAULT_REPLICA_CACHE_REVALIDATE_INTERVAL = 30000;
+
+    public final static String MINIO_CACHE_ON_WRITE_ENABLED = "fs.minio.cache-on-write.enabled";
+    public final static String MINIO_CACHE_ON_WRITE_MAX_FILE_SIZE = "fs.minio.cache-on-write.max-file-size";
+    public final static long MINIO_DEFAULT_CACHE_ON_WRITE_MAX_FILE_SIZE = 64L << 20;
+
+    public final static String MINIO_WARMUP_CONCURRENCY = "fs.minio.warmup.concurrency";
+    public final static String MINIO_WARMUP_MAX_FILE_SIZE = "fs.minio.warmup.max-file-size";
+    public final static int MINIO_DEFAULT_WARMUP_CONCURRENCY = 8;
+    public final static long MINIO_DEFAULT_WARMUP_MAX_FILE_SIZE = 16L << 20;
+
+    public final static String MINIO_WAL_STAGING_ENABLED = "fs.minio.wal-staging.enabled";
+    public final static String MINIO_WAL_STAGING_DIR = "fs.minio.wal-staging.dir";
+    public final static String MINIO_WAL_STAGING_BUFFER_SIZE = "fs.minio.wal-staging.buffer-size";
+    public final static int MINIO_DEFAULT_WAL_STAGING_BUFFER_SIZE = 64 << 10;
+
     private final static Logger logger = LoggerFactory.getLogger(MinioFileSystem.class.getName());
 
     private final static List<String> locks = Collections.synchronizedList(new LinkedList<>());
+    private final static Map<String, MinioWriter> writers = new ConcurrentHashMap<>();
 
     private URI uri;
     private Path workingDir;
     private final MinioUtil minioUtil = MinioUtil.getInstance();
-    private final List<MinioOutputStream> outputStreams = Collections.synchronizedList(new LinkedList<>());
+    private final List<MinioWriter> outputStreams = Collections.synchronizedList(new LinkedList<>());
     private boolean closed = false;
 
     public MinioFileSystem() {
@@ -66,7 +202,14 @@ public class MinioFileSystem extends FileSystem {
         return locks;
     }
 
-    List<MinioOutputStream> getOutputStreams() {
+    /**
+     * @return open output streams of the jvm by their keys
+     */
+    static Map<String, MinioWriter> getWriters() {
+        return writers;
+    }
+
+    List<MinioWriter> getOutputStreams() {
         return outputStreams;
     }
 
@@ -98,31 +241,74 @@ public class MinioFileSystem extends FileSystem {
     @Override
     public FSDataInputStream open(Path path, int bufferSize) throws IOException {
         path = makeAbsolute(path);
-        try {
-            FileStatus fs = getFileStatus(path);
-            if (!fs.isFile()) {
-                throw new IOException(String.format("requested path is not file %s", path.toString()));
-            }
-        } catch (FileNotFoundException ex) {
-            throw ex;
+        MinioWriterInputStream writing = openWriting(path);
+        if (writing != null) {
+            return new FSDataInputStream(writing);
         }
+        // the stream stats the file itself
         MinioInputStream mis = new MinioInputStream(path, getConf(), getDefaultBlockSize(path), statistics);
         logger.debug("file {} opened with buffer {}", path, bufferSize);
         return new FSDataInputStream(mis);
     }
 
+    /**
+     * @return a stream reading through the output stream writing the path in
+     * this jvm or null if the path is not being written
+     */
+    private MinioWriterInputStream openWriting(Path path) throws IOException {
+        MinioWriter writer = writers.get(minioUtil.getPrefix(path));
+        if (writer == null || writer.isCompleted()) {
+            return null;
+        }
+        return new MinioWriterInputStream(writer, getConf(), getDefaultBlockSize(path), statistics);
+    }
+
+    /**
+     * Opens the file with the options of the openFile builder. The option
+     * fs.minio.tail-prefetch overrides the tail prefetch decision of the path
+     * pattern.
+     */
+    @Override
+    protected CompletableFuture<FSDataInputStream> openFileWithOptions(Path path, OpenFileParameters parameters) throws IOException {
+        AbstractFSBuilderImpl.rejectUnknownMandatoryKeys(parameters.getMandatoryKeys(), Collections.singleton(MINIO_TAIL_PREFETCH), "for " + path);
+        CompletableFuture<FSDataInputStream> result = new CompletableFuture<>();
+        return LambdaUtils.eval(result, () -> {
+            Path absolute = makeAbsolute(path);
+            MinioWriterInputStream writing = openWriting(absolute);
+            if (writing != null) {
+                return new FSDataInputStream(writing);
+            }
+            // only a status with an etag is trusted, the stream stats the file otherwise
+            MinioFileStatus status = parameters.getStatus() instanceof MinioFileStatus ? (MinioFileStatus) parameters.getStatus() : null;
+            boolean tailPrefetch = parameters.getOptions().getBoolean(MINIO_TAIL_PREFETCH,
+                    minioUtil.getTailPrefetchPolicy().matches(minioUtil.getPrefix(absolute)));
+            MinioInputStream mis = new MinioInputStream(absolute, getConf(), getDefaultBlockSize(absolute), statistics, tailPrefetch, status);
+            logger.debug("file {} opened with tail prefetch {}", absolute, tailPrefetch);
+            return new FSDataInputStream(mis);
+        });
+    }
+
     @Override
     public FSDataOutputStream create(Path path, FsPermission permission, boolean override, int bufferSize, short replication, long blockSize, Progressable progress) throws IOException {
-        return create_internal(path, permission, override, bufferSize, replication, blockSize, progress, true);
+        return create_internal(path, permission, override, bufferSize, replication, blockSize, progress, true, -1);
     }
 
     @Override
     public FSDataOutputStream createNonRecursive(Path path, FsPermission permission, EnumSet<CreateFlag> flags, int bufferSize, short replication, long blockSize, Progressable progress) throws IOException {
         boolean override = flags.contains(CreateFlag.OVERWRITE);
-        return create_internal(path, permission, override, bufferSize, replication, blockSize, progress, false);
+        return create_internal(path, permission, override, bufferSize, replication, blockSize, progress, false, -1);
     }
 
-    private FSDataOutputStream create_internal(Path path, FsPermission perm, boolean override, int bufferSize, short replication, long blockSize, Progressable p, boolean recursive) throws IOException {
+    /**
+     * The builder accepts the option fs.minio.upload.expected-size, the parts
+     * of the upload are sized for it.
+     */
+    @Override
+    public MinioDataOutputStreamBuilder createFile(Path path) {
+        return new MinioDataOutputStreamBuilder(this, path).create().overwrite(true);
+    }
+
+    FSDataOutputStream create_internal(Path path, FsPermission perm, boolean override, int bufferSize, short replication, long blockSize, Progressable p, boolean recursive, long expectedSize) throws IOException {
         path = makeAbsolute(path);
         if (!checkLock(path)) {
             throw new IOException(String.format("path is locked %s", path));
@@ -150,7 +336,15 @@ public class MinioFileSystem extends FileSystem {
                 throw new FileAlreadyExistsException(String.format("path already exists %s", path.toString()));
             }
         }
-        MinioOutputStream mos = new MinioOutputStream(path, getConf(), statistics);
+        MinioWalStaging staging = minioUtil.getWalStaging();
+        String key = minioUtil.getPrefix(path);
+        if (staging.accepts(key)) {
+            MinioWalOutputStream wos = staging.create(this, path, key, statistics);
+            outputStreams.add(wos);
+            logger.info("new wal segment will be staged for {}", path);
+            return new FSDataOutputStream(wos, null);
+        }
+        MinioOutputStream mos = new MinioOutputStream(path, getConf(), statistics, expectedSize);
         FSDataOutputStream outputStream = new FSDataOutputStream(mos, null);
         outputStreams.add(mos);
         logger.info("new file will be created for {}", path);
@@ -193,6 +387,7 @@ public class MinioFileSystem extends FileSystem {
         if (!checkLock(source)) {
             return false;
         }
+        minioUtil.getWalStaging().awaitShipped(minioUtil.getPrefix(source));
         return minioUtil.rename(source, destination);
     }
 
@@ -203,6 +398,7 @@ public class MinioFileSystem extends FileSystem {
         if (!checkLock(path)) {
             return false;
         }
+        minioUtil.getWalStaging().awaitShipped(minioUtil.getPrefix(path));
         boolean result = minioUtil.delete(path, recursive);
         logger.info("path {} {} deleted with option recursive={}", path, result ? "can" : "cannot", recursive);
         return result;
@@ -213,6 +409,64 @@ public class MinioFileSystem extends FileSystem {
         return minioUtil.listStatus(makeAbsolute(path));
     }
 
+    /**
+     * Fetches the files under the directory into the local replica cache
+     * before they are opened, e.g. when the regions of a table are assigned.
+     * The directory is listed with a single recursive listing. Small files and
+     * hfiles up to fs.minio.warmup.max-file-size are kept whole, only the tail
+     * of the larger hfiles is kept. At most fs.minio.warmup.concurrency files
+     * are fetched at the same time. Files failing to be fetched are skipped.
+     *
+     * @param path region, table or any other directory
+     * @return number of the files fetched
+     * @throws IOException if the directory cannot be listed
+     */
+    public int warmup(Path path) throws IOException {
+        path = makeAbsolute(path);
+        MinioReplicaCache cache = minioUtil.getReplicaCache();
+        if (!cache.isEnabled()) {
+            logger.debug("warmup of {} skipped, replica cache is disabled", path);
+            return 0;
+        }
+        MinioTailPrefetchPolicy policy = minioUtil.getTailPrefetchPolicy();
+        long wholeSize = getConf().getLong(MINIO_WARMUP_MAX_FILE_SIZE, MINIO_DEFAULT_WARMUP_MAX_FILE_SIZE);
+        Semaphore permits = new Semaphore(Math.max(1, getConf().getInt(MINIO_WARMUP_CONCURRENCY, MINIO_DEFAULT_WARMUP_CONCURRENCY)));
+        List<CompletableFuture<Boolean>> warmups = new LinkedList<>();
+        for (MinioFileStatus status : minioUtil.listMinioStatus(path, true)) {
+            if (!status.isFile()) {
+                continue;
+            }
+            String key = minioUtil.getPrefix(status.getPath());
+            if (!cache.accepts(status.getLen()) && !policy.matches(key)) {
+                continue;
+            }
+            try {
+                permits.acquire();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("warmup of " + path + " interrupted");
+            }
+            warmups.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return cache.warm(minioUtil, status.getPath(), key, status, wholeSize, policy.getMaxSize());
+                } catch (IOException ex) {
+                    logger.warn("warmup of {} failed", status.getPath(), ex);
+                    return false;
+                } finally {
+                    permits.release();
+                }
+            }, minioUtil.getExecutor()));
+        }
+        int warmed = 0;
+        for (CompletableFuture<Boolean> warmup : warmups) {
+            if (warmup.join()) {
+                warmed++;
+            }
+        }
+        logger.info("warmup of {} fetched {} of {} files", path, warmed, warmups.size());
+        return warmed;
+    }
+
     @Override
     public void setWorkingDirectory(Path path) {
         logger.debug("new working directory will be {} old working directroy is {}", path, workingDir);
@@ -231,7 +485,13 @@ public class MinioFileSystem extends FileSystem {
 
     @Override
     public FileStatus getFileStatus(Path path) throws IOException {
-        return minioUtil.getFileStatus(makeAbsolute(path));
+        path = makeAbsolute(path);
+        MinioWalOutputStream segment = minioUtil.getWalStaging().get(minioUtil.getPrefix(path));
+        if (segment != null && !segment.isCompleted()) {
+            // staged wal segments exist before they are uploaded
+            return new FileStatus(new MinioFileStatus(path.makeQualified(minioUtil.getRootPath().toUri(), minioUtil.getRootPath()), false, segment.getWritten()));
+        }
+        return minioUtil.getFileStatus(path);
     }
 
     @Override
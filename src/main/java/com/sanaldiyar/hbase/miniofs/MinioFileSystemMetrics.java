@@ -0,0 +1,372 @@
+/*
+Copyright 2020 Kazım SARIKAYA
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+ */
+package com.sanaldiyar.hbase.miniofs;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.metrics2.MetricsCollector;
+import org.apache.hadoop.metrics2.MetricsException;
+import org.apache.hadoop.metrics2.MetricsSource;
+import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
+import org.apache.hadoop.metrics2.lib.MetricsRegistry;
+import org.apache.hadoop.metrics2.lib.MutableCounterLong;
+import org.apache.hadoop.metrics2.lib.MutableGaugeInt;
+import org.apache.hadoop.metrics2.lib.MutableGaugeLong;
+import org.apache.hadoop.metrics2.lib.MutableQuantiles;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hadoop metrics2 source of the minio file system.
+ *
+ * @author kazim
+ */
+public class MinioFileSystemMetrics implements MetricsSource {
+
+    private final static Logger logger = LoggerFactory.getLogger(MinioFileSystemMetrics.class.getName());
+
+    public final static String METRICS_SOURCE_NAME = "MinioFileSystem";
+    public final static String METRICS_CONTEXT = "miniofs";
+
+    private final static int QUANTILE_INTERVAL = 60;
+
+    private final static MinioFileSystemMetrics instance = new MinioFileSystemMetrics();
+
+    private final MetricsRegistry registry = new MetricsRegistry(METRICS_SOURCE_NAME).setContext(METRICS_CONTEXT);
+    private final Map<MinioOperation, OperationMetrics> operations = new EnumMap<>(MinioOperation.class);
+    private final Map<MinioPathClass, OperationMetrics> pathClasses = new EnumMap<>(MinioPathClass.class);
+    private final Map<MinioPathClass, Map<MinioOperation, MutableCounterLong>> pathClassRequests = new EnumMap<>(MinioPathClass.class);
+    private final Map<String, MutableCounterLong> inputStreamCounters = new HashMap<>();
+    private final Map<String, MutableCounterLong> outputStreamCounters = new HashMap<>();
+    private final Map<MinioOperation, MutableCounterLong> retries = new EnumMap<>(MinioOperation.class);
+    private final Map<MinioOperation, MutableCounterLong> retriesExhausted = new EnumMap<>(MinioOperation.class);
+    private final Map<MinioRequestClass, MutableGaugeInt> concurrencyLimits = new EnumMap<>(MinioRequestClass.class);
+    private final Map<MinioRequestClass, MutableGaugeInt> inFlightRequests = new EnumMap<>(MinioRequestClass.class);
+    private final Map<MinioRequestClass, MutableGaugeInt> queuedRequests = new EnumMap<>(MinioRequestClass.class);
+    private final Map<MinioIOClass, MutableGaugeInt> ioInFlight = new EnumMap<>(MinioIOClass.class);
+    private final Map<MinioIOClass, MutableGaugeInt> ioQueued = new EnumMap<>(MinioIOClass.class);
+    private final Map<MinioIOClass, MutableCounterLong> ioThrottleTime = new EnumMap<>(MinioIOClass.class);
+    private final MutableCounterLong hedgedGets = registry.newCounter("getHedged", "ranged gets duplicated after the hedge delay", 0L);
+    private final MutableCounterLong hedgeWins = registry.newCounter("getHedgeWins", "hedged gets answered before the original request", 0L);
+    private final MutableGaugeLong bufferPoolBytes = registry.newGauge("bufferPoolBytes", "idle bytes in the read buffer pool", 0L);
+    private final MutableCounterLong bufferPoolAllocations = registry.newCounter("bufferPoolAllocations", "read buffers allocated because the pool was empty", 0L);
+    private final MutableGaugeLong replicaCacheBytes = registry.newGauge("replicaCacheBytes", "bytes of the local replicas of small files", 0L);
+    private final MutableCounterLong replicaCacheHits = registry.newCounter("replicaCacheHits", "opens served from a local replica", 0L);
+    private final MutableCounterLong replicaCacheDownloads = registry.newCounter("replicaCacheDownloads", "local replicas downloaded or replaced", 0L);
+    private final MutableCounterLong replicaCacheWrites = registry.newCounter("replicaCacheWrites", "local replicas kept from written files", 0L);
+    private final MutableCounterLong walSyncs = registry.newCounter("walSyncs", "fsyncs of the staged wal segments", 0L);
+    private final MutableCounterLong walSyncsCoalesced = registry.newCounter("walSyncsCoalesced", "wal syncs covered by the fsync of another sync", 0L);
+    private final MutableCounterLong walSegmentsShipped = registry.newCounter("walSegmentsShipped", "staged wal segments uploaded", 0L);
+    private final MutableGaugeInt walSegmentsPending = registry.newGauge("walSegmentsPending", "closed wal segments waiting to be uploaded", 0);
+    private final Map<Integer, SpillDirMetrics> spillDirs = new HashMap<>();
+    private final MutableCounterLong singleFlightShared = registry.newCounter("getSingleFlightShared", "ranged gets served from an identical get in flight", 0L);
+    private boolean registered = false;
+
+    private MinioFileSystemMetrics() {
+        for (MinioOperation op : MinioOperation.values()) {
+            operations.put(op, new OperationMetrics(op.getName()));
+            retries.put(op, registry.newCounter(op.getName() + "Retries", "retried " + op.getName() + " requests", 0L));
+            retriesExhausted.put(op, registry.newCounter(op.getName() + "RetriesExhausted", op.getName() + " requests failed after retrying", 0L));
+        }
+        for (MinioPathClass pc : MinioPathClass.values()) {
+            pathClasses.put(pc, new OperationMetrics(pc.getName()));
+            Map<MinioOperation, MutableCounterLong> requests = new EnumMap<>(MinioOperation.class);
+            for (MinioOperation op : MinioOperation.values()) {
+                String name = pc.getName() + Character.toUpperCase(op.getName().charAt(0)) + op.getName().substring(1) + "Requests";
+                requests.put(op, registry.newCounter(name, op.getName() + " requests on " + pc.getName() + " paths", 0L));
+            }
+            pathClassRequests.put(pc, requests);
+        }
+        for (String name : MinioStreamStatistics.INPUT_COUNTERS) {
+            inputStreamCounters.put(name, registry.newCounter("inputStream" + Character.toUpperCase(name.charAt(0)) + name.substring(1), name + " of closed input streams", 0L));
+        }
+        for (String name : MinioStreamStatistics.OUTPUT_COUNTERS) {
+            outputStreamCounters.put(name, registry.newCounter("outputStream" + Character.toUpperCase(name.charAt(0)) + name.substring(1), name + " of closed output streams", 0L));
+        }
+        for (MinioRequestClass cls : MinioRequestClass.values()) {
+            concurrencyLimits.put(cls, registry.newGauge(cls.getName() + "ConcurrencyLimit", "current concurrency limit of " + cls.getName() + " requests", 0));
+            inFlightRequests.put(cls, registry.newGauge(cls.getName() + "InFlight", "in flight " + cls.getName() + " requests", 0));
+            queuedRequests.put(cls, registry.newGauge(cls.getName() + "QueueDepth", cls.getName() + " requests waiting for a slot", 0));
+        }
+        for (MinioIOClass cls : MinioIOClass.values()) {
+            ioInFlight.put(cls, registry.newGauge(cls.getName() + "IOInFlight", "scheduled " + cls.getName() + " requests in flight", 0));
+            ioQueued.put(cls, registry.newGauge(cls.getName() + "IOQueueDepth", cls.getName() + " requests waiting for the scheduler", 0));
+            ioThrottleTime.put(cls, registry.newCounter(cls.getName() + "IOThrottleTimeMs", "time " + cls.getName() + " requests waited for the bandwidth cap", 0L));
+        }
+    }
+
+    public static MinioFileSystemMetrics getInstance() {
+        return instance;
+    }
+
+    public synchronized void register() {
+        if (registered) {
+            return;
+        }
+        try {
+            DefaultMetricsSystem.instance().register(METRICS_SOURCE_NAME, "Minio File System", this);
+            logger.debug("metrics source {} registered", METRICS_SOURCE_NAME);
+        } catch (MetricsException ex) {
+            logger.warn("cannot register metrics source {}", METRICS_SOURCE_NAME, ex);
+        }
+        registered = true;
+    }
+
+    @Override
+    public void getMetrics(MetricsCollector collector, boolean all) {
+        registry.snapshot(collector.addRecord(registry.info()), all);
+    }
+
+    /**
+     * Records a finished minio request.
+     *
+     * @param op operation of the request
+     * @param pc class of the requested path
+     * @param nanos duration of the request
+     * @param bytes bytes transferred by the request
+     * @param failed true if the request failed
+     */
+    public void recordRequest(MinioOperation op, MinioPathClass pc, long nanos, long bytes, boolean failed) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+        operations.get(op).record(micros, bytes, failed);
+        pathClasses.get(pc).record(micros, bytes, failed);
+        pathClassRequests.get(pc).get(op).incr();
+    }
+
+    public long getRequests(MinioOperation op) {
+        return operations.get(op).requests.value();
+    }
+
+    public long getRequests(MinioPathClass pc, MinioOperation op) {
+        return pathClassRequests.get(pc).get(op).value();
+    }
+
+    public long getBytes(MinioOperation op) {
+        return operations.get(op).bytes.value();
+    }
+
+    public long getErrors(MinioOperation op) {
+        return operations.get(op).errors.value();
+    }
+
+    public long getRequests(MinioPathClass pc) {
+        return pathClasses.get(pc).requests.value();
+    }
+
+    public void addInputStreamStatistics(MinioStreamStatistics stats) {
+        stats.snapshot().forEach((name, value) -> inputStreamCounters.get(name).incr(value));
+    }
+
+    public void addOutputStreamStatistics(MinioStreamStatistics stats) {
+        stats.snapshot().forEach((name, value) -> outputStreamCounters.get(name).incr(value));
+    }
+
+    public long getInputStreamCounter(String name) {
+        return inputStreamCounters.get(name).value();
+    }
+
+    public long getOutputStreamCounter(String name) {
+        return outputStreamCounters.get(name).value();
+    }
+
+    public void incrementRetries(MinioOperation op) {
+        retries.get(op).incr();
+    }
+
+    public void incrementRetriesExhausted(MinioOperation op) {
+        retriesExhausted.get(op).incr();
+    }
+
+    public void setConcurrency(MinioRequestClass cls, int limit, int inFlight, int waiting) {
+        concurrencyLimits.get(cls).set(limit);
+        inFlightRequests.get(cls).set(inFlight);
+        queuedRequests.get(cls).set(waiting);
+    }
+
+    public void setScheduled(MinioIOClass cls, int inFlight, int waiting) {
+        ioInFlight.get(cls).set(inFlight);
+        ioQueued.get(cls).set(waiting);
+    }
+
+    public void incrementThrottleTime(MinioIOClass cls, long millis) {
+        ioThrottleTime.get(cls).incr(millis);
+    }
+
+    public void incrementHedgedGets() {
+        hedgedGets.incr();
+    }
+
+    public void incrementHedgeWins() {
+        hedgeWins.incr();
+    }
+
+    public long getHedgedGets() {
+        return hedgedGets.value();
+    }
+
+    public long getHedgeWins() {
+        return hedgeWins.value();
+    }
+
+    public void incrementSingleFlightShared() {
+        singleFlightShared.incr();
+    }
+
+    public long getSingleFlightShared() {
+        return singleFlightShared.value();
+    }
+
+    public void setBufferPoolBytes(long bytes) {
+        bufferPoolBytes.set(bytes);
+    }
+
+    public void incrementBufferPoolAllocations() {
+        bufferPoolAllocations.incr();
+    }
+
+    public long getBufferPoolAllocations() {
+        return bufferPoolAllocations.value();
+    }
+
+    public void setReplicaCacheBytes(long bytes) {
+        replicaCacheBytes.set(bytes);
+    }
+
+    public void incrementReplicaCacheHits() {
+        replicaCacheHits.incr();
+    }
+
+    public long getReplicaCacheHits() {
+        return replicaCacheHits.value();
+    }
+
+    public void incrementReplicaCacheDownloads() {
+        replicaCacheDownloads.incr();
+    }
+
+    public long getReplicaCacheDownloads() {
+        return replicaCacheDownloads.value();
+    }
+
+    public void incrementReplicaCacheWrites() {
+        replicaCacheWrites.incr();
+    }
+
+    public long getReplicaCacheWrites() {
+        return replicaCacheWrites.value();
+    }
+
+    public void incrementWalSyncs() {
+        walSyncs.incr();
+    }
+
+    public long getWalSyncs() {
+        return walSyncs.value();
+    }
+
+    public void incrementWalSyncsCoalesced() {
+        walSyncsCoalesced.incr();
+    }
+
+    public long getWalSyncsCoalesced() {
+        return walSyncsCoalesced.value();
+    }
+
+    public void incrementWalSegmentsShipped() {
+        walSegmentsShipped.incr();
+    }
+
+    public long getWalSegmentsShipped() {
+        return walSegmentsShipped.value();
+    }
+
+    public void setWalSegmentsPending(int pending) {
+        walSegmentsPending.set(pending);
+    }
+
+    /**
+     * @param index position of the directory in the spill directory list
+     * @param dir path of the directory
+     */
+    public synchronized SpillDirMetrics getSpillDirMetrics(int index, String dir) {
+        return spillDirs.computeIfAbsent(index, i -> new SpillDirMetrics(i, dir));
+    }
+
+    public long getRetries(MinioOperation op) {
+        return retries.get(op).value();
+    }
+
+    public long getRetriesExhausted(MinioOperation op) {
+        return retriesExhausted.get(op).value();
+    }
+
+    public class SpillDirMetrics {
+
+        private final MutableGaugeLong bytes;
+        private final MutableGaugeInt files;
+        private final MutableCounterLong failures;
+
+        SpillDirMetrics(int index, String dir) {
+            this.bytes = registry.newGauge("spillDir" + index + "Bytes", "bytes of the parts being spilled to " + dir, 0L);
+            this.files = registry.newGauge("spillDir" + index + "Files", "part files being spilled to " + dir, 0);
+            this.failures = registry.newCounter("spillDir" + index + "Failures", "failed file creations and writes in " + dir, 0L);
+        }
+
+        void set(long bytes, int files) {
+            this.bytes.set(bytes);
+            this.files.set(files);
+        }
+
+        void incrementFailures() {
+            failures.incr();
+        }
+
+        public long getFailures() {
+            return failures.value();
+        }
+
+    }
+
+    private class OperationMetrics {
+
+        private final MutableCounterLong requests;
+        private final MutableCounterLong bytes;
+        private final MutableCounterLong errors;
+        private final MutableQuantiles latency;
+
+        OperationMetrics(String name) {
+            this.requests = registry.newCounter(name + "Requests", name + " requests", 0L);
+            this.bytes = registry.newCounter(name + "Bytes", "bytes transferred by " + name + " requests", 0L);
+            this.errors = registry.newCounter(name + "Errors", "failed " + name + " requests", 0L);
+            this.latency = registry.newQuantiles(name + "Latency", "latency of " + name + " requests", "ops", "latencyMicros", QUANTILE_INTERVAL);
+        }
+
+        void record(long micros, long transferred, boolean failed) {
+            requests.incr();
+            latency.add(micros);
+            if (failed) {
+                errors.incr();
+            } else if (transferred > 0) {
+                bytes.incr(transferred);
+            }
+        }
+
+    }
+
+}
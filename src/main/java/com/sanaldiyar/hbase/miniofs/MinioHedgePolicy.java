@@ -0,0 +1,82 @@
+/*
+Copyright 2020 Kazım SARIKAYA
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+ */
+package com.sanaldiyar.hbase.miniofs;
+
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Decides when a ranged get is duplicated. A hedge is sent when the first
+ * bytes of a request did not arrive within the configured percentile of the
+ * recent time-to-first-byte samples. Hedges are limited to a percentage of the
+ * requests.
+ *
+ * @author kazim
+ */
+public class MinioHedgePolicy {
+
+    private final static double MAX_BUDGET_BALANCE = 10;
+
+    private final boolean enabled;
+    private final double percentile;
+    private final double budgetRatio;
+    private final long minDelay;
+    private final long minSamples;
+    private final MinioLatencyTracker tracker;
+    private double balance = 0;
+
+    public MinioHedgePolicy(Configuration conf) {
+        this.enabled = conf.getBoolean(MinioFileSystem.MINIO_HEDGE_ENABLED, false);
+        this.percentile = conf.getDouble(MinioFileSystem.MINIO_HEDGE_PERCENTILE, MinioFileSystem.MINIO_DEFAULT_HEDGE_PERCENTILE);
+        this.budgetRatio = conf.getDouble(MinioFileSystem.MINIO_HEDGE_BUDGET_PERCENT, MinioFileSystem.MINIO_DEFAULT_HEDGE_BUDGET_PERCENT) / 100.0;
+        this.minDelay = TimeUnit.MILLISECONDS.toNanos(conf.getLong(MinioFileSystem.MINIO_HEDGE_MIN_DELAY, MinioFileSystem.MINIO_DEFAULT_HEDGE_MIN_DELAY));
+        this.minSamples = conf.getLong(MinioFileSystem.MINIO_HEDGE_MIN_SAMPLES, MinioFileSystem.MINIO_DEFAULT_HEDGE_MIN_SAMPLES);
+        this.tracker = new MinioLatencyTracker(conf.getInt(MinioFileSystem.MINIO_HEDGE_WINDOW_SIZE, MinioFileSystem.MINIO_DEFAULT_HEDGE_WINDOW_SIZE));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void recordFirstByte(long nanos) {
+        tracker.record(nanos);
+    }
+
+    /**
+     * @return hedge delay in nanoseconds or -1 when the request should not be
+     * hedged
+     */
+    public long getHedgeDelay() {
+        if (!enabled || tracker.getCount() < minSamples) {
+            return -1;
+        }
+        return Math.max(minDelay, tracker.getPercentile(percentile));
+    }
+
+    public synchronized void onRequest() {
+        balance = Math.min(MAX_BUDGET_BALANCE, balance + budgetRatio);
+    }
+
+    public synchronized boolean tryAcquireHedge() {
+        if (balance < 1) {
+            return false;
+        }
+        balance -= 1;
+        return true;
+    }
+
+}
@@ -0,0 +1,96 @@
+/*
+Copyright 2020 Kazım SARIKAYA
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+ */
+package com.sanaldiyar.hbase.miniofs;
+
+/**
+ * Priority classes of the minio traffic, scheduled by
+ * {@link MinioIOScheduler}.
+ *
+ * @author kazim
+ */
+public enum MinioIOClass {
+
+    INTERACTIVE("interactive", 8),
+    WRITE("write", 4),
+    COMPACTION("compaction", 2),
+    HOUSEKEEPING("housekeeping", 1);
+
+    private final String name;
+    private final int defaultWeight;
+
+    private MinioIOClass(String name, int defaultWeight) {
+        this.name = name;
+        this.defaultWeight = defaultWeight;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getDefaultWeight() {
+        return defaultWeight;
+    }
+
+    /**
+     * Infers the class from the name of an hbase worker thread.
+     *
+     * @param threadName name of the thread making the request
+     * @return class of the thread or null if the thread is not known
+     */
+    public static MinioIOClass ofThread(String threadName) {
+        if (threadName.contains("MemStoreFlusher")) {
+            return WRITE;
+        }
+        if (threadName.contains("Compactions") || threadName.contains("compaction")) {
+            return COMPACTION;
+        }
+        if (threadName.contains("Cleaner") || threadName.contains("dir-scan-pool") || threadName.contains("COMPACTED_FILES_DISCHARGER")) {
+            return HOUSEKEEPING;
+        }
+        return null;
+    }
+
+    /**
+     * Infers the class of a request from its operation and key. Flushes and
+     * compactions both write under .tmp, so flushes are classified as
+     * compaction unless the thread or the caller tells otherwise.
+     *
+     * @param op operation of the request
+     * @param key object key relative to the bucket
+     * @return class of the request
+     */
+    public static MinioIOClass infer(MinioOperation op, String key) {
+        if (op == MinioOperation.REMOVE) {
+            return HOUSEKEEPING;
+        }
+        switch (MinioPathClass.of(key)) {
+            case WAL:
+                return WRITE;
+            case ARCHIVE:
+                return HOUSEKEEPING;
+            case TMP:
+                return COMPACTION;
+            default:
+                break;
+        }
+        if (op == MinioOperation.GET || op == MinioOperation.STAT || op == MinioOperation.LIST) {
+            return INTERACTIVE;
+        }
+        return WRITE;
+    }
+
+}
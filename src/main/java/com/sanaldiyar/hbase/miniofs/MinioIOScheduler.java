@@ -0,0 +1,335 @@
+/*
+Copyright 2020 Kazım SARIKAYA
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+ */
+package com.sanaldiyar.hbase.miniofs;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import org.apache.hadoop.conf.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Orders minio requests by {@link MinioIOClass}. Each class has its own queue
+ * and the free slots are shared with stride scheduling, so a class gets slots
+ * in proportion to its weight while the others are busy and all of them when
+ * they are idle. A class may also be capped to a bandwidth in bytes per
+ * second.
+ *
+ * The class of a request is inferred from the hbase thread making it or from
+ * its key unless the caller set it with {@link #withIOClass(MinioIOClass)}.
+ *
+ * @author kazim
+ */
+public class MinioIOScheduler {
+
+    private final static Logger logger = LoggerFactory.getLogger(MinioIOScheduler.class.getName());
+
+    private final static ThreadLocal<MinioIOClass> explicitClass = new ThreadLocal<>();
+
+    private final boolean enabled;
+    private final int maxConcurrency;
+    private final Map<MinioIOClass, ClassQueue> queues = new EnumMap<>(MinioIOClass.class);
+    private int inFlight = 0;
+    private double virtualTime = 0;
+
+    public MinioIOScheduler(Configuration conf) {
+        this.enabled = conf.getBoolean(MinioFileSystem.MINIO_SCHEDULER_ENABLED, true);
+        this.maxConcurrency = Math.max(1, conf.getInt(MinioFileSystem.MINIO_SCHEDULER_MAX_CONCURRENCY, MinioFileSystem.MINIO_DEFAULT_SCHEDULER_MAX_CONCURRENCY));
+        for (MinioIOClass cls : MinioIOClass.values()) {
+            int weight = conf.getInt(String.format(MinioFileSystem.MINIO_SCHEDULER_CLASS_WEIGHT, cls.getName()), cls.getDefaultWeight());
+            long bandwidth = conf.getLong(String.format(MinioFileSystem.MINIO_SCHEDULER_CLASS_BANDWIDTH, cls.getName()), 0);
+            queues.put(cls, new ClassQueue(cls, Math.max(1, weight), bandwidth));
+        }
+    }
+
+    /**
+     * Sets the class of the requests made by the current thread until the
+     * returned scope is closed.
+     *
+     * @param cls class of the requests
+     * @return scope restoring the previous class on close
+     */
+    public static IOClassScope withIOClass(MinioIOClass cls) {
+        MinioIOClass previous = explicitClass.get();
+        explicitClass.set(cls);
+        return () -> {
+            if (previous == null) {
+                explicitClass.remove();
+            } else {
+                explicitClass.set(previous);
+            }
+        };
+    }
+
+    /**
+     * @param op operation of the request
+     * @param key object key of the request
+     * @return class set by the caller, the class of the current thread or the
+     * class inferred from the key
+     */
+    public static MinioIOClass classify(MinioOperation op, String key) {
+        MinioIOClass cls = explicitClass.get();
+        if (cls == null) {
+            cls = MinioIOClass.ofThread(Thread.currentThread().getName());
+        }
+        return cls != null ? cls : MinioIOClass.infer(op, key);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Waits for the bandwidth cap of the class. The bytes are charged up
+     * front, so a large transfer delays the following requests instead of
+     * being split.
+     *
+     * @param cls class of the request
+     * @param bytes bytes the request will transfer
+     * @throws InterruptedIOException if interrupted while waiting
+     */
+    public void throttle(MinioIOClass cls, long bytes) throws InterruptedIOException {
+        if (!enabled || bytes <= 0) {
+            return;
+        }
+        long delay = queues.get(cls).reserve(bytes);
+        if (delay <= 0) {
+            return;
+        }
+        logger.trace("{} request of {} bytes throttled for {}ns", cls.getName(), bytes, delay);
+        MinioFileSystemMetrics.getInstance().incrementThrottleTime(cls, TimeUnit.NANOSECONDS.toMillis(delay));
+        try {
+            TimeUnit.NANOSECONDS.sleep(delay);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("waiting for " + cls.getName() + " bandwidth interrupted");
+        }
+    }
+
+    public void acquire(MinioIOClass cls) throws InterruptedIOException {
+        acquire(cls, () -> true);
+    }
+
+    /**
+     * Waits for a slot of the class. The permit is asked only when the waiter
+     * is next in the stride order, so a request waiting for another resource,
+     * like the concurrency limiter, is queued here by priority instead of in
+     * front of it. A waiter whose permit is refused lets the next one go and
+     * is asked again on the next release.
+     *
+     * @param cls class of the request
+     * @param permit takes the other resource without waiting
+     * @throws InterruptedIOException if interrupted while waiting
+     */
+    public void acquire(MinioIOClass cls, BooleanSupplier permit) throws InterruptedIOException {
+        if (!enabled) {
+            return;
+        }
+        ClassQueue queue = queues.get(cls);
+        synchronized (this) {
+            Waiter waiter = new Waiter(permit);
+            queue.waiters.addLast(waiter);
+            dispatch();
+            if (waiter.admitted) {
+                return;
+            }
+            queue.updateMetrics();
+            try {
+                while (!waiter.admitted) {
+                    wait();
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                if (waiter.admitted) {
+                    // the permit is taken, the caller releases both
+                    return;
+                }
+                queue.waiters.remove(waiter);
+                queue.updateMetrics();
+                throw new InterruptedIOException("waiting for a " + cls.getName() + " scheduler slot interrupted");
+            }
+        }
+    }
+
+    /**
+     * Takes a slot without waiting. A slot is free only when nothing is
+     * queued, so the caller never overtakes a waiting request.
+     *
+     * @param cls class of the request
+     * @param permit takes the other resource without waiting
+     * @return true if the slot and the permit are taken
+     */
+    public synchronized boolean tryAcquire(MinioIOClass cls, BooleanSupplier permit) {
+        if (!enabled) {
+            return permit.getAsBoolean();
+        }
+        if (inFlight >= maxConcurrency || !isIdle() || !permit.getAsBoolean()) {
+            return false;
+        }
+        admit(queues.get(cls));
+        return true;
+    }
+
+    public synchronized void release(MinioIOClass cls) {
+        if (!enabled) {
+            return;
+        }
+        inFlight--;
+        ClassQueue queue = queues.get(cls);
+        queue.inFlight--;
+        queue.updateMetrics();
+        dispatch();
+    }
+
+    public synchronized int getInFlight(MinioIOClass cls) {
+        return queues.get(cls).inFlight;
+    }
+
+    public synchronized int getQueueDepth(MinioIOClass cls) {
+        return queues.get(cls).waiters.size();
+    }
+
+    private boolean isIdle() {
+        for (ClassQueue queue : queues.values()) {
+            if (!queue.waiters.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void admit(ClassQueue queue) {
+        inFlight++;
+        queue.inFlight++;
+        // an idle class does not save up credit while the others run
+        queue.pass = Math.max(queue.pass, virtualTime) + 1.0 / queue.weight;
+        queue.updateMetrics();
+    }
+
+    private void dispatch() {
+        boolean admitted = false;
+        List<ClassQueue> order = new ArrayList<>(queues.size());
+        while (inFlight < maxConcurrency) {
+            order.clear();
+            for (ClassQueue queue : queues.values()) {
+                if (!queue.waiters.isEmpty()) {
+                    order.add(queue);
+                }
+            }
+            // stable, so the ties go to the class declared first
+            order.sort(Comparator.comparingDouble(queue -> Math.max(queue.pass, virtualTime)));
+            ClassQueue next = null;
+            Waiter selected = null;
+            for (ClassQueue queue : order) {
+                for (Waiter waiter : queue.waiters) {
+                    if (waiter.permit.getAsBoolean()) {
+                        selected = waiter;
+                        break;
+                    }
+                }
+                if (selected != null) {
+                    next = queue;
+                    break;
+                }
+            }
+            if (next == null) {
+                break;
+            }
+            virtualTime = Math.max(virtualTime, next.pass);
+            next.waiters.remove(selected);
+            selected.admitted = true;
+            admit(next);
+            admitted = true;
+        }
+        if (admitted) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Scope of an explicitly set {@link MinioIOClass}.
+     */
+    public interface IOClassScope extends AutoCloseable {
+
+        @Override
+        void close();
+
+    }
+
+    private static class Waiter {
+
+        private final BooleanSupplier permit;
+        private boolean admitted = false;
+
+        Waiter(BooleanSupplier permit) {
+            this.permit = permit;
+        }
+
+    }
+
+    private static class ClassQueue {
+
+        private final MinioIOClass cls;
+        private final double weight;
+        private final long bandwidth;
+        private final Deque<Waiter> waiters = new ArrayDeque<>();
+        private int inFlight = 0;
+        private double pass = 0;
+        private double tokens;
+        private long lastRefill;
+
+        ClassQueue(MinioIOClass cls, double weight, long bandwidth) {
+            this.cls = cls;
+            this.weight = weight;
+            this.bandwidth = bandwidth;
+            this.tokens = bandwidth;
+            this.lastRefill = System.nanoTime();
+        }
+
+        /**
+         * @return nanoseconds to wait before the bytes may be transferred
+         */
+        synchronized long reserve(long bytes) {
+            if (bandwidth <= 0) {
+                return 0;
+            }
+            long now = System.nanoTime();
+            // at most one second of burst
+            tokens = Math.min(bandwidth, tokens + (now - lastRefill) / 1e9 * bandwidth);
+            lastRefill = now;
+            tokens -= bytes;
+            if (tokens >= 0) {
+                return 0;
+            }
+            return (long) (-tokens / bandwidth * 1e9);
+        }
+
+        void updateMetrics() {
+            MinioFileSystemMetrics.getInstance().setScheduled(cls, inFlight, waiters.size());
+        }
+
+    }
+
+}
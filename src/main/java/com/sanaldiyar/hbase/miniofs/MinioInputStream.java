@@ -16,9 +16,18 @@ limitations under the License.
  */
 package com.sanaldiyar.hbase.miniofs;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.CanSetDropBehind;
+import org.apache.hadoop.fs.CanSetReadahead;
 import org.apache.hadoop.fs.CanUnbuffer;
 import org.apache.hadoop.fs.FSInputStream;
 import org.apache.hadoop.fs.FileStatus;
@@ -27,10 +36,17 @@ import org.apache.hadoop.fs.Path;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class MinioInputStream extends FSInputStream implements CanUnbuffer {
+public class MinioInputStream extends FSInputStream implements CanSetReadahead, CanSetDropBehind, CanUnbuffer, MinioStreamStatisticsSource {
 
     private final static Logger logger = LoggerFactory.getLogger(MinioInputStream.class.getName());
 
+    // hfile readers read the trailer and the load-on-open section with the first fills
+    private final static int OPEN_FILLS = 3;
+    private final static int MIN_READAHEAD = 4 << 10;
+    private final static int MAX_READAHEAD = 64 << 20;
+    // adjacent fills before the window of the parallel fetcher is used
+    private final static int SEQUENTIAL_FILLS = 2;
+
     private final MinioUtil minioUtil = MinioUtil.getInstance();
 
     private long position = 0;
@@ -38,15 +54,80 @@ public class MinioInputStream extends FSInputStream implements CanUnbuffer {
     private long filesize = 0;
     private int bufferPosition = 0;
     private int bufferLength = 0;
-    private final byte[] buffer;
+    private byte[] buffer;
+    private int window = 0;
+    private final byte[] oneByte = new byte[1];
+    private final int defaultBufferSize;
+    private int bufferSize;
+    private boolean dropBehind = false;
     private final Path path;
     private final Configuration conf;
     private final String key;
+    private final String etag;
+    private final int alignment;
     private boolean closed = false;
+    private final boolean tailPrefetch;
+    private boolean replicated;
+    private ByteBuffer replicaData;
+    private byte[] tail;
+    private long tailStart = 0;
+    private int openFills = 0;
+    private long lowestTailRead = -1;
+    private final MinioBlockPrefetcher blockPrefetcher;
+    private final MinioParallelFetcher parallelFetcher;
+    private long lastFillEnd = -1;
+    private int sequentialFills = 0;
+    private final MinioStreamStatistics streamStatistics = MinioStreamStatistics.forInputStream();
     FileSystem.Statistics statistics;
 
     public MinioInputStream(Path path, Configuration conf, long bufferSize, FileSystem.Statistics statistics) throws IOException {
+        this(path, conf, bufferSize, statistics, MinioUtil.getInstance().getTailPrefetchPolicy().matches(MinioUtil.getInstance().getPrefix(path)));
+    }
+
+    /**
+     * @param path path of the file
+     * @param conf configuration
+     * @param bufferSize size of the read buffer
+     * @param statistics file system statistics
+     * @param tailPrefetch if true the end of the file is fetched with a single
+     * request while opening, the size is decided by the tail prefetch policy
+     * @throws IOException if the file cannot be opened
+     */
+    public MinioInputStream(Path path, Configuration conf, long bufferSize, FileSystem.Statistics statistics, boolean tailPrefetch) throws IOException {
+        this(path, conf, bufferSize, statistics, tailPrefetch, null);
+    }
+
+    /**
+     * @param path path of the file
+     * @param conf configuration
+     * @param bufferSize size of the read buffer
+     * @param statistics file system statistics
+     * @param tailPrefetch if true the end of the file is fetched with a single
+     * request while opening, the size is decided by the tail prefetch policy
+     * @param status status of the file with its etag if it is already known,
+     * when null the file is stat unless it has a freshly validated local
+     * replica
+     * @throws IOException if the file cannot be opened
+     */
+    public MinioInputStream(Path path, Configuration conf, long bufferSize, FileSystem.Statistics statistics, boolean tailPrefetch, MinioFileStatus status) throws IOException {
         this.key = minioUtil.getPrefix(path);
+        MinioReplicaCache replicaCache = minioUtil.getReplicaCache();
+        MinioReplicaCache.Replica fresh = status == null ? replicaCache.getFresh(key) : null;
+        if (fresh != null) {
+            replicaData = fresh.getData();
+            filesize = fresh.getLength();
+            etag = fresh.getEtag();
+            logger.trace("path {} opened from its local replica", path);
+        } else {
+            MinioFileStatus fs = status == null ? minioUtil.getMinioFileStatus(path) : status;
+            if (!fs.isFile()) {
+                throw new IOException(String.format("requested path is not file %s", path.toString()));
+            }
+            filesize = fs.getLen();
+            etag = fs.getEtag();
+        }
+        // small files and files written here are read from a local replica, fetched by the first read if needed
+        this.replicated = etag != null && (replicaCache.accepts(filesize) || replicaCache.contains(key, etag));
         List<String> locks = MinioFileSystem.getLocks();
         synchronized (locks) {
             if (!locks.contains(key)) {
@@ -56,52 +137,218 @@ public class MinioInputStream extends FSInputStream implements CanUnbuffer {
         }
         this.path = path;
         this.conf = conf;
-        this.buffer = new byte[(int) bufferSize];
-        FileStatus fs = minioUtil.getFileStatus(path);
-        filesize = fs.getLen();
-        fillBuffer(0);
+        this.defaultBufferSize = (int) bufferSize;
+        this.bufferSize = (int) bufferSize;
+        alignment = conf.getInt(MinioFileSystem.MINIO_SINGLE_FLIGHT_ALIGNMENT, MinioFileSystem.MINIO_DEFAULT_SINGLE_FLIGHT_ALIGNMENT);
         this.statistics = statistics;
+        this.tailPrefetch = tailPrefetch && !replicated;
+        if (this.tailPrefetch && filesize > 0) {
+            prefetchTail();
+        }
+        if (!replicated && conf.getBoolean(MinioFileSystem.MINIO_BLOCK_PREFETCH_ENABLED, false)) {
+            this.blockPrefetcher = new MinioBlockPrefetcher(minioUtil, path, key, filesize,
+                    conf.getInt(MinioFileSystem.MINIO_BLOCK_PREFETCH_DEPTH, MinioFileSystem.MINIO_DEFAULT_BLOCK_PREFETCH_DEPTH), streamStatistics);
+        } else {
+            this.blockPrefetcher = null;
+        }
+        if (!replicated && conf.getBoolean(MinioFileSystem.MINIO_PARALLEL_FETCH_ENABLED, false)) {
+            this.parallelFetcher = new MinioParallelFetcher(minioUtil, path, key, conf, streamStatistics);
+        } else {
+            this.parallelFetcher = null;
+        }
         logger.info("file {} opened", path);
     }
 
     @Override
-    public void close() throws IOException {
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
         List<String> locks = MinioFileSystem.getLocks();
         synchronized (locks) {
             locks.remove(key);
             logger.trace("LOCK lock removed for path {}", path);
         }
         closed = true;
-        logger.info("file {} closed", path);
+        replicaData = null;
+        releaseBuffer();
+        releaseTail();
+        if (blockPrefetcher != null) {
+            blockPrefetcher.close();
+        }
+        if (lowestTailRead >= 0) {
+            minioUtil.getTailPrefetchPolicy().recordTailUse(filesize - lowestTailRead);
+        }
+        MinioFileSystemMetrics.getInstance().addInputStreamStatistics(streamStatistics);
+        logger.info("file {} closed {}", path, streamStatistics);
     }
 
     public boolean isClosed() {
         return closed;
     }
 
+    private void prefetchTail() throws IOException {
+        int size = minioUtil.getTailPrefetchPolicy().getPrefetchSize(filesize);
+        long start = filesize - size;
+        byte[] data = minioUtil.getBufferPool().borrow(size);
+        MinioReplicaCache.Replica warmed = etag == null ? null : minioUtil.getReplicaCache().getRange(key, etag);
+        if (warmed != null && warmed.getStart() <= start && warmed.getLength() == filesize) {
+            // the tail was fetched by a warmup
+            ByteBuffer view = warmed.getData();
+            view.position((int) (start - warmed.getStart()));
+            view.get(data, 0, size);
+            tail = data;
+            tailStart = start;
+            logger.trace("tail of path {} copied from its local replica from {} len {}", path.toUri().getPath(), start, size);
+            return;
+        }
+        long begin = System.nanoTime();
+        int readed = minioUtil.fillData(path, etag, start, data, 0, size);
+        streamStatistics.increment(MinioStreamStatistics.NETWORK_WAIT_MICROS, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - begin));
+        streamStatistics.increment(MinioStreamStatistics.BYTES_FETCHED, readed);
+        streamStatistics.increment(MinioStreamStatistics.TAIL_PREFETCH_BYTES, readed);
+        if (readed == size) {
+            tail = data;
+            tailStart = start;
+            logger.trace("tail of path {} prefetched from {} len {}", path.toUri().getPath(), start, size);
+        } else {
+            minioUtil.getBufferPool().release(data);
+            logger.debug("tail prefetch of path {} returned {} bytes instead of {}", path.toUri().getPath(), readed, size);
+        }
+    }
+
+    private void releaseTail() {
+        minioUtil.getBufferPool().release(tail);
+        tail = null;
+    }
+
     private void fillBuffer(long start) throws IOException {
+        int size = bufferSize;
+        if (parallelFetcher != null) {
+            sequentialFills = start == lastFillEnd ? sequentialFills + 1 : 0;
+            if (sequentialFills >= SEQUENTIAL_FILLS) {
+                size = Math.max(size, parallelFetcher.getWindow());
+            }
+        }
+        MinioBufferPool pool = minioUtil.getBufferPool();
+        if (buffer != null && !pool.fits(buffer, size)) {
+            pool.release(buffer);
+            buffer = null;
+        }
+        if (buffer == null) {
+            buffer = pool.borrow(size);
+        }
+        window = size;
+        // drop behind is requested by compaction readers
+        long from;
+        MinioIOScheduler.IOClassScope scope = dropBehind ? MinioIOScheduler.withIOClass(MinioIOClass.COMPACTION) : null;
+        try {
+            from = fetchBuffer(start);
+        } finally {
+            if (scope != null) {
+                scope.close();
+            }
+        }
+        if (from + bufferLength <= start) {
+            // the object is shorter than its status
+            from = start;
+            bufferLength = 0;
+        }
+        bufferStart = from;
+        position = start;
+        bufferPosition = (int) (start - from);
+        lastFillEnd = from + bufferLength;
+        logger.trace("after fill buffer new position {}", position);
+    }
+
+    /**
+     * @return position of the first byte in the buffer, before the start when
+     * the get is aligned for sharing
+     */
+    private long fetchBuffer(long start) throws IOException {
+        if (tailPrefetch && openFills < OPEN_FILLS) {
+            openFills++;
+            if (start < filesize && filesize - start <= minioUtil.getTailPrefetchPolicy().getMaxSize()) {
+                lowestTailRead = lowestTailRead < 0 ? start : Math.min(lowestTailRead, start);
+            }
+        }
         if (start == filesize) {
-            logger.trace("buffer will not be filled for path {} from {} len {} EOF", path.toUri().getPath(), start, buffer.length);
+            logger.trace("buffer will not be filled for path {} from {} len {} EOF", path.toUri().getPath(), start, window);
             bufferLength = 0;
+        } else if (tail != null && start >= tailStart && start < filesize) {
+            bufferLength = (int) Math.min(window, filesize - start);
+            System.arraycopy(tail, (int) (start - tailStart), buffer, 0, bufferLength);
+            streamStatistics.increment(MinioStreamStatistics.TAIL_PREFETCH_HITS);
+            logger.trace("buffer filled from the prefetched tail for path {} from {} len {}", path.toUri().getPath(), start, bufferLength);
+        } else if (fillFromBlockPrefetcher(start)) {
+            logger.trace("buffer filled from the prefetched blocks for path {} from {} len {}", path.toUri().getPath(), start, bufferLength);
         } else {
-            logger.trace("buffer will be filled for path {} from {} len {}", path.toUri().getPath(), start, buffer.length);
-            bufferLength = minioUtil.fillData(path, start, buffer);
-            logger.trace("buffer  filled for path {} from {} len {}", path.toUri().getPath(), start, bufferLength);
+            long from = start;
+            if (parallelFetcher == null && etag != null && alignment > 0 && alignment * 2 <= window && minioUtil.getSingleFlight().isEnabled()) {
+                // aligned gets of different streams reading the same data are identical and shared
+                from = start - start % alignment;
+            }
+            logger.trace("buffer will be filled for path {} from {} len {}", path.toUri().getPath(), from, window);
+            long begin = System.nanoTime();
+            int len = (int) Math.min(window, filesize - from);
+            if (parallelFetcher != null) {
+                bufferLength = parallelFetcher.fetch(from, buffer, len);
+            } else {
+                bufferLength = minioUtil.fillData(path, etag, from, buffer, 0, len);
+            }
+            streamStatistics.increment(MinioStreamStatistics.NETWORK_WAIT_MICROS, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - begin));
+            streamStatistics.increment(MinioStreamStatistics.BUFFER_FILLS);
+            streamStatistics.increment(MinioStreamStatistics.BYTES_FETCHED, bufferLength);
+            if (blockPrefetcher != null) {
+                blockPrefetcher.onFill(from, buffer, bufferLength, start);
+            }
+            logger.trace("buffer  filled for path {} from {} len {}", path.toUri().getPath(), from, bufferLength);
+            return from;
         }
-        bufferStart = start;
-        position = start;
+        return start;
+    }
+
+    private void releaseBuffer() {
+        minioUtil.getBufferPool().release(buffer);
+        buffer = null;
+        bufferStart = position;
         bufferPosition = 0;
-        logger.trace("after fill buffer new position {}", position);
+        bufferLength = 0;
+    }
+
+    private boolean fillFromBlockPrefetcher(long start) throws IOException {
+        if (blockPrefetcher == null) {
+            return false;
+        }
+        int len = blockPrefetcher.read(start, buffer, window);
+        if (len < 0) {
+            return false;
+        }
+        bufferLength = len;
+        return true;
     }
 
     @Override
     public synchronized void seek(long pos) throws IOException {
-        if (bufferStart <= pos && pos <= bufferStart + buffer.length) {
+        if (replicaData != null) {
+            position = pos;
+            return;
+        }
+        if (pos < position) {
+            streamStatistics.increment(MinioStreamStatistics.BACKWARD_SEEKS);
+        }
+        if (bufferStart <= pos && pos <= bufferStart + bufferLength) {
+            streamStatistics.increment(MinioStreamStatistics.SEEKS_IN_BUFFER);
             position = pos;
             long tmp_off = pos - bufferStart;
             bufferPosition = (int) tmp_off;
         } else {
-            fillBuffer(pos);
+            // the buffer is filled by the next read, positional reads seek back without reading
+            streamStatistics.increment(MinioStreamStatistics.SEEKS_OUTSIDE_BUFFER);
+            bufferStart = pos;
+            position = pos;
+            bufferPosition = 0;
+            bufferLength = 0;
         }
         logger.trace("input stream position changed to {}", position);
     }
@@ -113,9 +360,10 @@ public class MinioInputStream extends FSInputStream implements CanUnbuffer {
 
     @Override
     public synchronized int read() throws IOException {
-        byte[] data = new byte[1];
-        read(data, 0, 1);
-        return data[0];
+        if (read(oneByte, 0, 1) < 0) {
+            return -1;
+        }
+        return oneByte[0] & 0xff;
     }
 
     @Override
@@ -131,6 +379,13 @@ public class MinioInputStream extends FSInputStream implements CanUnbuffer {
             return 0;
         }
 
+        if (replicaData == null && replicated && !dropBehind) {
+            openReplica();
+        }
+        if (replicaData != null) {
+            return readReplica(data, off, len);
+        }
+
         int off_backup = off;
         int len_backup = len;
         long pos_backup = position;
@@ -167,6 +422,10 @@ public class MinioInputStream extends FSInputStream implements CanUnbuffer {
         }
         statistics.incrementBytesRead(readed);
         statistics.incrementReadOps(1);
+        streamStatistics.increment(MinioStreamStatistics.BYTES_READ, readed);
+        if (dropBehind && bufferPosition >= bufferLength) {
+            releaseBuffer();
+        }
         logger.trace("data readed from file {} to offset {} with len {} requested len {} new position {} old_position {}", path.toUri().getPath(), off_backup, readed, len_backup, position, pos_backup);
         if (readed == 0) {
             return -1;
@@ -174,15 +433,181 @@ public class MinioInputStream extends FSInputStream implements CanUnbuffer {
         return readed;
     }
 
+    private void openReplica() throws IOException {
+        // tried once, a failed or skipped download leaves the stream on ranged gets
+        replicated = false;
+        MinioReplicaCache.Replica replica = minioUtil.getReplicaCache().get(minioUtil, path, key,
+                new MinioFileStatus(path, false, filesize, etag));
+        if (replica != null) {
+            replicaData = replica.getData();
+            releaseBuffer();
+            releaseTail();
+        }
+    }
+
+    private int readReplica(byte[] data, int off, int len) {
+        if (position >= filesize) {
+            return -1;
+        }
+        int readed = (int) Math.min(len, filesize - position);
+        replicaData.position((int) position);
+        replicaData.get(data, off, readed);
+        position += readed;
+        statistics.incrementBytesRead(readed);
+        statistics.incrementReadOps(1);
+        streamStatistics.increment(MinioStreamStatistics.BYTES_READ, readed);
+        return readed;
+    }
+
     @Override
     public boolean seekToNewSource(long targetPos) throws IOException {
         throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
     }
 
+    /**
+     * Reads the ranges asynchronously. Ranges closer than
+     * fs.minio.vectored.max-merge-gap are merged into a single GET up to
+     * fs.minio.vectored.max-merged-size and the merged GETs run in parallel.
+     * The position of the stream is not changed.
+     *
+     * @param ranges ranges to read, they must not overlap
+     * @param allocate allocator of the buffers of the ranges
+     * @throws IOException if the stream is closed
+     * @throws IllegalArgumentException if the ranges overlap
+     */
+    public void readVectored(List<MinioFileRange> ranges, IntFunction<ByteBuffer> allocate) throws IOException {
+        if (closed) {
+            throw new IOException("stream is closed");
+        }
+        List<MinioFileRange> sorted = new ArrayList<>(ranges);
+        sorted.sort(Comparator.comparingLong(MinioFileRange::getOffset));
+        for (int i = 1; i < sorted.size(); i++) {
+            if (sorted.get(i).getOffset() < sorted.get(i - 1).getEnd()) {
+                throw new IllegalArgumentException(String.format("overlapping ranges %s and %s", sorted.get(i - 1), sorted.get(i)));
+            }
+        }
+        int maxGap = conf.getInt(MinioFileSystem.MINIO_VECTORED_MAX_MERGE_GAP, MinioFileSystem.MINIO_DEFAULT_VECTORED_MAX_MERGE_GAP);
+        int maxMerged = conf.getInt(MinioFileSystem.MINIO_VECTORED_MAX_MERGED_SIZE, MinioFileSystem.MINIO_DEFAULT_VECTORED_MAX_MERGED_SIZE);
+        MinioIOClass ioClass = MinioIOScheduler.classify(MinioOperation.GET, key);
+
+        List<MinioFileRange> merged = new ArrayList<>();
+        for (MinioFileRange range : sorted) {
+            range.setData(new CompletableFuture<>());
+            streamStatistics.increment(MinioStreamStatistics.VECTORED_RANGES);
+            if (range.getEnd() > filesize) {
+                range.getData().completeExceptionally(new EOFException(String.format("%s is beyond the end of %s", range, path)));
+                continue;
+            }
+            if (replicaData != null) {
+                readReplica(range, allocate);
+                continue;
+            }
+            if (!merged.isEmpty()) {
+                long start = merged.get(0).getOffset();
+                long end = merged.get(merged.size() - 1).getEnd();
+                if (range.getOffset() - end > maxGap || range.getEnd() - start > maxMerged) {
+                    readMerged(merged, allocate, ioClass);
+                    merged = new ArrayList<>();
+                }
+            }
+            merged.add(range);
+        }
+        if (!merged.isEmpty()) {
+            readMerged(merged, allocate, ioClass);
+        }
+    }
+
+    private void readReplica(MinioFileRange range, IntFunction<ByteBuffer> allocate) {
+        ByteBuffer source = replicaData.duplicate();
+        source.position((int) range.getOffset());
+        source.limit((int) range.getEnd());
+        ByteBuffer buffer = allocate.apply(range.getLength());
+        buffer.put(source);
+        buffer.flip();
+        range.getData().complete(buffer);
+    }
+
+    private void readMerged(List<MinioFileRange> merged, IntFunction<ByteBuffer> allocate, MinioIOClass ioClass) {
+        long start = merged.get(0).getOffset();
+        int length = (int) (merged.get(merged.size() - 1).getEnd() - start);
+        streamStatistics.increment(MinioStreamStatistics.VECTORED_GETS);
+        logger.trace("vectored read of {} ranges from {} len {} of {}", merged.size(), start, length, path);
+        minioUtil.getExecutor().execute(() -> {
+            MinioIOScheduler.IOClassScope scope = MinioIOScheduler.withIOClass(ioClass);
+            try {
+                byte[] data = new byte[length];
+                long begin = System.nanoTime();
+                int readed = minioUtil.fillData(path, start, data, 0, length);
+                streamStatistics.increment(MinioStreamStatistics.NETWORK_WAIT_MICROS, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - begin));
+                streamStatistics.increment(MinioStreamStatistics.BYTES_FETCHED, readed);
+                for (MinioFileRange range : merged) {
+                    int off = (int) (range.getOffset() - start);
+                    if (off + range.getLength() > readed) {
+                        range.getData().completeExceptionally(new EOFException(String.format("%s is beyond the end of %s", range, path)));
+                        continue;
+                    }
+                    ByteBuffer buffer = allocate.apply(range.getLength());
+                    buffer.put(data, off, range.getLength());
+                    buffer.flip();
+                    range.getData().complete(buffer);
+                }
+            } catch (IOException | RuntimeException ex) {
+                logger.error("vectored read of {} failed", path, ex);
+                merged.forEach(range -> range.getData().completeExceptionally(ex));
+            } finally {
+                scope.close();
+            }
+        });
+    }
+
     @Override
-    public void unbuffer() {
-        bufferPosition = buffer.length;
-        bufferLength = 0;
+    public MinioStreamStatistics getStreamStatistics() {
+        return streamStatistics;
+    }
+
+    @Override
+    public String toString() {
+        return "MinioInputStream{path=" + path + ", position=" + position + ", statistics=" + streamStatistics + "}";
+    }
+
+    /**
+     * Sets the size of the gets filling the buffer, null restores the
+     * configured size. The size is kept between 4KB and 64MB.
+     */
+    @Override
+    public synchronized void setReadahead(Long readahead) {
+        if (readahead != null && readahead < 0) {
+            throw new IllegalArgumentException("negative readahead " + readahead);
+        }
+        bufferSize = readahead == null ? defaultBufferSize : (int) Math.max(MIN_READAHEAD, Math.min(MAX_READAHEAD, readahead));
+        logger.debug("readahead of {} set to {}", path, bufferSize);
+    }
+
+    /**
+     * A drop behind stream frees its buffer as soon as it is consumed, does
+     * not keep the prefetched tail and sends its requests in the compaction
+     * io class.
+     */
+    @Override
+    public synchronized void setDropBehind(Boolean dropBehind) {
+        this.dropBehind = dropBehind != null && dropBehind;
+        if (this.dropBehind) {
+            releaseTail();
+        }
+        logger.debug("drop behind of {} set to {}", path, this.dropBehind);
+    }
+
+    public synchronized boolean isDropBehind() {
+        return dropBehind;
+    }
+
+    @Override
+    public synchronized void unbuffer() {
+        releaseBuffer();
+        releaseTail();
+        if (blockPrefetcher != null) {
+            blockPrefetcher.clear();
+        }
     }
 
 }
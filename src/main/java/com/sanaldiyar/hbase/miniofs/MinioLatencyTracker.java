@@ -0,0 +1,68 @@
+/*
+Copyright 2020 Kazım SARIKAYA
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+ */
+package com.sanaldiyar.hbase.miniofs;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the most recent latency samples of an operation and answers
+ * percentile queries over them.
+ *
+ * @author kazim
+ */
+public class MinioLatencyTracker {
+
+    private final static int RECALCULATE_INTERVAL = 64;
+
+    private final long[] samples;
+    private long count = 0;
+    private long[] sorted = new long[0];
+    private long sortedAt = -1;
+
+    public MinioLatencyTracker(int windowSize) {
+        this.samples = new long[windowSize];
+    }
+
+    public synchronized void record(long nanos) {
+        samples[(int) (count % samples.length)] = nanos;
+        count++;
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return latency in nanoseconds or -1 when there is no sample
+     */
+    public synchronized long getPercentile(double percentile) {
+        if (count == 0) {
+            return -1;
+        }
+        if (sortedAt < 0 || count - sortedAt >= RECALCULATE_INTERVAL || count < samples.length && count != sortedAt) {
+            int size = (int) Math.min(count, samples.length);
+            sorted = Arrays.copyOf(samples, size);
+            Arrays.sort(sorted);
+            sortedAt = count;
+        }
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        index = Math.max(0, Math.min(sorted.length - 1, index));
+        return sorted[index];
+    }
+
+}
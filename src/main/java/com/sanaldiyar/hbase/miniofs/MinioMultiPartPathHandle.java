@@ -0,0 +1,47 @@
+/*
+Copyright 2020 Kazım SARIKAYA
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+ */
+package com.sanaldiyar.hbase.miniofs;
+
+import java.nio.ByteBuffer;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathHandle;
+
+class MinioMultiPartPathHandle implements PathHandle {
+
+    private static final long serialVersionUID = -9162583084891752763L;
+    private final Path path;
+    private final String etag;
+
+    public MinioMultiPartPathHandle(Path path, String etag) {
+        this.path = path;
+        this.etag = etag;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    @Override
+    public ByteBuffer bytes() {
+        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    }
+
+}
@@ -0,0 +1,47 @@
+/*
+Copyright 2020 Kazım SARIKAYA
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+ */
+package com.sanaldiyar.hbase.miniofs;
+
+import java.nio.ByteBuffer;
+import org.apache.hadoop.fs.PartHandle;
+import org.apache.hadoop.fs.Path;
+
+class MinioMultipartPartHandle implements PartHandle {
+
+    private static final long serialVersionUID = -3773054562300586561L;
+    private final Path partPath;
+    private final int partNumber;
+
+    public MinioMultipartPartHandle(Path partPath, int partNumber) {
+        this.partPath = partPath;
+        this.partNumber = partNumber;
+    }
+
+    public int getPartNumber() {
+        return partNumber;
+    }
+
+    public Path getPartPath() {
+        return partPath;
+    }
+
+    @Override
+    public ByteBuffer bytes() {
+        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    }
+
+}
@@ -17,6 +17,7 @@ limitations under the License.
 package com.sanaldiyar.hbase.miniofs;
 
 import java.io.IOException;
+import java.io.File;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.util.Map;
@@ -27,7 +28,6 @@ import org.apache.hadoop.fs.MultipartUploader;
 import org.apache.hadoop.fs.MultipartUploaderFactory;
 import org.apache.hadoop.fs.PartHandle;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.fs.PathHandle;
 import org.apache.hadoop.fs.UploadHandle;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -59,8 +59,18 @@ public class MinioMultipartUploader extends MultipartUploader {
         return new MinioMultipartPartHandle(dst, partNumber);
     }
 
+    /**
+     * Puts the part from a local file, see {@link MinioUtil#putFile}.
+     */
+    public MinioMultipartPartHandle putPart(Path filePath, File file, int partNumber, UploadHandle uploadId, long len) throws IOException {
+        MinioMultipartUploadHandle uh = (MinioMultipartUploadHandle) uploadId;
+        Path dst = new Path(uh.getTmpPath(), "part-" + String.valueOf(partNumber));
+        minioUtil.putFile(dst, file, len);
+        return new MinioMultipartPartHandle(dst, partNumber);
+    }
+
     @Override
-    public PathHandle complete(Path filePath, Map<Integer, PartHandle> handles, UploadHandle uploadId) throws IOException {
+    public MinioMultiPartPathHandle complete(Path filePath, Map<Integer, PartHandle> handles, UploadHandle uploadId) throws IOException {
         MinioMultipartUploadHandle uh = (MinioMultipartUploadHandle) uploadId;
         Path tmpDir = uh.getTmpPath();
 
@@ -70,9 +80,9 @@ public class MinioMultipartUploader extends MultipartUploader {
             items[i] = ((MinioMultipartPartHandle) handles.get(i + 1)).getPartPath();
         }
 
-        minioUtil.mergeAndClean(filePath, items, tmpDir);
+        String etag = minioUtil.mergeAndClean(filePath, items, tmpDir);
 
-        return new MinioMultiPartPathHandle(filePath);
+        return new MinioMultiPartPathHandle(filePath, etag);
     }
 
     @Override
@@ -121,49 +131,3 @@ class MinioMultipartUploadHandle implements UploadHandle {
     }
 
 }
-
-class MinioMultipartPartHandle implements PartHandle {
-
-    private static final long serialVersionUID = -3773054562300586561L;
-    private final Path partPath;
-    private final int partNumber;
-
-    public MinioMultipartPartHandle(Path partPath, int partNumber) {
-        this.partPath = partPath;
-        this.partNumber = partNumber;
-    }
-
-    public int getPartNumber() {
-        return partNumber;
-    }
-
-    public Path getPartPath() {
-        return partPath;
-    }
-
-    @Override
-    public ByteBuffer bytes() {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
-    }
-
-}
-
-class MinioMultiPartPathHandle implements PathHandle {
-
-    private static final long serialVersionUID = -9162583084891752763L;
-    private final Path path;
-
-    public MinioMultiPartPathHandle(Path path) {
-        this.path = path;
-    }
-
-    public Path getPath() {
-        return path;
-    }
-
-    @Override
-    public ByteBuffer bytes() {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
-    }
-
-}
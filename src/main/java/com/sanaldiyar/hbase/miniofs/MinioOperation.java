@@ -0,0 +1,50 @@
+/*
+Copyright 2020 Kazım SARIKAYA
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+ */
+package com.sanaldiyar.hbase.miniofs;
+
+/**
+ * Minio requests performed by {@link MinioUtil}.
+ *
+ * @author kazim
+ */
+public enum MinioOperation {
+
+    STAT("stat", MinioRequestClass.HEAD),
+    LIST("list", MinioRequestClass.LIST),
+    GET("get", MinioRequestClass.GET),
+    PUT("put", MinioRequestClass.PUT),
+    COMPOSE("compose", MinioRequestClass.COPY),
+    COPY("copy", MinioRequestClass.COPY),
+    REMOVE("remove", MinioRequestClass.DELETE);
+
+    private final String name;
+    private final MinioRequestClass requestClass;
+
+    private MinioOperation(String name, MinioRequestClass requestClass) {
+        this.name = name;
+        this.requestClass = requestClass;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public MinioRequestClass getRequestClass() {
+        return requestClass;
+    }
+
+}
@@ -16,33 +16,34 @@ limitations under the License.
  */
 package com.sanaldiyar.hbase.miniofs;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
-import org.apache.hadoop.fs.MultipartUploader;
 import org.apache.hadoop.fs.PartHandle;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.UploadHandle;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class MinioOutputStream extends OutputStream {
+public class MinioOutputStream extends OutputStream implements MinioStreamStatisticsSource, MinioWriter {
 
     private final static Logger logger = LoggerFactory.getLogger(MinioOutputStream.class.getName());
     private final MinioUtil minioUtil = MinioUtil.getInstance();
 
     private final Configuration conf;
-    private final MultipartUploader uploader;
+    private final MinioMultipartUploader uploader;
     private final Path path;
     private final UploadHandle uploadHandle;
     private final Map<Integer, PartHandle> parts;
@@ -50,16 +51,48 @@ public class MinioOutputStream extends OutputStream {
     private int partNo = 1;
     private int backendOffset = 0;
     private int partSize;
+    private final MinioPartSizePolicy partSizePolicy;
+    private final long expectedSize;
     private File backendFile;
     private OutputStream backendStream;
     private boolean closed;
     private long totalWriten = 0;
     private final String key;
+    private final MinioIOClass ioClass;
+    private final MinioStreamStatistics streamStatistics = MinioStreamStatistics.forOutputStream();
     private MinioFileSystem fileSystem;
     private FileSystem.Statistics statistics;
+    private boolean cacheOnWrite;
+    private final long cacheOnWriteMaxSize;
+    private final List<File> writtenParts = new ArrayList<>();
+    private final List<Path> uploadedParts = new ArrayList<>();
+    private final List<Long> uploadedStarts = new ArrayList<>();
+    private long uploadedBytes = 0;
 
     public MinioOutputStream(Path path, Configuration conf, FileSystem.Statistics statistics) throws IOException {
+        this(path, conf, statistics, -1);
+    }
+
+    /**
+     * @param expectedSize size of the file hinted by the writer, negative if
+     * unknown, the parts are sized for it
+     */
+    public MinioOutputStream(Path path, Configuration conf, FileSystem.Statistics statistics, long expectedSize) throws IOException {
+        this(path, conf, statistics, expectedSize, 0);
+    }
+
+    public MinioOutputStream(Path path, Configuration conf, int partSize, FileSystem.Statistics statistics) throws IOException {
+        this(path, conf, statistics, -1, partSize);
+    }
+
+    /**
+     * @param fixedPartSize size of every part, the part size policy decides
+     * if not positive
+     */
+    private MinioOutputStream(Path path, Configuration conf, FileSystem.Statistics statistics, long expectedSize, int fixedPartSize) throws IOException {
         this.key = minioUtil.getPrefix(path);
+        // parts are staged under .tmp-parts, they are scheduled with the class of the destination
+        this.ioClass = MinioIOScheduler.classify(MinioOperation.PUT, key);
         List<String> locks = MinioFileSystem.getLocks();
         synchronized (locks) {
             locks.add(key);
@@ -67,32 +100,36 @@ public class MinioOutputStream extends OutputStream {
         }
         this.path = path;
         this.conf = conf;
-        this.uploader = MinioMultipartUploader.Factory.get(path.getFileSystem(conf), conf);
+        this.uploader = new MinioMultipartUploader(path.getFileSystem(conf), conf);
         this.uploadHandle = this.uploader.initialize(path);
         this.parts = new HashMap<>();
-        this.backendFile = createBackendFile();
-        this.backendStream = new BufferedOutputStream(new FileOutputStream(backendFile));
         this.closed = false;
-        this.partSize = conf.getInt(MinioFileSystem.MINIO_UPLOAD_PART_SIZE, MinioFileSystem.MINIO_DEFAULT_PART_SIZE);
+        this.expectedSize = expectedSize;
+        this.partSizePolicy = fixedPartSize > 0 ? null : minioUtil.getPartSizePolicy();
+        this.partSize = partSizePolicy == null ? fixedPartSize : partSizePolicy.getPartSize(partNo, 0, expectedSize);
+        this.backendFile = createBackendFile(partSize);
+        this.backendStream = new BufferedOutputStream(new FileOutputStream(backendFile));
         fileSystem = (MinioFileSystem) path.getFileSystem(conf);
         this.statistics = statistics;
+        this.cacheOnWrite = conf.getBoolean(MinioFileSystem.MINIO_CACHE_ON_WRITE_ENABLED, false) && minioUtil.getReplicaCache().isEnabled();
+        this.cacheOnWriteMaxSize = conf.getLong(MinioFileSystem.MINIO_CACHE_ON_WRITE_MAX_FILE_SIZE, MinioFileSystem.MINIO_DEFAULT_CACHE_ON_WRITE_MAX_FILE_SIZE);
+        MinioFileSystem.getWriters().put(key, this);
         logger.debug("file {} opened", path);
     }
 
-    public MinioOutputStream(Path path, Configuration conf, int partSize, FileSystem.Statistics statistics) throws IOException {
-        this(path, conf, statistics);
-        this.partSize = partSize;
+    private File createBackendFile(long size) throws IOException {
+        File result = minioUtil.getSpillAllocator().allocate("output-", size);
+        logger.trace("a new backend {} created for the path {}", result.toPath(), path);
+        return result;
     }
 
-    private File createBackendFile() throws IOException {
-        File dir = new File(conf.get("hadoop.tmp.dir"));
-        if (!dir.mkdirs() && !dir.exists()) {
-            throw new IOException("Cannot create tmp buffer directory: " + dir);
+    private void deleteBackendFile(File file) {
+        minioUtil.getSpillAllocator().release(file);
+        try {
+            file.delete();
+        } catch (Exception e) {
+            logger.warn("error at deleting backend file", e);
         }
-        File result = File.createTempFile("output-", ".tmp", dir);
-        logger.trace("a new backend {} created for the path {}", result.toPath(), path);
-        result.deleteOnExit();
-        return result;
     }
 
     @Override
@@ -110,7 +147,7 @@ public class MinioOutputStream extends OutputStream {
         }
         while (backendOffset + len > partSize) {
             int bytesCW = partSize - backendOffset;
-            backendStream.write(buffer, offset, bytesCW);
+            spill(buffer, offset, bytesCW);
             backendOffset += bytesCW;
             totalWriten += bytesCW;
             logger.trace("{} bytes of data writen to the backend file {} from offset {} new position {} for path {}", bytesCW, backendFile.toPath(), offset, totalWriten, path);
@@ -119,7 +156,7 @@ public class MinioOutputStream extends OutputStream {
             len -= bytesCW;
             statistics.incrementBytesWritten(bytesCW);
         }
-        backendStream.write(buffer, offset, len);
+        spill(buffer, offset, len);
         backendOffset += len;
         totalWriten += len;
         statistics.incrementWriteOps(1);
@@ -127,6 +164,17 @@ public class MinioOutputStream extends OutputStream {
         logger.trace("{} bytes of data writen to the backend file {} from offset {} new position {} for path {}", len, backendFile.toPath(), offset, totalWriten, path);
     }
 
+    private void spill(byte[] buffer, int offset, int len) throws IOException {
+        long begin = System.nanoTime();
+        try {
+            backendStream.write(buffer, offset, len);
+        } catch (IOException ex) {
+            minioUtil.getSpillAllocator().failed(backendFile);
+            throw ex;
+        }
+        streamStatistics.increment(MinioStreamStatistics.SPILL_WAIT_MICROS, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - begin));
+    }
+
     @Override
     public void flush() throws IOException {
         backendStream.flush();
@@ -137,7 +185,12 @@ public class MinioOutputStream extends OutputStream {
         if (this.closed) {
             return;
         }
-        uploadPart(true);
+        try {
+            uploadPart(true);
+        } finally {
+            // a failed close must not leave new readers on the local parts
+            MinioFileSystem.getWriters().remove(key, this);
+        }
         backendFile = null;
         backendStream = null;
         logger.trace("{} bytes of data writen to the destination {}", totalWriten, path);
@@ -148,38 +201,196 @@ public class MinioOutputStream extends OutputStream {
         }
         fileSystem.getOutputStreams().remove(this);
         closed = true;
-        logger.debug("file {} closed", path);
+        MinioFileSystemMetrics.getInstance().addOutputStreamStatistics(streamStatistics);
+        logger.debug("file {} closed {}", path, streamStatistics);
     }
 
     private synchronized void uploadPart(boolean lastPart) throws IOException {
-        backendStream.flush();
-        backendStream.close();
+        if (!lastPart && partNo >= MinioPartSizePolicy.MAX_PARTS) {
+            throw new IOException(String.format("file %s exceeds %d parts", path, MinioPartSizePolicy.MAX_PARTS));
+        }
+        long spillBegin = System.nanoTime();
+        try {
+            backendStream.flush();
+            backendStream.close();
+        } catch (IOException ex) {
+            minioUtil.getSpillAllocator().failed(backendFile);
+            throw ex;
+        }
+        streamStatistics.increment(MinioStreamStatistics.SPILL_WAIT_MICROS, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - spillBegin));
         logger.trace("sending file {}", backendFile.toPath());
 
-        InputStream is = new BufferedInputStream(new FileInputStream(backendFile));
+        long uploadBegin = System.nanoTime();
+        MinioIOScheduler.IOClassScope scope = MinioIOScheduler.withIOClass(ioClass);
+        try {
+            MinioMultipartPartHandle ph = uploader.putPart(path, backendFile, partNo, uploadHandle, backendOffset);
+            parts.put(partNo, ph);
+            partNo++;
+            uploadedParts.add(ph.getPartPath());
+            uploadedStarts.add(uploadedBytes);
+            uploadedBytes += backendOffset;
+            streamStatistics.increment(MinioStreamStatistics.PARTS_UPLOADED);
+            streamStatistics.increment(MinioStreamStatistics.BYTES_UPLOADED, backendOffset);
 
-        PartHandle ph = uploader.putPart(path, is, partNo, uploadHandle, backendOffset);
-        parts.put(partNo, ph);
-        partNo++;
+            if (cacheOnWrite && totalWriten <= cacheOnWriteMaxSize) {
+                // the parts become the local replica of the object once it is complete
+                writtenParts.add(backendFile);
+            } else {
+                dropWrittenParts();
+                deleteBackendFile(backendFile);
+            }
 
-        try {
-            backendFile.delete(); // also delete.
-        } catch (Exception e) {
-            logger.warn("error at deleting backend file", e);
+            if (lastPart) {
+                MinioMultiPartPathHandle handle = uploader.complete(path, parts, uploadHandle);
+                cacheWrittenParts(handle.getEtag());
+            }
+        } finally {
+            scope.close();
+            streamStatistics.increment(MinioStreamStatistics.UPLOAD_WAIT_MICROS, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - uploadBegin));
         }
 
-        if (lastPart) {
-            uploader.complete(path, parts, uploadHandle);
-        } else {
+        if (!lastPart) {
             backendOffset = 0;
-            backendFile = createBackendFile();
+            if (partSizePolicy != null) {
+                partSize = partSizePolicy.getPartSize(partNo, uploadedBytes, expectedSize);
+                logger.trace("part {} of {} will be {} bytes", partNo, path, partSize);
+            }
+            backendFile = createBackendFile(partSize);
             backendStream = new BufferedOutputStream(new FileOutputStream(backendFile));
         }
         logger.trace("sending file {} completed", backendFile.toPath());
     }
 
+    private void dropWrittenParts() {
+        cacheOnWrite = false;
+        for (File part : writtenParts) {
+            deleteBackendFile(part);
+        }
+        writtenParts.clear();
+    }
+
+    private void cacheWrittenParts(String etag) {
+        if (!cacheOnWrite || writtenParts.isEmpty()) {
+            return;
+        }
+        File replica = writtenParts.get(0);
+        try {
+            if (writtenParts.size() > 1) {
+                replica = createBackendFile(totalWriten);
+                try (FileChannel out = FileChannel.open(replica.toPath(), StandardOpenOption.WRITE)) {
+                    for (File part : writtenParts) {
+                        try (FileChannel in = FileChannel.open(part.toPath(), StandardOpenOption.READ)) {
+                            long size = in.size();
+                            for (long pos = 0; pos < size;) {
+                                pos += in.transferTo(pos, size - pos, out);
+                            }
+                        }
+                    }
+                }
+            }
+            minioUtil.getReplicaCache().put(key, etag, replica, totalWriten);
+            writtenParts.remove(replica);
+        } catch (IOException ex) {
+            logger.warn("written file {} cannot be kept as a local replica", path, ex);
+            if (!writtenParts.contains(replica)) {
+                // the concatenation of the parts, the parts are dropped below
+                replica.delete();
+            }
+        } finally {
+            // moved into the replica cache
+            minioUtil.getSpillAllocator().release(replica);
+            dropWrittenParts();
+        }
+    }
+
+    /**
+     * Reads from the uploaded parts and the local backend file of the current
+     * part, the data of a closed stream is in the object. Uploaded parts are
+     * immutable, they are read without holding the stream.
+     */
+    @Override
+    public int readWritten(long pos, byte[] data, int off, int len) throws IOException {
+        Path partPath;
+        long partPos;
+        int n;
+        synchronized (this) {
+            if (closed) {
+                return COMPLETED;
+            }
+            if (pos >= totalWriten) {
+                return -1;
+            }
+            if (pos >= uploadedBytes) {
+                backendStream.flush();
+                n = (int) Math.min(len, totalWriten - pos);
+                return readFile(backendFile, pos - uploadedBytes, data, off, n);
+            }
+            int part = uploadedStarts.size() - 1;
+            while (uploadedStarts.get(part) > pos) {
+                part--;
+            }
+            long partEnd = part + 1 < uploadedStarts.size() ? uploadedStarts.get(part + 1) : uploadedBytes;
+            n = (int) Math.min(len, partEnd - pos);
+            partPos = pos - uploadedStarts.get(part);
+            if (part < writtenParts.size()) {
+                // kept for cache on write
+                return readFile(writtenParts.get(part), partPos, data, off, n);
+            }
+            partPath = uploadedParts.get(part);
+        }
+        try {
+            return minioUtil.fillData(partPath, partPos, data, off, n);
+        } catch (IOException ex) {
+            // close deletes the parts under the lock once the object is complete
+            synchronized (this) {
+                if (closed) {
+                    return COMPLETED;
+                }
+            }
+            throw ex;
+        }
+    }
+
+    static int readFile(File file, long pos, byte[] data, int off, int len) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer dst = ByteBuffer.wrap(data, off, len);
+            while (dst.hasRemaining()) {
+                if (channel.read(dst, pos + dst.position() - off) < 0) {
+                    break;
+                }
+            }
+            return dst.position() - off;
+        }
+    }
+
+    @Override
+    public synchronized long getWritten() {
+        return totalWriten;
+    }
+
+    @Override
+    public Path getPath() {
+        return path;
+    }
+
+    @Override
     public boolean isClosed() {
         return closed;
     }
 
+    @Override
+    public boolean isCompleted() {
+        return closed;
+    }
+
+    @Override
+    public MinioStreamStatistics getStreamStatistics() {
+        return streamStatistics;
+    }
+
+    @Override
+    public String toString() {
+        return "MinioOutputStream{path=" + path + ", written=" + totalWriten + ", statistics=" + streamStatistics + "}";
+    }
+
 }
@@ -0,0 +1,175 @@
+/*
+Copyright 2020 Kazım SARIKAYA
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+ */
+package com.sanaldiyar.hbase.miniofs;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fills a large window of a sequentially read stream with concurrent range
+ * gets. The number of concurrent gets is adapted per stream by hill
+ * climbing on the measured throughput of the previous windows, it keeps
+ * moving in the same direction while the throughput grows and turns back
+ * when it drops.
+ *
+ * @author kazim
+ */
+public class MinioParallelFetcher {
+
+    private final static Logger logger = LoggerFactory.getLogger(MinioParallelFetcher.class.getName());
+
+    private final static double THROUGHPUT_TOLERANCE = 0.1;
+
+    private final MinioUtil minioUtil;
+    private final Path path;
+    private final String key;
+    private final int window;
+    private final int minRange;
+    private final int maxStreams;
+    private final MinioStreamStatistics streamStatistics;
+    private int streams = 2;
+    private int direction = 1;
+    private double lastThroughput = 0;
+
+    public MinioParallelFetcher(MinioUtil minioUtil, Path path, String key, Configuration conf, MinioStreamStatistics streamStatistics) {
+        this.minioUtil = minioUtil;
+        this.path = path;
+        this.key = key;
+        this.minRange = Math.max(64 << 10, conf.getInt(MinioFileSystem.MINIO_PARALLEL_FETCH_MIN_RANGE, MinioFileSystem.MINIO_DEFAULT_PARALLEL_FETCH_MIN_RANGE));
+        this.window = Math.max(minRange, conf.getInt(MinioFileSystem.MINIO_PARALLEL_FETCH_WINDOW, MinioFileSystem.MINIO_DEFAULT_PARALLEL_FETCH_WINDOW));
+        this.maxStreams = Math.max(1, conf.getInt(MinioFileSystem.MINIO_PARALLEL_FETCH_MAX_STREAMS, MinioFileSystem.MINIO_DEFAULT_PARALLEL_FETCH_MAX_STREAMS));
+        this.streams = Math.min(streams, maxStreams);
+        this.streamStatistics = streamStatistics;
+    }
+
+    /**
+     * @return buffer size used by the stream while it is read sequentially
+     */
+    public int getWindow() {
+        return window;
+    }
+
+    public int getStreams() {
+        return streams;
+    }
+
+    /**
+     * Reads the range into the buffer, with concurrent gets when it is large
+     * enough.
+     *
+     * @param start position of the range
+     * @param buffer buffer to fill
+     * @param len length of the range, at most the size of the buffer
+     * @return bytes read, less than len only at the end of the object
+     * @throws IOException if a get fails
+     */
+    public int fetch(long start, byte[] buffer, int len) throws IOException {
+        int k = Math.min(streams, len / minRange);
+        if (k < 2) {
+            return minioUtil.fillData(path, start, buffer, 0, len);
+        }
+        int rangeLen = (len + k - 1) / k;
+        MinioIOClass ioClass = MinioIOScheduler.classify(MinioOperation.GET, key);
+        List<CompletableFuture<Integer>> ranges = new ArrayList<>(k);
+        long begin = System.nanoTime();
+        for (int off = 0; off < len; off += rangeLen) {
+            int rangeOff = off;
+            int l = Math.min(rangeLen, len - off);
+            CompletableFuture<Integer> range = new CompletableFuture<>();
+            ranges.add(range);
+            minioUtil.getExecutor().execute(() -> {
+                MinioIOScheduler.IOClassScope scope = MinioIOScheduler.withIOClass(ioClass);
+                try {
+                    range.complete(minioUtil.fillData(path, start + rangeOff, buffer, rangeOff, l));
+                } catch (IOException | RuntimeException ex) {
+                    range.completeExceptionally(ex);
+                } finally {
+                    scope.close();
+                }
+            });
+        }
+        // every get writes into the buffer, all of them must finish before it is handed back
+        int readed = 0;
+        boolean complete = true;
+        IOException failure = null;
+        boolean interrupted = false;
+        for (int i = 0; i < ranges.size(); i++) {
+            int r = 0;
+            while (true) {
+                try {
+                    r = ranges.get(i).get();
+                    break;
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                } catch (ExecutionException ex) {
+                    if (failure == null) {
+                        failure = ex.getCause() instanceof IOException ? (IOException) ex.getCause() : new IOException("range get failed", ex.getCause());
+                    }
+                    break;
+                }
+            }
+            if (complete) {
+                readed += r;
+                complete = r == Math.min(rangeLen, len - i * rangeLen);
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("waiting for the range gets interrupted");
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        long elapsed = System.nanoTime() - begin;
+        streamStatistics.increment(MinioStreamStatistics.PARALLEL_FETCHES);
+        streamStatistics.increment(MinioStreamStatistics.PARALLEL_RANGES, ranges.size());
+        adapt(readed, elapsed, ranges.size());
+        return readed;
+    }
+
+    private void adapt(long bytes, long nanos, int used) {
+        if (used != streams || nanos <= 0) {
+            // a short window does not tell anything about the current stream count
+            return;
+        }
+        double throughput = bytes / (double) TimeUnit.NANOSECONDS.toMicros(Math.max(nanos, 1000));
+        if (lastThroughput > 0 && throughput < lastThroughput * (1 - THROUGHPUT_TOLERANCE)) {
+            direction = -direction;
+        } else if (lastThroughput > 0 && throughput < lastThroughput * (1 + THROUGHPUT_TOLERANCE)) {
+            lastThroughput = throughput;
+            return;
+        }
+        int old = streams;
+        streams = Math.max(Math.min(2, maxStreams), Math.min(maxStreams, direction > 0 ? streams * 2 : streams / 2));
+        if (streams == old) {
+            direction = -direction;
+        } else {
+            logger.debug("range gets of {} changed from {} to {} at {} bytes/us", path, old, streams, throughput);
+        }
+        lastThroughput = throughput;
+    }
+
+}
@@ -0,0 +1,88 @@
+/*
+Copyright 2020 Kazım SARIKAYA
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+ */
+package com.sanaldiyar.hbase.miniofs;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Decides the size of each part of an upload. Unless adaptive sizing is
+ * enabled every part has the configured part size. Otherwise the first parts
+ * have the configured part size and the size is multiplied by the growth factor after
+ * every growth interval parts up to the max size, so small files are uploaded
+ * with small parts and big files do not need thousands of requests. When the
+ * writer hints the expected size, the remaining bytes are split into the
+ * fewest equal parts not bigger than the max size.
+ *
+ * Every part except the last has to be at least 5MB and an upload has at most
+ * 10000 parts.
+ *
+ * @author kazim
+ */
+public class MinioPartSizePolicy {
+
+    final static int MIN_PART_SIZE = 5 << 20;
+    // the s3 limit is 5GB, offsets in a part are ints
+    final static int MAX_PART_SIZE = 1 << 30;
+    final static int MAX_PARTS = 10000;
+
+    private final boolean adaptive;
+    private final int initialSize;
+    private final int maxSize;
+    private final double growthFactor;
+    private final int growthInterval;
+
+    public MinioPartSizePolicy(Configuration conf) {
+        this.adaptive = conf.getBoolean(MinioFileSystem.MINIO_UPLOAD_PART_ADAPTIVE, false);
+        int configured = conf.getInt(MinioFileSystem.MINIO_UPLOAD_PART_SIZE, MinioFileSystem.MINIO_DEFAULT_PART_SIZE);
+        this.initialSize = adaptive ? clamp(configured) : configured;
+        this.maxSize = Math.max(initialSize, clamp(conf.getLong(MinioFileSystem.MINIO_UPLOAD_PART_MAX_SIZE, MinioFileSystem.MINIO_DEFAULT_UPLOAD_PART_MAX_SIZE)));
+        this.growthFactor = Math.max(1, conf.getDouble(MinioFileSystem.MINIO_UPLOAD_PART_GROWTH_FACTOR, MinioFileSystem.MINIO_DEFAULT_UPLOAD_PART_GROWTH_FACTOR));
+        this.growthInterval = Math.max(1, conf.getInt(MinioFileSystem.MINIO_UPLOAD_PART_GROWTH_INTERVAL, MinioFileSystem.MINIO_DEFAULT_UPLOAD_PART_GROWTH_INTERVAL));
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    /**
+     * @param partNo one based number of the part
+     * @param written bytes of the previous parts
+     * @param expectedSize file size hinted by the writer, negative if unknown
+     * @return size of the part
+     */
+    public int getPartSize(int partNo, long written, long expectedSize) {
+        if (!adaptive) {
+            return initialSize;
+        }
+        if (partNo >= MAX_PARTS) {
+            // the last possible part takes the rest
+            return MAX_PART_SIZE;
+        }
+        if (expectedSize > written) {
+            long remaining = expectedSize - written;
+            long count = (remaining + maxSize - 1) / maxSize;
+            return clamp((remaining + count - 1) / count);
+        }
+        int steps = (partNo - 1) / growthInterval;
+        return clamp((long) Math.min(maxSize, initialSize * Math.pow(growthFactor, steps)));
+    }
+
+    private static int clamp(long size) {
+        return (int) Math.max(MIN_PART_SIZE, Math.min(MAX_PART_SIZE, size));
+    }
+
+}
@@ -0,0 +1,67 @@
+/*
+Copyright 2020 Kazım SARIKAYA
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+ */
+package com.sanaldiyar.hbase.miniofs;
+
+/**
+ * Classes of the hbase directory layout.
+ *
+ * @author kazim
+ */
+public enum MinioPathClass {
+
+    WAL("wal"),
+    DATA("data"),
+    ARCHIVE("archive"),
+    MASTERDATA("masterData"),
+    TMP("tmp"),
+    OTHER("other");
+
+    private final String name;
+
+    private MinioPathClass(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @param key object key relative to the bucket
+     * @return class of the key
+     */
+    public static MinioPathClass of(String key) {
+        String path = key.startsWith("/") ? key : "/" + key;
+        if (path.contains("/MasterData/")) {
+            return MASTERDATA;
+        }
+        if (path.contains("/archive/") || path.contains("/oldWALs/")) {
+            return ARCHIVE;
+        }
+        if (path.contains("/WALs/")) {
+            return WAL;
+        }
+        if (path.contains("/.tmp/") || path.contains("/.tmp-parts/")) {
+            return TMP;
+        }
+        if (path.contains("/data/")) {
+            return DATA;
+        }
+        return OTHER;
+    }
+
+}
@@ -0,0 +1,378 @@
+/*
+Copyright 2020 Kazım SARIKAYA
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+ */
+package com.sanaldiyar.hbase.miniofs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps whole copies of small objects in local files. A replica is downloaded
+ * with a single get, memory mapped and shared by every later open of the
+ * object. Replicas validated within the revalidate interval are served
+ * without asking the server, older ones are served only when the etag of the
+ * object is unchanged. Least recently used replicas are removed when the
+ * total size exceeds the limit.
+ *
+ * Warming up large objects keeps only their tail, such partial replicas are
+ * used by the tail prefetch of the streams and never served as whole
+ * objects.
+ *
+ * @author kazim
+ */
+public class MinioReplicaCache {
+
+    private final static Logger logger = LoggerFactory.getLogger(MinioReplicaCache.class.getName());
+
+    private final boolean enabled;
+    private final File dir;
+    private final long maxFileSize;
+    private final long maxSize;
+    private final long revalidateInterval;
+    private final Map<String, Replica> replicas = new LinkedHashMap<>(16, 0.75f, true);
+    private long size = 0;
+
+    public MinioReplicaCache(Configuration conf) {
+        this.enabled = conf.getBoolean(MinioFileSystem.MINIO_REPLICA_CACHE_ENABLED, false);
+        String tmp = conf.get("hadoop.tmp.dir", System.getProperty("java.io.tmpdir"));
+        this.dir = new File(conf.get(MinioFileSystem.MINIO_REPLICA_CACHE_DIR, new File(tmp, "minio-replicas").getPath()));
+        this.maxFileSize = conf.getLong(MinioFileSystem.MINIO_REPLICA_CACHE_MAX_FILE_SIZE, MinioFileSystem.MINIO_DEFAULT_REPLICA_CACHE_MAX_FILE_SIZE);
+        this.maxSize = conf.getLong(MinioFileSystem.MINIO_REPLICA_CACHE_MAX_SIZE, MinioFileSystem.MINIO_DEFAULT_REPLICA_CACHE_MAX_SIZE);
+        this.revalidateInterval = conf.getLong(MinioFileSystem.MINIO_REPLICA_CACHE_REVALIDATE_INTERVAL, MinioFileSystem.MINIO_DEFAULT_REPLICA_CACHE_REVALIDATE_INTERVAL);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param len length of the object
+     * @return true if an object of the length is kept as a replica
+     */
+    public boolean accepts(long len) {
+        return enabled && len > 0 && len <= maxFileSize && len <= maxSize;
+    }
+
+    /**
+     * @param key object key
+     * @param etag etag of the object
+     * @return true if there is a replica of the key with the etag
+     */
+    public synchronized boolean contains(String key, String etag) {
+        Replica replica = enabled ? replicas.get(key) : null;
+        return replica != null && replica.start == 0 && replica.etag.equals(etag);
+    }
+
+    /**
+     * @param key object key
+     * @return the replica of the key if it was validated within the
+     * revalidate interval, otherwise null
+     */
+    public synchronized Replica getFresh(String key) {
+        if (!enabled) {
+            return null;
+        }
+        Replica replica = replicas.get(key);
+        if (replica == null || replica.start > 0 || System.currentTimeMillis() - replica.validated > revalidateInterval) {
+            return null;
+        }
+        MinioFileSystemMetrics.getInstance().incrementReplicaCacheHits();
+        return replica;
+    }
+
+    /**
+     * Returns the replica matching the status, the object is downloaded if
+     * there is no replica or the etag of the replica is different.
+     *
+     * @param minioUtil util fetching the object
+     * @param path path of the object
+     * @param key object key
+     * @param status fresh status of the object
+     * @return the replica or null if the object is not kept as a replica
+     * @throws IOException if the object cannot be downloaded
+     */
+    public Replica get(MinioUtil minioUtil, Path path, String key, MinioFileStatus status) throws IOException {
+        if (!enabled || status.getEtag() == null) {
+            return null;
+        }
+        synchronized (this) {
+            Replica replica = replicas.get(key);
+            if (replica != null && replica.start == 0 && replica.etag.equals(status.getEtag()) && replica.length == status.getLen()) {
+                replica.validated = System.currentTimeMillis();
+                MinioFileSystemMetrics.getInstance().incrementReplicaCacheHits();
+                return replica;
+            }
+        }
+        if (!accepts(status.getLen())) {
+            return null;
+        }
+        Replica replica = download(minioUtil, path, status, 0);
+        if (replica != null) {
+            insert(key, replica);
+        }
+        return replica;
+    }
+
+    /**
+     * @param key object key
+     * @param etag etag of the object
+     * @return the whole or partial replica of the key with the etag or null
+     */
+    public synchronized Replica getRange(String key, String etag) {
+        Replica replica = enabled ? replicas.get(key) : null;
+        if (replica == null || !replica.etag.equals(etag)) {
+            return null;
+        }
+        MinioFileSystemMetrics.getInstance().incrementReplicaCacheHits();
+        return replica;
+    }
+
+    /**
+     * Downloads the object into the cache unless it is already there, objects
+     * larger than the whole size limit are downloaded from the tail start.
+     *
+     * @param minioUtil util fetching the object
+     * @param path path of the object
+     * @param key object key
+     * @param status status of the object with its etag
+     * @param wholeSize largest object downloaded as a whole
+     * @param tailSize size of the tail of the larger objects
+     * @return true if the object was downloaded
+     * @throws IOException if the object cannot be downloaded
+     */
+    public boolean warm(MinioUtil minioUtil, Path path, String key, MinioFileStatus status, long wholeSize, long tailSize) throws IOException {
+        long len = status.getLen();
+        if (!enabled || status.getEtag() == null || len == 0) {
+            return false;
+        }
+        long start = len <= Math.max(wholeSize, maxFileSize) ? 0 : Math.max(0, len - tailSize);
+        if (len - start > maxSize) {
+            return false;
+        }
+        synchronized (this) {
+            Replica replica = replicas.get(key);
+            if (replica != null && replica.start <= start && replica.etag.equals(status.getEtag())) {
+                return false;
+            }
+        }
+        Replica replica = download(minioUtil, path, status, start);
+        if (replica == null) {
+            return false;
+        }
+        insert(key, replica);
+        return true;
+    }
+
+    /**
+     * Keeps a file written locally as the replica of the object, the file is
+     * moved into the replica directory or deleted.
+     *
+     * @param key object key
+     * @param etag etag of the uploaded object
+     * @param file local file with the whole content of the object
+     * @param length length of the object
+     * @throws IOException if the file cannot be moved or mapped
+     */
+    public void put(String key, String etag, File file, long length) throws IOException {
+        if (!enabled || length > maxSize || etag == null) {
+            file.delete();
+            return;
+        }
+        File target = createFile();
+        ByteBuffer mapped;
+        try {
+            Files.move(file.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            try (FileChannel channel = FileChannel.open(target.toPath(), StandardOpenOption.READ)) {
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            }
+        } catch (IOException ex) {
+            file.delete();
+            target.delete();
+            throw ex;
+        }
+        insert(key, new Replica(target, mapped, etag, 0, length));
+        MinioFileSystemMetrics.getInstance().incrementReplicaCacheWrites();
+        logger.debug("written object {} with etag {} kept as replica {}", key, etag, target);
+    }
+
+    private synchronized void insert(String key, Replica replica) {
+        Replica old = replicas.put(key, replica);
+        if (old != null) {
+            remove(old);
+        }
+        size += replica.length - replica.start;
+        evict();
+        MinioFileSystemMetrics.getInstance().setReplicaCacheBytes(size);
+    }
+
+    private File createFile() throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create replica directory: " + dir);
+        }
+        File file = File.createTempFile("replica-", ".bin", dir);
+        file.deleteOnExit();
+        return file;
+    }
+
+    private Replica download(MinioUtil minioUtil, Path path, MinioFileStatus status, long start) throws IOException {
+        int len = (int) (status.getLen() - start);
+        byte[] data = new byte[len];
+        int readed = len == 0 ? 0 : minioUtil.fillData(path, status.getEtag(), start, data, 0, len);
+        if (readed != len) {
+            logger.debug("replica of {} not kept, {} bytes read instead of {}", path, readed, len);
+            return null;
+        }
+        File file = createFile();
+        ByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer src = ByteBuffer.wrap(data);
+            while (src.hasRemaining()) {
+                channel.write(src);
+            }
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, len);
+        } catch (IOException ex) {
+            file.delete();
+            throw ex;
+        }
+        MinioFileSystemMetrics.getInstance().incrementReplicaCacheDownloads();
+        logger.debug("replica of {} from {} with etag {} downloaded to {}", path, start, status.getEtag(), file);
+        return new Replica(file, mapped, status.getEtag(), start, status.getLen());
+    }
+
+    /**
+     * Removes the replica of the key, writers call it so that the local
+     * opens see the new object immediately.
+     *
+     * @param key object key
+     */
+    public synchronized void invalidate(String key) {
+        if (!enabled) {
+            return;
+        }
+        Replica replica = replicas.remove(key);
+        if (replica != null) {
+            remove(replica);
+            MinioFileSystemMetrics.getInstance().setReplicaCacheBytes(size);
+            logger.trace("replica of {} invalidated", key);
+        }
+    }
+
+    /**
+     * Moves the replica of a copied object to the destination key, so a
+     * rename keeps the replica written or downloaded under the source key.
+     * The destination replica is removed when the source has none.
+     *
+     * @param src source object key
+     * @param srcEtag etag of the source when it was copied
+     * @param dst destination object key
+     * @param dstEtag etag of the copy
+     */
+    public synchronized void move(String src, String srcEtag, String dst, String dstEtag) {
+        if (!enabled) {
+            return;
+        }
+        invalidate(dst);
+        Replica replica = replicas.get(src);
+        if (replica == null || dstEtag == null || !replica.etag.equals(srcEtag)) {
+            return;
+        }
+        replicas.remove(src);
+        // a copied multipart object gets a new etag, the content is the same
+        replicas.put(dst, new Replica(replica.file, replica.data, dstEtag, replica.start, replica.length));
+        logger.trace("replica of {} moved to {}", src, dst);
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    private void evict() {
+        Iterator<Replica> it = replicas.values().iterator();
+        while (size > maxSize && it.hasNext()) {
+            Replica replica = it.next();
+            it.remove();
+            remove(replica);
+        }
+    }
+
+    private void remove(Replica replica) {
+        size -= replica.length - replica.start;
+        // the mapping stays valid for the open streams after the file is deleted
+        if (!replica.file.delete()) {
+            logger.debug("replica file {} cannot be deleted", replica.file);
+        }
+    }
+
+    public static class Replica {
+
+        private final File file;
+        private final ByteBuffer data;
+        private final String etag;
+        private final long start;
+        private final long length;
+        private volatile long validated;
+
+        Replica(File file, ByteBuffer data, String etag, long start, long length) {
+            this.file = file;
+            this.data = data;
+            this.etag = etag;
+            this.start = start;
+            this.length = length;
+            this.validated = System.currentTimeMillis();
+        }
+
+        /**
+         * @return a read only view of the mapped file with its own position,
+         * the first byte of the view is the byte at the start of the replica
+         */
+        public ByteBuffer getData() {
+            return data.duplicate();
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        /**
+         * @return position of the first byte of the replica in the object, 0
+         * for whole replicas
+         */
+        public long getStart() {
+            return start;
+        }
+
+        /**
+         * @return length of the object
+         */
+        public long getLength() {
+            return length;
+        }
+
+    }
+
+}
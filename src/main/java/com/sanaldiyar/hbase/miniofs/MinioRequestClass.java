@@ -0,0 +1,44 @@
+/*
+Copyright 2020 Kazım SARIKAYA
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+ */
+package com.sanaldiyar.hbase.miniofs;
+
+/**
+ * Http request classes of the minio operations, used for concurrency
+ * limiting.
+ *
+ * @author kazim
+ */
+public enum MinioRequestClass {
+
+    GET("get"),
+    PUT("put"),
+    LIST("list"),
+    HEAD("head"),
+    COPY("copy"),
+    DELETE("delete");
+
+    private final String name;
+
+    private MinioRequestClass(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+}
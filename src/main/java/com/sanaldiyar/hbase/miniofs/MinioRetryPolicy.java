@@ -0,0 +1,201 @@
+/*
+Copyright 2020 Kazım SARIKAYA
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+ */
+package com.sanaldiyar.hbase.miniofs;
+
+import io.minio.errors.ErrorResponseException;
+import io.minio.errors.InsufficientDataException;
+import io.minio.errors.InvalidResponseException;
+import io.minio.errors.ServerException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import org.apache.hadoop.conf.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decides whether a failed minio request is retried and how long to wait
+ * before the next attempt.
+ *
+ * Retries are limited per operation both by attempt count and by a retry
+ * budget: every request deposits a fraction of a token and every retry
+ * withdraws a whole one, so a failing server is not flooded with retries.
+ *
+ * @author kazim
+ */
+public class MinioRetryPolicy {
+
+    private final static Logger logger = LoggerFactory.getLogger(MinioRetryPolicy.class.getName());
+
+    private final static Set<String> RETRYABLE_ERROR_CODES = new HashSet<>(Arrays.asList(
+            "SlowDown", "SlowDownRead", "SlowDownWrite", "ServiceUnavailable", "InternalError",
+            "RequestTimeout", "XMinioServerNotInitialized", "XMinioReadQuorum", "XMinioWriteQuorum"));
+
+    private final static Set<String> THROTTLE_ERROR_CODES = new HashSet<>(Arrays.asList(
+            "SlowDown", "SlowDownRead", "SlowDownWrite", "ServiceUnavailable", "RequestTimeout"));
+
+    private final static double MAX_BUDGET_BALANCE = 100;
+
+    private final Map<MinioOperation, Integer> maxAttempts = new EnumMap<>(MinioOperation.class);
+    private final Map<MinioOperation, RetryBudget> budgets = new EnumMap<>(MinioOperation.class);
+    private final long baseDelay;
+    private final long maxDelay;
+
+    public MinioRetryPolicy(Configuration conf) {
+        int defaultMaxAttempts = conf.getInt(MinioFileSystem.MINIO_RETRY_MAX_ATTEMPTS, MinioFileSystem.MINIO_DEFAULT_RETRY_MAX_ATTEMPTS);
+        float ratio = conf.getFloat(MinioFileSystem.MINIO_RETRY_BUDGET_RATIO, MinioFileSystem.MINIO_DEFAULT_RETRY_BUDGET_RATIO);
+        float minPerSecond = conf.getFloat(MinioFileSystem.MINIO_RETRY_BUDGET_MIN_PER_SECOND, MinioFileSystem.MINIO_DEFAULT_RETRY_BUDGET_MIN_PER_SECOND);
+        for (MinioOperation op : MinioOperation.values()) {
+            String key = String.format(MinioFileSystem.MINIO_RETRY_OPERATION_MAX_ATTEMPTS, op.getName());
+            maxAttempts.put(op, Math.max(1, conf.getInt(key, defaultMaxAttempts)));
+            budgets.put(op, new RetryBudget(ratio, minPerSecond));
+        }
+        this.baseDelay = conf.getLong(MinioFileSystem.MINIO_RETRY_BASE_DELAY, MinioFileSystem.MINIO_DEFAULT_RETRY_BASE_DELAY);
+        this.maxDelay = conf.getLong(MinioFileSystem.MINIO_RETRY_MAX_DELAY, MinioFileSystem.MINIO_DEFAULT_RETRY_MAX_DELAY);
+    }
+
+    public int getMaxAttempts(MinioOperation op) {
+        return maxAttempts.get(op);
+    }
+
+    public void onRequest(MinioOperation op) {
+        budgets.get(op).deposit();
+    }
+
+    public boolean isRetryable(Exception ex) {
+        if (ex instanceof ErrorResponseException) {
+            ErrorResponseException ere = (ErrorResponseException) ex;
+            if (ere.errorResponse() != null && RETRYABLE_ERROR_CODES.contains(ere.errorResponse().code())) {
+                return true;
+            }
+            int status = ere.response() == null ? 0 : ere.response().code();
+            return status == 429 || status >= 500;
+        }
+        if (ex instanceof ServerException || ex instanceof InsufficientDataException || ex instanceof InvalidResponseException) {
+            return true;
+        }
+        if (ex instanceof FileNotFoundException) {
+            return false;
+        }
+        if (ex instanceof InterruptedIOException && !(ex instanceof SocketTimeoutException)) {
+            return false;
+        }
+        return ex instanceof IOException;
+    }
+
+    /**
+     * @param ex failure of a request
+     * @return true if the server rejected the request because of load or the
+     * request timed out
+     */
+    public boolean isThrottled(Exception ex) {
+        if (ex instanceof ErrorResponseException) {
+            ErrorResponseException ere = (ErrorResponseException) ex;
+            if (ere.errorResponse() != null && THROTTLE_ERROR_CODES.contains(ere.errorResponse().code())) {
+                return true;
+            }
+            int status = ere.response() == null ? 0 : ere.response().code();
+            return status == 429 || status == 503;
+        }
+        return ex instanceof SocketTimeoutException;
+    }
+
+    public boolean shouldRetry(MinioOperation op, Exception ex, int attempt) {
+        if (!isRetryable(ex)) {
+            return false;
+        }
+        if (attempt >= getMaxAttempts(op)) {
+            logger.warn("{} request failed after {} attempts", op.getName(), attempt);
+            MinioFileSystemMetrics.getInstance().incrementRetriesExhausted(op);
+            return false;
+        }
+        if (!budgets.get(op).withdraw()) {
+            logger.warn("{} request will not be retried, retry budget exhausted", op.getName());
+            MinioFileSystemMetrics.getInstance().incrementRetriesExhausted(op);
+            return false;
+        }
+        logger.debug("{} request failed at attempt {}, will be retried: {}", op.getName(), attempt, ex.toString());
+        MinioFileSystemMetrics.getInstance().incrementRetries(op);
+        return true;
+    }
+
+    public long getBackoffDelay(int attempt) {
+        long ceiling = maxDelay;
+        if (attempt < 31) {
+            ceiling = Math.min(maxDelay, baseDelay << (attempt - 1));
+        }
+        if (ceiling <= 0) {
+            return 0;
+        }
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    public void backoff(int attempt) throws InterruptedIOException {
+        long delay = getBackoffDelay(attempt);
+        logger.trace("sleeping {}ms before attempt {}", delay, attempt + 1);
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("retry backoff interrupted");
+        }
+    }
+
+    private static class RetryBudget {
+
+        private final double ratio;
+        private final double minPerSecond;
+        private double balance;
+        private long lastRefill;
+
+        RetryBudget(double ratio, double minPerSecond) {
+            this.ratio = ratio;
+            this.minPerSecond = minPerSecond;
+            this.balance = minPerSecond;
+            this.lastRefill = System.nanoTime();
+        }
+
+        synchronized void deposit() {
+            refill();
+            balance = Math.min(MAX_BUDGET_BALANCE, balance + ratio);
+        }
+
+        synchronized boolean withdraw() {
+            refill();
+            if (balance < 1) {
+                return false;
+            }
+            balance -= 1;
+            return true;
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            balance = Math.min(MAX_BUDGET_BALANCE, balance + (now - lastRefill) / 1e9 * minPerSecond);
+            lastRefill = now;
+        }
+
+    }
+
+}
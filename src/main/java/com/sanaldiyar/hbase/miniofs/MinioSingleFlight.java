@@ -0,0 +1,192 @@
+/*
+Copyright 2020 Kazım SARIKAYA
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+ */
+package com.sanaldiyar.hbase.miniofs;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import org.apache.hadoop.conf.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collapses concurrent ranged gets of the same object version. A get is
+ * keyed by the object key and its etag, a caller whose range is covered by a
+ * get in flight waits for it and copies the bytes instead of sending its own
+ * request. The first caller reads into its own buffer, it returns only after
+ * the waiting callers copied their ranges out of it.
+ *
+ * @author kazim
+ */
+public class MinioSingleFlight {
+
+    private final static Logger logger = LoggerFactory.getLogger(MinioSingleFlight.class.getName());
+
+    @FunctionalInterface
+    public interface RangeFetch {
+
+        int fetch(long start, byte[] buffer, int off, int len) throws IOException;
+
+    }
+
+    private final boolean enabled;
+    private final Map<String, List<Flight>> flights = new HashMap<>();
+
+    public MinioSingleFlight(Configuration conf) {
+        this.enabled = conf.getBoolean(MinioFileSystem.MINIO_SINGLE_FLIGHT_ENABLED, true);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param key object key
+     * @param etag etag of the object version, null disables sharing
+     * @param start position of the range
+     * @param buffer buffer to fill
+     * @param off offset in the buffer
+     * @param len length of the range
+     * @param fetch request reading the range when it is not in flight
+     * @return bytes read, less than len only at the end of the object
+     * @throws IOException if the request fails
+     */
+    public int fetch(String key, String etag, long start, byte[] buffer, int off, int len, RangeFetch fetch) throws IOException {
+        if (!enabled || etag == null) {
+            return fetch.fetch(start, buffer, off, len);
+        }
+        String flightKey = key + '\0' + etag;
+        Flight flight = null;
+        boolean leader = false;
+        synchronized (flights) {
+            List<Flight> list = flights.computeIfAbsent(flightKey, k -> new LinkedList<>());
+            for (Flight f : list) {
+                if (f.start <= start && start + len <= f.start + f.len) {
+                    flight = f;
+                    break;
+                }
+            }
+            if (flight != null) {
+                flight.join();
+            } else {
+                flight = new Flight(start, buffer, off, len);
+                list.add(flight);
+                leader = true;
+            }
+        }
+        if (!leader) {
+            int readed = flight.copy(start, buffer, off, len);
+            if (readed >= 0) {
+                MinioFileSystemMetrics.getInstance().incrementSingleFlightShared();
+                logger.trace("range {} len {} of {} shared with a get in flight", start, len, key);
+                return readed;
+            }
+            return fetch.fetch(start, buffer, off, len);
+        }
+        int readed = -1;
+        try {
+            readed = fetch.fetch(start, buffer, off, len);
+            return readed;
+        } finally {
+            synchronized (flights) {
+                List<Flight> list = flights.get(flightKey);
+                list.remove(flight);
+                if (list.isEmpty()) {
+                    flights.remove(flightKey);
+                }
+            }
+            flight.finish(readed);
+        }
+    }
+
+    int getInFlight() {
+        synchronized (flights) {
+            return flights.values().stream().mapToInt(List::size).sum();
+        }
+    }
+
+    private static class Flight {
+
+        private final long start;
+        private final byte[] buffer;
+        private final int off;
+        private final int len;
+        private boolean done = false;
+        private int readed = -1;
+        private int waiters = 0;
+
+        Flight(long start, byte[] buffer, int off, int len) {
+            this.start = start;
+            this.buffer = buffer;
+            this.off = off;
+            this.len = len;
+        }
+
+        synchronized void join() {
+            waiters++;
+        }
+
+        /**
+         * @return bytes copied or -1 if the get failed
+         */
+        synchronized int copy(long from, byte[] dst, int dstOff, int dstLen) throws InterruptedIOException {
+            try {
+                while (!done) {
+                    try {
+                        wait();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("waiting for a shared get interrupted");
+                    }
+                }
+                if (readed < 0) {
+                    return -1;
+                }
+                int skip = (int) (from - start);
+                int n = Math.max(0, Math.min(dstLen, readed - skip));
+                System.arraycopy(buffer, off + skip, dst, dstOff, n);
+                return n;
+            } finally {
+                waiters--;
+                notifyAll();
+            }
+        }
+
+        synchronized void finish(int readed) {
+            this.readed = readed;
+            done = true;
+            notifyAll();
+            // the buffer belongs to the first caller, it is reused once the call returns
+            boolean interrupted = false;
+            while (waiters > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+    }
+
+}
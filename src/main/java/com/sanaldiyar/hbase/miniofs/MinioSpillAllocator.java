@@ -0,0 +1,188 @@
+/*
+Copyright 2020 Kazım SARIKAYA
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+ */
+package com.sanaldiyar.hbase.miniofs;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.hadoop.conf.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Allocates the local files the output streams spill their parts into across
+ * the configured buffer directories, like the LocalDirAllocator of hadoop.
+ * Each file goes to the directory with the fewest bytes being spilled among
+ * the ones with enough free space, ties are broken round robin. A directory
+ * which cannot create or write a file is skipped until the failure retry
+ * interval passes.
+ *
+ * @author kazim
+ */
+public class MinioSpillAllocator {
+
+    private final static Logger logger = LoggerFactory.getLogger(MinioSpillAllocator.class.getName());
+
+    private final List<SpillDir> dirs = new ArrayList<>();
+    private final Map<File, Allocation> allocations = new HashMap<>();
+    private final long minFree;
+    private final long retryInterval;
+    private int next = 0;
+
+    public MinioSpillAllocator(Configuration conf) {
+        String[] names = conf.getTrimmedStrings(MinioFileSystem.MINIO_BUFFER_DIRS);
+        if (names.length == 0) {
+            names = new String[]{conf.get("hadoop.tmp.dir", System.getProperty("java.io.tmpdir"))};
+        }
+        for (String name : names) {
+            dirs.add(new SpillDir(dirs.size(), new File(name)));
+        }
+        this.minFree = conf.getLong(MinioFileSystem.MINIO_BUFFER_DIRS_MIN_FREE, MinioFileSystem.MINIO_DEFAULT_BUFFER_DIRS_MIN_FREE);
+        this.retryInterval = conf.getLong(MinioFileSystem.MINIO_BUFFER_DIRS_RETRY_INTERVAL, MinioFileSystem.MINIO_DEFAULT_BUFFER_DIRS_RETRY_INTERVAL);
+        logger.debug("spill directories {}", Arrays.asList(names));
+    }
+
+    /**
+     * @param prefix prefix of the file name
+     * @param size bytes expected to be written into the file
+     * @return a new empty file, it should be released when it is deleted or
+     * handed over
+     */
+    public synchronized File allocate(String prefix, long size) throws IOException {
+        long now = System.currentTimeMillis();
+        List<SpillDir> tried = new ArrayList<>();
+        while (true) {
+            SpillDir selected = null;
+            for (int i = 0; i < dirs.size(); i++) {
+                SpillDir dir = dirs.get((next + i) % dirs.size());
+                if (tried.contains(dir) || now - dir.failedAt < retryInterval) {
+                    continue;
+                }
+                // a missing directory is created on the first allocation
+                if (dir.path.exists() && dir.path.getUsableSpace() - dir.bytes < size + minFree) {
+                    continue;
+                }
+                if (selected == null || dir.bytes < selected.bytes) {
+                    selected = dir;
+                }
+            }
+            if (selected == null) {
+                throw new IOException(String.format("no spill directory has %d bytes free in %s", size, dirs));
+            }
+            tried.add(selected);
+            try {
+                if (!selected.path.mkdirs() && !selected.path.isDirectory()) {
+                    throw new IOException("cannot create spill directory " + selected.path);
+                }
+                File file = File.createTempFile(prefix, ".tmp", selected.path);
+                file.deleteOnExit();
+                next = (selected.index + 1) % dirs.size();
+                allocations.put(file, new Allocation(selected, size));
+                selected.allocated(size, 1);
+                return file;
+            } catch (IOException ex) {
+                logger.warn("spill directory {} will be skipped", selected.path, ex);
+                selected.failed(now);
+            }
+        }
+    }
+
+    /**
+     * Stops accounting the file to its directory.
+     */
+    public synchronized void release(File file) {
+        Allocation allocation = allocations.remove(file);
+        if (allocation != null) {
+            allocation.dir.allocated(-allocation.size, -1);
+        }
+    }
+
+    /**
+     * Skips the directory of the file after a failed write, the file is
+     * released.
+     */
+    public synchronized void failed(File file) {
+        Allocation allocation = allocations.get(file);
+        if (allocation != null) {
+            logger.warn("spill directory {} will be skipped after a failed write to {}", allocation.dir.path, file);
+            allocation.dir.failed(System.currentTimeMillis());
+            release(file);
+        }
+    }
+
+    public int getDirCount() {
+        return dirs.size();
+    }
+
+    public synchronized long getBytes(int index) {
+        return dirs.get(index).bytes;
+    }
+
+    public synchronized int getFiles(int index) {
+        return dirs.get(index).files;
+    }
+
+    private static class SpillDir {
+
+        private final int index;
+        private final File path;
+        private final MinioFileSystemMetrics.SpillDirMetrics metrics;
+        private long bytes = 0;
+        private int files = 0;
+        private long failedAt = 0;
+
+        SpillDir(int index, File path) {
+            this.index = index;
+            this.path = path;
+            this.metrics = MinioFileSystemMetrics.getInstance().getSpillDirMetrics(index, path.toString());
+        }
+
+        void allocated(long size, int count) {
+            bytes += size;
+            files += count;
+            metrics.set(bytes, files);
+        }
+
+        void failed(long now) {
+            failedAt = now;
+            metrics.incrementFailures();
+        }
+
+        @Override
+        public String toString() {
+            return path.toString();
+        }
+
+    }
+
+    private static class Allocation {
+
+        private final SpillDir dir;
+        private final long size;
+
+        Allocation(SpillDir dir, long size) {
+            this.dir = dir;
+            this.size = size;
+        }
+
+    }
+
+}
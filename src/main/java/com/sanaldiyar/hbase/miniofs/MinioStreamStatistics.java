@@ -0,0 +1,109 @@
+/*
+Copyright 2020 Kazım SARIKAYA
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+ */
+package com.sanaldiyar.hbase.miniofs;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of a single minio stream. They are added to
+ * {@link MinioFileSystemMetrics} when the stream is closed.
+ *
+ * @author kazim
+ */
+public class MinioStreamStatistics {
+
+    public final static String BUFFER_FILLS = "bufferFills";
+    public final static String BYTES_FETCHED = "bytesFetched";
+    public final static String BYTES_READ = "bytesRead";
+    public final static String SEEKS_IN_BUFFER = "seeksInBuffer";
+    public final static String SEEKS_OUTSIDE_BUFFER = "seeksOutsideBuffer";
+    public final static String BACKWARD_SEEKS = "backwardSeeks";
+    public final static String NETWORK_WAIT_MICROS = "networkWaitMicros";
+    public final static String VECTORED_RANGES = "vectoredRanges";
+    public final static String VECTORED_GETS = "vectoredGets";
+    public final static String TAIL_PREFETCH_BYTES = "tailPrefetchBytes";
+    public final static String TAIL_PREFETCH_HITS = "tailPrefetchHits";
+    public final static String BLOCK_PREFETCH_GETS = "blockPrefetchGets";
+    public final static String BLOCK_PREFETCH_BYTES = "blockPrefetchBytes";
+    public final static String BLOCK_PREFETCH_HITS = "blockPrefetchHits";
+    public final static String PARALLEL_FETCHES = "parallelFetches";
+    public final static String PARALLEL_RANGES = "parallelRanges";
+
+    public final static String PARTS_UPLOADED = "partsUploaded";
+    public final static String BYTES_UPLOADED = "bytesUploaded";
+    public final static String UPLOAD_WAIT_MICROS = "uploadWaitMicros";
+    public final static String SPILL_WAIT_MICROS = "spillWaitMicros";
+
+    public final static String[] INPUT_COUNTERS = new String[]{
+        BUFFER_FILLS, BYTES_FETCHED, BYTES_READ, SEEKS_IN_BUFFER, SEEKS_OUTSIDE_BUFFER, BACKWARD_SEEKS, NETWORK_WAIT_MICROS,
+        VECTORED_RANGES, VECTORED_GETS, TAIL_PREFETCH_BYTES, TAIL_PREFETCH_HITS, BLOCK_PREFETCH_GETS, BLOCK_PREFETCH_BYTES,
+        BLOCK_PREFETCH_HITS, PARALLEL_FETCHES, PARALLEL_RANGES};
+    public final static String[] OUTPUT_COUNTERS = new String[]{
+        PARTS_UPLOADED, BYTES_UPLOADED, UPLOAD_WAIT_MICROS, SPILL_WAIT_MICROS};
+
+    private final Map<String, AtomicLong> counters = new LinkedHashMap<>();
+
+    public MinioStreamStatistics(String... names) {
+        for (String name : names) {
+            counters.put(name, new AtomicLong());
+        }
+    }
+
+    public static MinioStreamStatistics forInputStream() {
+        return new MinioStreamStatistics(INPUT_COUNTERS);
+    }
+
+    public static MinioStreamStatistics forOutputStream() {
+        return new MinioStreamStatistics(OUTPUT_COUNTERS);
+    }
+
+    void increment(String name, long value) {
+        counters.get(name).addAndGet(value);
+    }
+
+    void increment(String name) {
+        increment(name, 1);
+    }
+
+    /**
+     * @param name counter name
+     * @return value of the counter
+     * @throws IllegalArgumentException if the stream has no such counter
+     */
+    public long getCounter(String name) {
+        AtomicLong counter = counters.get(name);
+        if (counter == null) {
+            throw new IllegalArgumentException("unknown stream counter: " + name);
+        }
+        return counter.get();
+    }
+
+    public Map<String, Long> snapshot() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        counters.forEach((name, value) -> result.put(name, value.get()));
+        return Collections.unmodifiableMap(result);
+    }
+
+    @Override
+    public String toString() {
+        return snapshot().toString();
+    }
+
+}
@@ -0,0 +1,100 @@
+/*
+Copyright 2020 Kazım SARIKAYA
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+ */
+package com.sanaldiyar.hbase.miniofs;
+
+import java.util.regex.Pattern;
+import org.apache.hadoop.conf.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decides how many bytes from the end of a file are fetched when it is
+ * opened. HFile readers read the trailer and the load-on-open section before
+ * anything else, both are at the end of the file. The size starts at the
+ * configured value and follows the tails used by the recent opens, it grows
+ * at once and shrinks slowly.
+ *
+ * @author kazim
+ */
+public class MinioTailPrefetchPolicy {
+
+    private final static Logger logger = LoggerFactory.getLogger(MinioTailPrefetchPolicy.class.getName());
+
+    private final static int SIZE_ALIGNMENT = 16 << 10;
+    private final static int SHRINK_DIVISOR = 8;
+
+    private final boolean enabled;
+    private final Pattern pattern;
+    private final int maxSize;
+    private int size;
+
+    public MinioTailPrefetchPolicy(Configuration conf) {
+        this.enabled = conf.getBoolean(MinioFileSystem.MINIO_TAIL_PREFETCH_ENABLED, true);
+        this.pattern = Pattern.compile(conf.get(MinioFileSystem.MINIO_TAIL_PREFETCH_PATTERN, MinioFileSystem.MINIO_DEFAULT_TAIL_PREFETCH_PATTERN));
+        this.maxSize = Math.max(SIZE_ALIGNMENT, conf.getInt(MinioFileSystem.MINIO_TAIL_PREFETCH_MAX_SIZE, MinioFileSystem.MINIO_DEFAULT_TAIL_PREFETCH_MAX_SIZE));
+        this.size = Math.min(maxSize, conf.getInt(MinioFileSystem.MINIO_TAIL_PREFETCH_SIZE, MinioFileSystem.MINIO_DEFAULT_TAIL_PREFETCH_SIZE));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param key object key of the file
+     * @return true if the key looks like an hfile
+     */
+    public boolean matches(String key) {
+        return enabled && pattern.matcher(key).matches();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @param filesize size of the opened file
+     * @return bytes to fetch from the end of the file
+     */
+    public synchronized int getPrefetchSize(long filesize) {
+        return (int) Math.min(filesize, size);
+    }
+
+    /**
+     * @param used bytes from the end of the file read while the file was
+     * opened
+     */
+    public synchronized void recordTailUse(long used) {
+        if (used <= 0) {
+            return;
+        }
+        long aligned = Math.min(maxSize, (used + SIZE_ALIGNMENT - 1) / SIZE_ALIGNMENT * SIZE_ALIGNMENT);
+        int old = size;
+        if (aligned > size) {
+            size = (int) aligned;
+        } else {
+            size = (int) Math.max(aligned, size - (size - aligned) / SHRINK_DIVISOR);
+        }
+        if (old != size) {
+            logger.debug("tail prefetch size changed from {} to {}", old, size);
+        }
+    }
+
+    public synchronized int getSize() {
+        return size;
+    }
+
+}
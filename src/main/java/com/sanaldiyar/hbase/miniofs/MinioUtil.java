@@ -18,6 +18,7 @@ package com.sanaldiyar.hbase.miniofs;
 
 import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.databind.JsonMappingException;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.minio.ComposeObjectArgs;
 import io.minio.ComposeSource;
 import io.minio.CopyObjectArgs;
@@ -39,21 +40,37 @@ import io.minio.errors.ServerException;
 import io.minio.errors.XmlParserException;
 import io.minio.messages.Item;
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Stack;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.LongSupplier;
 import org.apache.hadoop.conf.Configurable;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.ParentNotDirectoryException;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.util.ShutdownHookManager;
+import org.apache.hadoop.util.concurrent.HadoopExecutors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -63,10 +80,26 @@ public class MinioUtil implements Configurable {
 
     public final static String MINIO_METADATA_BLOCK_SIZE = "hbase.fs.file.blocksize";
 
+    private final static int LIST_PAGE_SIZE = 1000;
+    // after the cached file systems are closed
+    private final static int SHUTDOWN_HOOK_PRIORITY = FileSystem.SHUTDOWN_HOOK_PRIORITY - 1;
+
     private String endpoint;
     private URI uri;
     private Path rootPath;
-    private MinioClient client;
+    private MinioEndpointBalancer balancer;
+    private MinioRetryPolicy retryPolicy;
+    private MinioHedgePolicy hedgePolicy;
+    private MinioTailPrefetchPolicy tailPrefetchPolicy;
+    private MinioSingleFlight singleFlight;
+    private MinioBufferPool bufferPool;
+    private MinioPartSizePolicy partSizePolicy;
+    private MinioSpillAllocator spillAllocator;
+    private MinioReplicaCache replicaCache;
+    private MinioWalStaging walStaging;
+    private MinioConcurrencyLimiter limiter;
+    private MinioIOScheduler scheduler;
+    private ExecutorService executor;
     private String bucket;
     private Configuration conf;
 
@@ -82,23 +115,45 @@ public class MinioUtil implements Configurable {
         try {
             this.conf = conf;
             URI tmpUri = new URI(conf.get(MinioFileSystem.MINIO_ROOT));
-            int port = tmpUri.getPort();
-            if (port == -1) {
-                port = 9000;
+            String authority = tmpUri.getUserInfo();
+            String hosts;
+            if (tmpUri.getHost() != null) {
+                hosts = tmpUri.getHost() + (tmpUri.getPort() == -1 ? "" : ":" + tmpUri.getPort());
+            } else {
+                // minio://<user:pass>@<host1:port1>,<host2:port2>/<bucket>
+                String rawAuthority = tmpUri.getRawAuthority();
+                int at = rawAuthority.lastIndexOf('@');
+                authority = URI.create("minio://" + rawAuthority.substring(0, at) + "@localhost/").getUserInfo();
+                hosts = rawAuthority.substring(at + 1);
             }
-            String hostPort = tmpUri.getHost() + ":" + String.valueOf(port);
-            this.endpoint = "http://" + hostPort;
-            logger.trace("minio endpoint address: {}", endpoint);
+            URI rootEndpoint = URI.create(parseEndpoints(hosts).get(0));
+            List<String> endpoints = parseEndpoints(conf.get(MinioFileSystem.MINIO_ENDPOINTS, hosts));
+            this.endpoint = endpoints.get(0);
+            logger.trace("minio endpoint addresses: {}", endpoints);
             this.bucket = tmpUri.getPath().substring(1);
-            String authority = tmpUri.getUserInfo();
             String[] up = authority.split(":");
             logger.trace("bucket {} username {}", bucket, up[0]);
-            uri = new URI(tmpUri.getScheme(), null, tmpUri.getHost(), port, tmpUri.getPath(), null, null);
+            uri = new URI(tmpUri.getScheme(), null, rootEndpoint.getHost(), rootEndpoint.getPort(), tmpUri.getPath(), null, null);
             this.rootPath = new Path(uri);
-            this.client = MinioClient.builder().
-                    endpoint(this.getEndpoint())
-                    .credentials(up[0], up[1])
-                    .build();
+            this.balancer = new MinioEndpointBalancer(conf, endpoints, bucket, up[0], up[1]);
+            ShutdownHookManager.get().addShutdownHook(balancer::close, SHUTDOWN_HOOK_PRIORITY);
+            this.retryPolicy = new MinioRetryPolicy(conf);
+            this.hedgePolicy = new MinioHedgePolicy(conf);
+            this.tailPrefetchPolicy = new MinioTailPrefetchPolicy(conf);
+            this.singleFlight = new MinioSingleFlight(conf);
+            this.bufferPool = new MinioBufferPool(conf);
+            this.partSizePolicy = new MinioPartSizePolicy(conf);
+            this.spillAllocator = new MinioSpillAllocator(conf);
+            this.replicaCache = new MinioReplicaCache(conf);
+            this.walStaging = new MinioWalStaging(conf);
+            this.limiter = new MinioConcurrencyLimiter(conf);
+            this.scheduler = new MinioIOScheduler(conf);
+            this.executor = HadoopExecutors.newCachedThreadPool(new ThreadFactoryBuilder()
+                    .setDaemon(true)
+                    .setNameFormat("miniofs-worker-%d")
+                    .build());
+            MinioFileSystemMetrics.getInstance().register();
+            walStaging.recover(this);
 
             conf.set(MinioFileSystem.MINIO_ROOT, uri.toString());
         } catch (URISyntaxException ex) {
@@ -107,6 +162,29 @@ public class MinioUtil implements Configurable {
         confSetted = true;
     }
 
+    private static List<String> parseEndpoints(String hosts) {
+        List<String> endpoints = new LinkedList<>();
+        for (String host : hosts.split(",")) {
+            host = host.trim();
+            if (host.isEmpty()) {
+                continue;
+            }
+            if (!host.contains("://")) {
+                host = "http://" + host;
+            }
+            URI hostUri = URI.create(host);
+            int port = hostUri.getPort();
+            if (port == -1) {
+                port = 9000;
+            }
+            String hostEndpoint = hostUri.getScheme() + "://" + hostUri.getHost() + ":" + String.valueOf(port);
+            if (!endpoints.contains(hostEndpoint)) {
+                endpoints.add(hostEndpoint);
+            }
+        }
+        return endpoints;
+    }
+
     public URI getUri() {
         return uri;
     }
@@ -152,9 +230,24 @@ public class MinioUtil implements Configurable {
     }
 
     public FileStatus[] listStatus(Path path, boolean recursive) throws FileNotFoundException, IOException {
-        FileStatus base_fs;
+        List<MinioFileStatus> statuses = listMinioStatus(path, recursive);
+        FileStatus[] fses = new FileStatus[statuses.size()];
+        for (int i = 0; i < fses.length; i++) {
+            fses[i] = new FileStatus(statuses.get(i));
+        }
+        return fses;
+    }
+
+    /**
+     * @param path path to list
+     * @param recursive if true all the descendants are listed
+     * @return statuses of the children with the etags of the objects
+     * @throws IOException if the path cannot be listed
+     */
+    public List<MinioFileStatus> listMinioStatus(Path path, boolean recursive) throws FileNotFoundException, IOException {
+        MinioFileStatus base_fs;
         try {
-            base_fs = getFileStatus(path);
+            base_fs = getMinioFileStatus(path);
         } catch (FileNotFoundException ex) {
             logger.trace("path {} not exists", path);
             throw ex;
@@ -163,10 +256,10 @@ public class MinioUtil implements Configurable {
         }
 
         if (base_fs.isFile()) {
-            return new FileStatus[]{base_fs};
+            return Collections.singletonList(base_fs);
         }
 
-        List<FileStatus> statuses = new LinkedList<>();
+        List<MinioFileStatus> statuses = new LinkedList<>();
 
         try {
             String prefix = convertDirPrefix(path);
@@ -176,11 +269,10 @@ public class MinioUtil implements Configurable {
 
             while (fetchNext) {
 
-                Iterable<Result<Item>> results;
-
                 ListObjectsArgs.Builder builder = ListObjectsArgs.builder()
                         .bucket(bucket)
                         .useUrlEncodingType(true)
+                        .maxKeys(LIST_PAGE_SIZE)
                         .recursive(recursive);
 
                 if (!prefix.equals("/")) {
@@ -192,12 +284,19 @@ public class MinioUtil implements Configurable {
                     lastKey = "";
                 }
 
-                results = client.listObjects(builder.build());
-
-                int itemCnt = 0;
+                ListObjectsArgs args = builder.build();
+                List<Item> items = execute(MinioOperation.LIST, prefix, c -> {
+                    List<Item> page = new LinkedList<>();
+                    for (Result<Item> result : c.listObjects(args)) {
+                        page.add(result.get());
+                        if (page.size() == LIST_PAGE_SIZE) {
+                            break;
+                        }
+                    }
+                    return page;
+                });
 
-                for (Result<Item> result : results) {
-                    Item item = result.get();
+                for (Item item : items) {
                     String strItemPath = item.objectName();
                     lastKey = strItemPath;
                     Path itemPath = new Path(rootPath, strItemPath);
@@ -208,13 +307,13 @@ public class MinioUtil implements Configurable {
                     if (strItemPath.endsWith("/")) {
                         isDir = true;
                     }
-                    FileStatus fs = new FileStatus(new MinioFileStatus(itemPath, isDir, item.size()));
+                    String etag = item.etag() == null ? null : item.etag().replace("\"", "");
+                    MinioFileStatus fs = new MinioFileStatus(itemPath, isDir, item.size(), etag);
                     logger.trace("path found {} isDir {} size {}", fs.getPath(), fs.isDirectory(), fs.getLen());
                     statuses.add(fs);
-                    itemCnt++;
                 }
 
-                if (lastKey.isEmpty() || itemCnt < 1000) {
+                if (lastKey.isEmpty() || items.size() < LIST_PAGE_SIZE) {
                     fetchNext = false;
                 }
             }
@@ -224,27 +323,34 @@ public class MinioUtil implements Configurable {
             throw new IOException("cannot list statuses", ex);
         }
 
-        FileStatus[] fses = new FileStatus[statuses.size()];
-        statuses.toArray(fses);
-        logger.trace("listing returned {} paths", fses.length);
-        return fses;
+        logger.trace("listing returned {} paths", statuses.size());
+        return statuses;
     }
 
     public FileStatus getFileStatus(Path path) throws IOException {
+        return new FileStatus(getMinioFileStatus(path));
+    }
+
+    /**
+     * @param path path to stat
+     * @return status of the path with the etag of the object
+     * @throws IOException if the path cannot be stat
+     */
+    public MinioFileStatus getMinioFileStatus(Path path) throws IOException {
         String basePath = getPrefix(path);
         logger.trace("get status of path {}", basePath);
 
         if (basePath.isEmpty()) { //root
-            return new FileStatus(new MinioFileStatus(path, true, 0));
+            return new MinioFileStatus(path, true, 0);
         }
 
         StatObjectResponse stat = null;
         boolean isDir = false;
         try {
-            stat = client.statObject(StatObjectArgs.builder()
+            stat = execute(MinioOperation.STAT, basePath, c -> c.statObject(StatObjectArgs.builder()
                     .bucket(bucket)
                     .object(basePath)
-                    .build());
+                    .build()));
         } catch (InvalidKeyException | InsufficientDataException | InternalException | InvalidResponseException | NoSuchAlgorithmException | ServerException | XmlParserException ex) {
             logger.trace(null, ex);
             throw new IOException(String.format("cannot stat path: {}", path.toString()));
@@ -252,10 +358,10 @@ public class MinioUtil implements Configurable {
             if (ex.response().code() == 404) {
                 try {
                     logger.trace("probably not file, try as folder: {}", basePath);
-                    stat = client.statObject(StatObjectArgs.builder()
+                    stat = execute(MinioOperation.STAT, basePath, c -> c.statObject(StatObjectArgs.builder()
                             .bucket(bucket)
                             .object(basePath + "/")
-                            .build());
+                            .build()));
                     isDir = true;
                 } catch (InvalidKeyException | InsufficientDataException | InternalException | InvalidResponseException | NoSuchAlgorithmException | ServerException | XmlParserException ex1) {
                     logger.trace(null, ex1);
@@ -274,8 +380,7 @@ public class MinioUtil implements Configurable {
             throw new IOException(String.format("cannot stat path: {}", path.toString()));
         } else {
             path = path.makeQualified(rootPath.toUri(), rootPath);
-            FileStatus fs = new FileStatus(new MinioFileStatus(path, isDir, stat.size()));
-            return fs;
+            return new MinioFileStatus(path, isDir, stat.size(), stat.etag());
         }
     }
 
@@ -307,11 +412,11 @@ public class MinioUtil implements Configurable {
                 }
             } catch (FileNotFoundException nfexp) {
                 try {
-                    client.putObject(PutObjectArgs.builder()
+                    execute(MinioOperation.PUT, key, c -> c.putObject(PutObjectArgs.builder()
                             .bucket(bucket)
                             .object(key)
                             .stream(new ByteArrayInputStream(new byte[]{}), 0, -1)
-                            .build());
+                            .build()));
                 } catch (ErrorResponseException | InsufficientDataException | InternalException | InvalidResponseException | ServerException | XmlParserException | IOException | IllegalArgumentException | InvalidKeyException | NoSuchAlgorithmException ex) {
                     logger.trace(null, ex);
                     throw new IOException("cannot create directory", ex);
@@ -361,15 +466,16 @@ public class MinioUtil implements Configurable {
 
     private void deleteItem(Path path, boolean isDir) throws IOException {
         try {
-            String itemPath = getPrefix(path);
-            if (isDir) {
-                itemPath += "/";
-            }
-            client.removeObject(RemoveObjectArgs.builder()
-                    .bucket(bucket)
-                    .object(itemPath)
-                    .build()
-            );
+            String itemPath = isDir ? getPrefix(path) + "/" : getPrefix(path);
+            execute(MinioOperation.REMOVE, itemPath, c -> {
+                c.removeObject(RemoveObjectArgs.builder()
+                        .bucket(bucket)
+                        .object(itemPath)
+                        .build()
+                );
+                return null;
+            });
+            replicaCache.invalidate(itemPath);
             logger.trace("path {} deleted", path.toUri().getPath());
         } catch (ErrorResponseException | InsufficientDataException | InternalException | InvalidKeyException | InvalidResponseException | NoSuchAlgorithmException | ServerException | XmlParserException ex) {
             logger.error("cannot delete item", ex);
@@ -382,11 +488,22 @@ public class MinioUtil implements Configurable {
             mkdirs(path.getParent());
             String key = getPrefix(path);
             logger.trace("dst key will be: {}", key);
-            ObjectWriteResponse resp = client.putObject(PutObjectArgs.builder()
-                    .bucket(bucket)
-                    .object(key)
-                    .stream(is, len, getDefaultPartSize())
-                    .build());
+            boolean resettable = is.markSupported();
+            if (resettable) {
+                is.mark((int) Math.min(len + 1, Integer.MAX_VALUE));
+            }
+            MinioCall<ObjectWriteResponse> put = c -> {
+                if (resettable) {
+                    is.reset();
+                }
+                return c.putObject(PutObjectArgs.builder()
+                        .bucket(bucket)
+                        .object(key)
+                        .stream(is, len, getDefaultPartSize())
+                        .build());
+            };
+            ObjectWriteResponse resp = resettable ? execute(MinioOperation.PUT, key, len, put) : executeOnce(MinioOperation.PUT, key, len, put);
+            replicaCache.invalidate(key);
 
             logger.trace("upload object to path {} with len {} suceeded. etag: {}", path.toString(), len, resp.etag());
         } catch (ErrorResponseException | InsufficientDataException | InternalException | InvalidKeyException | InvalidResponseException | NoSuchAlgorithmException | ServerException | XmlParserException ex) {
@@ -395,6 +512,31 @@ public class MinioUtil implements Configurable {
         }
     }
 
+    /**
+     * Puts the file as a single object, the file is sent from its channel
+     * without copying it to the heap.
+     */
+    public void putFile(Path path, File file, long len) throws IOException {
+        if (len > Integer.MAX_VALUE) {
+            try (InputStream is = new ResettableFileInputStream(file)) {
+                putStream(path, is, len);
+            }
+            return;
+        }
+        try {
+            logger.trace("try to upload file {} to path {} with len {}", file, path, len);
+            mkdirs(path.getParent());
+            String key = getPrefix(path);
+            ObjectWriteResponse resp = execute(MinioOperation.PUT, key, len, c -> c.putFile(bucket, key, file, (int) len));
+            replicaCache.invalidate(key);
+
+            logger.trace("upload file to path {} with len {} suceeded. etag: {}", path, len, resp.etag());
+        } catch (ErrorResponseException | InsufficientDataException | InternalException | InvalidKeyException | InvalidResponseException | NoSuchAlgorithmException | ServerException | XmlParserException ex) {
+            logger.error("cannot put file as object", ex);
+            throw new IOException("cannot put file as object", ex);
+        }
+    }
+
     private String convertDirPrefix(Path path) throws IOException {
         String prefix = getPrefix(path);
         if (!prefix.endsWith("/")) {
@@ -411,7 +553,13 @@ public class MinioUtil implements Configurable {
         return getConf().getInt(MinioFileSystem.MINIO_UPLOAD_PART_SIZE, MinioFileSystem.MINIO_DEFAULT_PART_SIZE);
     }
 
-    public void mergeAndClean(Path dst, Path[] items, Path tmpDir) throws IOException {
+    /**
+     * Composes the items into the destination and deletes the temporary
+     * directory of the items.
+     *
+     * @return etag of the composed object
+     */
+    public String mergeAndClean(Path dst, Path[] items, Path tmpDir) throws IOException {
         List<ComposeSource> sources = new LinkedList<>();
 
         for (Path item : items) {
@@ -420,21 +568,26 @@ public class MinioUtil implements Configurable {
             logger.trace("source added: {}", strPath);
         }
 
+        String etag;
         try {
             String strDst = getPrefix(dst);
-            client.composeObject(
+            ObjectWriteResponse resp = execute(MinioOperation.COMPOSE, strDst, c -> c.composeObject(
                     ComposeObjectArgs.builder()
                             .bucket(bucket)
                             .object(strDst)
                             .sources(sources)
-                            .build());
-            logger.trace("object merged to the path {}", strDst);
+                            .build()));
+            replicaCache.invalidate(strDst);
+            // stat responses carry the etag without the quotes
+            etag = resp.etag() == null ? null : resp.etag().replace("\"", "");
+            logger.trace("object merged to the path {} etag: {}", strDst, etag);
         } catch (ErrorResponseException | InsufficientDataException | InternalException | InvalidKeyException | InvalidResponseException | NoSuchAlgorithmException | ServerException | XmlParserException ex) {
             logger.error("cannot merge items", ex);
             throw new IOException("cannot merge items", ex);
         }
 
         delete(tmpDir, true);
+        return etag;
     }
 
     public boolean rename(Path src, Path dst) throws IOException {
@@ -463,21 +616,19 @@ public class MinioUtil implements Configurable {
             mkdirs(dst.getParent());
         }
 
-        String strSrc = getPrefix(src);
-        FileStatus src_fs = getFileStatus(src);
-        String strDst = getPrefix(dst);
-        if (src_fs.isDirectory()) {
-            strSrc += "/";
-            strDst += "/";
-        }
+        MinioFileStatus src_fs = getMinioFileStatus(src);
+        String strSrc = src_fs.isDirectory() ? getPrefix(src) + "/" : getPrefix(src);
+        String strDst = src_fs.isDirectory() ? getPrefix(dst) + "/" : getPrefix(dst);
 
         try {
-            client.copyObject(
+            ObjectWriteResponse resp = execute(MinioOperation.COPY, strDst, c -> c.copyObject(
                     CopyObjectArgs.builder()
                             .bucket(bucket)
                             .object(strDst)
                             .source(CopySource.builder().bucket(bucket).object(strSrc).build())
-                            .build());
+                            .build()));
+            // the replica follows the object, deleting the source would drop it
+            replicaCache.move(strSrc, src_fs.getEtag(), strDst, resp.etag() == null ? null : resp.etag().replace("\"", ""));
         } catch (ErrorResponseException | InsufficientDataException | InternalException | InvalidKeyException | InvalidResponseException | NoSuchAlgorithmException | ServerException | XmlParserException ex) {
             logger.error("cannot copy object", ex);
             throw new IOException("cannot copy object", ex);
@@ -487,31 +638,295 @@ public class MinioUtil implements Configurable {
     }
 
     int fillData(Path path, long start, byte[] buffer) throws IOException {
+        return fillData(path, start, buffer, 0, buffer.length);
+    }
+
+    /**
+     * Reads a range of the object version into the buffer, sharing the get
+     * with concurrent callers asking for the same range.
+     *
+     * @param etag etag of the object version, null disables sharing
+     * @return bytes read, less than len only at the end of the object
+     */
+    int fillData(Path path, String etag, long start, byte[] buffer, int off, int len) throws IOException {
+        return singleFlight.fetch(getPrefix(path), etag, start, buffer, off, len, (s, b, o, l) -> fillData(path, s, b, o, l));
+    }
+
+    /**
+     * Reads a range of the object into the buffer.
+     *
+     * @return bytes read, less than len only at the end of the object
+     */
+    int fillData(Path path, long start, byte[] buffer, int off, int len) throws IOException {
         try {
             String key = getPrefix(path);
-            InputStream is = client.getObject(GetObjectArgs.builder()
-                    .bucket(bucket)
-                    .object(key)
-                    .offset(start)
-                    .length((long) buffer.length)
-                    .build());
-
-            int readed = 0;
-            int offset = 0;
-            while (true) {
-                int r = is.read(buffer, offset, buffer.length - offset);
-                if (r < 0) {
-                    break;
+            final int[] readed = new int[]{0};
+            // bytes read before the current attempt, the end of the object stops short of len
+            final int[] resumed = new int[]{0};
+            return execute(MinioOperation.GET, key, len, () -> readed[0] - resumed[0], c -> {
+                resumed[0] = readed[0];
+                if (readed[0] > 0) {
+                    logger.debug("resuming read of {} from {} after {} bytes", key, start + readed[0], readed[0]);
                 }
-                offset += r;
-                readed += r;
-            }
-            is.close();
-            return readed;
+                try (InputStream is = openRange(c, GetObjectArgs.builder()
+                        .bucket(bucket)
+                        .object(key)
+                        .offset(start + readed[0])
+                        .length((long) len - readed[0])
+                        .build())) {
+                    while (readed[0] < len) {
+                        int r = is.read(buffer, off + readed[0], len - readed[0]);
+                        if (r < 0) {
+                            break;
+                        }
+                        readed[0] += r;
+                    }
+                } catch (ErrorResponseException ex) {
+                    if (readed[0] > 0 && ex.response() != null && ex.response().code() == 416) {
+                        // the previous attempt already received everything up to the end of the object
+                        return readed[0];
+                    }
+                    throw ex;
+                }
+                return readed[0];
+            });
         } catch (ErrorResponseException | InsufficientDataException | InternalException | InvalidKeyException | InvalidResponseException | NoSuchAlgorithmException | ServerException | XmlParserException ex) {
             logger.error("cannot fill buffer data from s3", ex);
             throw new IOException("cannot fill buffer data from s3", ex);
         }
     }
 
+    private InputStream openRange(MinioClient c, GetObjectArgs args) throws ErrorResponseException, InsufficientDataException, InternalException, InvalidKeyException, InvalidResponseException, IOException, NoSuchAlgorithmException, ServerException, XmlParserException {
+        hedgePolicy.onRequest();
+        long hedgeDelay = hedgePolicy.getHedgeDelay();
+        if (hedgeDelay < 0) {
+            long begin = System.nanoTime();
+            InputStream is = c.getObject(args);
+            hedgePolicy.recordFirstByte(System.nanoTime() - begin);
+            return is;
+        }
+
+        CompletableFuture<InputStream> primary = openRangeAsync(c, args);
+        try {
+            return primary.get(hedgeDelay, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException ex) {
+            if (!hedgePolicy.tryAcquireHedge()) {
+                return awaitRange(primary);
+            }
+        } catch (ExecutionException ex) {
+            return awaitRange(primary);
+        } catch (InterruptedException ex) {
+            primary.thenAccept(IOUtils::closeStream);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("ranged get interrupted");
+        }
+
+        // the hedge is extra load, it is sent only if a slot is free right now
+        MinioIOClass ioClass = MinioIOScheduler.classify(MinioOperation.GET, args.object());
+        MinioRequestClass requestClass = MinioOperation.GET.getRequestClass();
+        if (!scheduler.tryAcquire(ioClass, () -> limiter.tryAcquire(requestClass))) {
+            logger.debug("no free slot to hedge {}", args.object());
+            return awaitRange(primary);
+        }
+        logger.debug("first bytes of {} did not arrive in {}us, hedging", args.object(), TimeUnit.NANOSECONDS.toMicros(hedgeDelay));
+        MinioFileSystemMetrics.getInstance().incrementHedgedGets();
+        MinioEndpointBalancer.Endpoint hedgeEndpoint = balancer.acquire(c);
+        long hedgeBegin = System.nanoTime();
+        CompletableFuture<InputStream> hedge = openRangeAsync(hedgeEndpoint.getClient(), args);
+        // the slots are held until the response arrives, a winning body is read under the primary's slots
+        hedge.whenComplete((is, th) -> {
+            long elapsed = System.nanoTime() - hedgeBegin;
+            Throwable cause = th instanceof CompletionException && th.getCause() != null ? th.getCause() : th;
+            boolean throttled = cause instanceof Exception && retryPolicy.isThrottled((Exception) cause);
+            balancer.release(hedgeEndpoint, elapsed, cause != null, throttled);
+            limiter.release(requestClass, elapsed, throttled);
+            scheduler.release(ioClass);
+        });
+        CompletableFuture<InputStream> winner = new CompletableFuture<>();
+        AtomicInteger failures = new AtomicInteger();
+        BiConsumer<InputStream, Throwable> race = (is, th) -> {
+            if (th != null) {
+                if (failures.incrementAndGet() == 2) {
+                    winner.completeExceptionally(th);
+                }
+            } else if (!winner.complete(is)) {
+                // the slower request is dropped by closing its body
+                IOUtils.closeStream(is);
+            }
+        };
+        primary.whenComplete(race);
+        hedge.whenComplete((is, th) -> {
+            if (th == null && !primary.isDone()) {
+                MinioFileSystemMetrics.getInstance().incrementHedgeWins();
+            }
+            race.accept(is, th);
+        });
+        return awaitRange(winner);
+    }
+
+    private CompletableFuture<InputStream> openRangeAsync(MinioClient c, GetObjectArgs args) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                long begin = System.nanoTime();
+                InputStream is = c.getObject(args);
+                hedgePolicy.recordFirstByte(System.nanoTime() - begin);
+                return is;
+            } catch (ErrorResponseException | InsufficientDataException | InternalException | InvalidKeyException | InvalidResponseException | IOException | NoSuchAlgorithmException | ServerException | XmlParserException ex) {
+                throw new CompletionException(ex);
+            }
+        }, executor);
+    }
+
+    private InputStream awaitRange(CompletableFuture<InputStream> future) throws ErrorResponseException, InsufficientDataException, InternalException, InvalidKeyException, InvalidResponseException, IOException, NoSuchAlgorithmException, ServerException, XmlParserException {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            future.thenAccept(IOUtils::closeStream);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("ranged get interrupted");
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof CompletionException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof ErrorResponseException) {
+                throw (ErrorResponseException) cause;
+            } else if (cause instanceof InsufficientDataException) {
+                throw (InsufficientDataException) cause;
+            } else if (cause instanceof InternalException) {
+                throw (InternalException) cause;
+            } else if (cause instanceof InvalidKeyException) {
+                throw (InvalidKeyException) cause;
+            } else if (cause instanceof InvalidResponseException) {
+                throw (InvalidResponseException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof NoSuchAlgorithmException) {
+                throw (NoSuchAlgorithmException) cause;
+            } else if (cause instanceof ServerException) {
+                throw (ServerException) cause;
+            } else if (cause instanceof XmlParserException) {
+                throw (XmlParserException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("ranged get failed", cause);
+        }
+    }
+
+    ExecutorService getExecutor() {
+        return executor;
+    }
+
+    <T> T execute(MinioOperation operation, String key, MinioCall<T> call) throws ErrorResponseException, InsufficientDataException, InternalException, InvalidKeyException, InvalidResponseException, IOException, NoSuchAlgorithmException, ServerException, XmlParserException {
+        return execute(operation, key, 0, call);
+    }
+
+    <T> T execute(MinioOperation operation, String key, long bytes, MinioCall<T> call) throws ErrorResponseException, InsufficientDataException, InternalException, InvalidKeyException, InvalidResponseException, IOException, NoSuchAlgorithmException, ServerException, XmlParserException {
+        return execute(operation, key, bytes, () -> bytes, call);
+    }
+
+    /**
+     * @param bytes expected size of the transfer, throttled before the
+     * request
+     * @param transferred bytes transferred by the last attempt, recorded in
+     * the metrics and the latency of the limiter after every attempt
+     */
+    <T> T execute(MinioOperation operation, String key, long bytes, LongSupplier transferred, MinioCall<T> call) throws ErrorResponseException, InsufficientDataException, InternalException, InvalidKeyException, InvalidResponseException, IOException, NoSuchAlgorithmException, ServerException, XmlParserException {
+        MinioIOClass ioClass = MinioIOScheduler.classify(operation, key);
+        MinioPathClass pathClass = MinioPathClass.of(key);
+        scheduler.throttle(ioClass, bytes);
+        retryPolicy.onRequest(operation);
+        int attempt = 0;
+        while (true) {
+            attempt++;
+            try {
+                return attempt(operation, ioClass, pathClass, transferred, call);
+            } catch (ErrorResponseException | InsufficientDataException | InternalException | InvalidResponseException | ServerException | XmlParserException | IOException ex) {
+                if (!retryPolicy.shouldRetry(operation, ex, attempt)) {
+                    throw ex;
+                }
+                retryPolicy.backoff(attempt);
+            }
+        }
+    }
+
+    <T> T executeOnce(MinioOperation operation, String key, long bytes, MinioCall<T> call) throws ErrorResponseException, InsufficientDataException, InternalException, InvalidKeyException, InvalidResponseException, IOException, NoSuchAlgorithmException, ServerException, XmlParserException {
+        MinioIOClass ioClass = MinioIOScheduler.classify(operation, key);
+        scheduler.throttle(ioClass, bytes);
+        return attempt(operation, ioClass, MinioPathClass.of(key), () -> bytes, call);
+    }
+
+    private <T> T attempt(MinioOperation operation, MinioIOClass ioClass, MinioPathClass pathClass, LongSupplier transferred, MinioCall<T> call) throws ErrorResponseException, InsufficientDataException, InternalException, InvalidKeyException, InvalidResponseException, IOException, NoSuchAlgorithmException, ServerException, XmlParserException {
+        MinioRequestClass requestClass = operation.getRequestClass();
+        if (scheduler.isEnabled()) {
+            // queued by priority, the limiter slot is taken when the scheduler admits
+            scheduler.acquire(ioClass, () -> limiter.tryAcquire(requestClass));
+        } else {
+            limiter.acquire(requestClass);
+        }
+        MinioEndpointBalancer.Endpoint ep = balancer.acquire();
+        long begin = System.nanoTime();
+        boolean failed = false;
+        boolean throttled = false;
+        boolean succeeded = false;
+        try {
+            T result = call.call(ep.getClient());
+            succeeded = true;
+            return result;
+        } catch (ErrorResponseException | InsufficientDataException | InternalException | InvalidResponseException | ServerException | XmlParserException | IOException ex) {
+            failed = retryPolicy.isRetryable(ex);
+            throttled = retryPolicy.isThrottled(ex);
+            throw ex;
+        } finally {
+            long elapsed = System.nanoTime() - begin;
+            long bytes = transferred.getAsLong();
+            MinioFileSystemMetrics.getInstance().recordRequest(operation, pathClass, elapsed, bytes, !succeeded);
+            balancer.release(ep, elapsed, failed, throttled);
+            // the limiter first, so the scheduler sees the free slot when it dispatches
+            limiter.release(requestClass, elapsed, bytes, throttled);
+            scheduler.release(ioClass);
+        }
+    }
+
+    public MinioConcurrencyLimiter getConcurrencyLimiter() {
+        return limiter;
+    }
+
+    public MinioIOScheduler getScheduler() {
+        return scheduler;
+    }
+
+    public MinioTailPrefetchPolicy getTailPrefetchPolicy() {
+        return tailPrefetchPolicy;
+    }
+
+    public MinioSingleFlight getSingleFlight() {
+        return singleFlight;
+    }
+
+    public MinioWalStaging getWalStaging() {
+        return walStaging;
+    }
+
+    public MinioReplicaCache getReplicaCache() {
+        return replicaCache;
+    }
+
+    public MinioBufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    public MinioPartSizePolicy getPartSizePolicy() {
+        return partSizePolicy;
+    }
+
+    public MinioSpillAllocator getSpillAllocator() {
+        return spillAllocator;
+    }
+
+    public MinioRetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
 }
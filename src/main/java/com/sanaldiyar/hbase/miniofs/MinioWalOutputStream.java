@@ -0,0 +1,335 @@
+/*
+Copyright 2020 Kazım SARIKAYA
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+ */
+package com.sanaldiyar.hbase.miniofs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.StreamCapabilities;
+import org.apache.hadoop.fs.Syncable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Output stream of a wal segment staged on the local disk by
+ * {@link MinioWalStaging}. hflush writes the buffered data to the local file
+ * and hsync forces it to the disk. Concurrent syncs are committed as a
+ * group, a sync waiting for the running fsync returns without another
+ * fsync if the running one covered its data. The segment reaches the object
+ * store only when it is closed, see {@link MinioWalStaging}.
+ *
+ * @author kazim
+ */
+public class MinioWalOutputStream extends OutputStream implements Syncable, StreamCapabilities, MinioWriter, MinioStreamStatisticsSource {
+
+    private final static Logger logger = LoggerFactory.getLogger(MinioWalOutputStream.class.getName());
+
+    private final MinioWalStaging staging;
+    private final MinioFileSystem fileSystem;
+    private final Path path;
+    private final String key;
+    private final File file;
+    private final FileChannel channel;
+    private final byte[] buffer;
+    private int count = 0;
+    private long flushed = 0;
+    private long synced = 0;
+    private final Object syncLock = new Object();
+    private volatile boolean closed = false;
+    private boolean shipped = false;
+    private IOException shipFailure;
+    private final FileSystem.Statistics statistics;
+    private final MinioStreamStatistics streamStatistics = MinioStreamStatistics.forOutputStream();
+
+    MinioWalOutputStream(MinioWalStaging staging, MinioFileSystem fileSystem, Path path, String key, File file, int bufferSize, FileSystem.Statistics statistics) throws IOException {
+        this.staging = staging;
+        this.fileSystem = fileSystem;
+        this.path = path;
+        this.key = key;
+        this.file = file;
+        this.buffer = new byte[bufferSize];
+        this.statistics = statistics;
+        // truncated only after the lock, the file may be a segment of a live process
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            if (MinioWalStaging.tryLock(channel) == null) {
+                throw new IOException("wal segment file " + file + " is locked by another writer");
+            }
+            channel.truncate(0);
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+        List<String> locks = MinioFileSystem.getLocks();
+        synchronized (locks) {
+            locks.add(key);
+            logger.trace("LOCK lock added for path {}", path);
+        }
+        MinioFileSystem.getWriters().put(key, this);
+        logger.debug("wal segment {} staged at {}", path, file);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public synchronized void write(byte[] data, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || (off + len) > data.length) {
+            throw new IndexOutOfBoundsException("Invalid offset/length for write");
+        }
+        if (closed) {
+            throw new IOException("stream is closed");
+        }
+        statistics.incrementWriteOps(1);
+        statistics.incrementBytesWritten(len);
+        while (len > 0) {
+            if (count == buffer.length) {
+                flushBuffer();
+            }
+            int n = Math.min(len, buffer.length - count);
+            System.arraycopy(data, off, buffer, count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (count == 0) {
+            return;
+        }
+        long begin = System.nanoTime();
+        ByteBuffer src = ByteBuffer.wrap(buffer, 0, count);
+        while (src.hasRemaining()) {
+            channel.write(src, flushed + src.position());
+        }
+        flushed += count;
+        count = 0;
+        streamStatistics.increment(MinioStreamStatistics.SPILL_WAIT_MICROS, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - begin));
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        if (!closed) {
+            flushBuffer();
+        }
+    }
+
+    /**
+     * Writes the buffered data to the local file, it survives the failure
+     * of the process and it is visible to the readers.
+     */
+    @Override
+    public synchronized void hflush() throws IOException {
+        if (closed) {
+            throw new IOException("stream is closed");
+        }
+        flushBuffer();
+    }
+
+    /**
+     * Forces the written data to the local disk. The data is durable against
+     * the failure of the process and of the os, not against the loss of the
+     * host; other hosts and the listings see it only after the segment is
+     * closed and uploaded.
+     */
+    @Override
+    public void hsync() throws IOException {
+        long target;
+        synchronized (this) {
+            hflush();
+            target = flushed;
+        }
+        sync(target);
+    }
+
+    private void sync(long target) throws IOException {
+        synchronized (syncLock) {
+            if (synced >= target) {
+                MinioFileSystemMetrics.getInstance().incrementWalSyncsCoalesced();
+                return;
+            }
+            long position;
+            synchronized (this) {
+                position = flushed;
+            }
+            long begin = System.nanoTime();
+            channel.force(false);
+            synced = position;
+            streamStatistics.increment(MinioStreamStatistics.SPILL_WAIT_MICROS, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - begin));
+            MinioFileSystemMetrics.getInstance().incrementWalSyncs();
+        }
+    }
+
+    /**
+     * HSYNC is advertised for the local disk only, see {@link #hsync()}.
+     */
+    @Override
+    public boolean hasCapability(String capability) {
+        switch (capability.toLowerCase()) {
+            case StreamCapabilities.HFLUSH:
+            case StreamCapabilities.HSYNC:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Syncs the segment and hands it to the staging for the upload, the
+     * object appears at the path when the upload completes.
+     */
+    @Override
+    public void close() throws IOException {
+        long target;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            flushBuffer();
+            target = flushed;
+        }
+        sync(target);
+        synchronized (this) {
+            // the channel keeps the file locked until it is uploaded
+            closed = true;
+        }
+        List<String> locks = MinioFileSystem.getLocks();
+        synchronized (locks) {
+            locks.remove(key);
+            logger.trace("LOCK lock removed for path {}", path);
+        }
+        fileSystem.getOutputStreams().remove(this);
+        logger.debug("wal segment {} closed with {} bytes", path, flushed);
+        staging.ship(this);
+    }
+
+    synchronized void shipped(IOException failure) {
+        shipped = failure == null;
+        shipFailure = failure;
+        if (shipped) {
+            MinioFileSystem.getWriters().remove(key, this);
+        }
+        notifyAll();
+    }
+
+    /**
+     * @return true if the upload failed and it should be started again
+     */
+    synchronized boolean reship() {
+        if (shipFailure == null) {
+            return false;
+        }
+        shipFailure = null;
+        return true;
+    }
+
+    /**
+     * Closes the file and its lock once it is uploaded and deleted, under the
+     * sync lock so that a running fsync does not see a closed channel.
+     */
+    void release() {
+        synchronized (syncLock) {
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                logger.warn("staged wal segment {} cannot be closed", file, ex);
+            }
+        }
+    }
+
+    synchronized void awaitShipped() throws IOException {
+        while (!shipped && shipFailure == null) {
+            try {
+                wait();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("waiting for the upload of " + path + " interrupted");
+            }
+        }
+        if (shipFailure != null) {
+            throw new IOException("wal segment " + path + " cannot be uploaded", shipFailure);
+        }
+    }
+
+    @Override
+    public synchronized int readWritten(long pos, byte[] data, int off, int len) throws IOException {
+        if (shipped) {
+            return COMPLETED;
+        }
+        long written = flushed + count;
+        if (pos >= written) {
+            return -1;
+        }
+        int n = (int) Math.min(len, written - pos);
+        if (pos >= flushed) {
+            System.arraycopy(buffer, (int) (pos - flushed), data, off, n);
+            return n;
+        }
+        n = (int) Math.min(n, flushed - pos);
+        return MinioOutputStream.readFile(file, pos, data, off, n);
+    }
+
+    @Override
+    public synchronized long getWritten() {
+        return flushed + count;
+    }
+
+    @Override
+    public Path getPath() {
+        return path;
+    }
+
+    String getKey() {
+        return key;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public synchronized boolean isCompleted() {
+        return shipped;
+    }
+
+    @Override
+    public MinioStreamStatistics getStreamStatistics() {
+        return streamStatistics;
+    }
+
+    @Override
+    public String toString() {
+        return "MinioWalOutputStream{path=" + path + ", written=" + getWritten() + ", synced=" + synced + "}";
+    }
+
+}
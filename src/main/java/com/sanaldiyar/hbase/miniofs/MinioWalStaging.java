@@ -0,0 +1,244 @@
+/*
+Copyright 2020 Kazım SARIKAYA
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+ */
+package com.sanaldiyar.hbase.miniofs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stages the wal segments on the local disk. A segment is appended and
+ * synced to a local file named after its key, and it is uploaded to its
+ * path in the background once it is closed. The upload is retried only by
+ * the retry policy of the put, with its backoff and retry budget; a segment
+ * whose retries are used up is uploaded again by the next rename or delete
+ * waiting for it, or by the recovery. The file is locked until it is uploaded,
+ * segments left by a stopped process are uploaded when the file system is
+ * configured again and the locked ones are skipped as they belong to a live
+ * process.
+ *
+ * A staged segment is durable against process failures once it is synced,
+ * it is durable against the loss of the host only after it is uploaded.
+ * Until then it is visible only to the readers of this process, so the log
+ * splitting of a crashed server cannot see its synced edits before the
+ * server is restarted on the same host.
+ *
+ * @author kazim
+ */
+public class MinioWalStaging {
+
+    private final static Logger logger = LoggerFactory.getLogger(MinioWalStaging.class.getName());
+
+    private final static String ENCODING = "UTF-8";
+    private final static String SUFFIX = ".wal";
+
+    private final boolean enabled;
+    private final File dir;
+    private final int bufferSize;
+    private final Map<String, MinioWalOutputStream> segments = new ConcurrentHashMap<>();
+
+    public MinioWalStaging(Configuration conf) {
+        this.enabled = conf.getBoolean(MinioFileSystem.MINIO_WAL_STAGING_ENABLED, false);
+        String tmp = conf.get("hadoop.tmp.dir", System.getProperty("java.io.tmpdir"));
+        this.dir = new File(conf.get(MinioFileSystem.MINIO_WAL_STAGING_DIR, new File(tmp, "minio-wal").getPath()));
+        this.bufferSize = conf.getInt(MinioFileSystem.MINIO_WAL_STAGING_BUFFER_SIZE, MinioFileSystem.MINIO_DEFAULT_WAL_STAGING_BUFFER_SIZE);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param key object key
+     * @return true if the key is written through the staging
+     */
+    public boolean accepts(String key) {
+        return enabled && MinioPathClass.of(key) == MinioPathClass.WAL;
+    }
+
+    public MinioWalOutputStream create(MinioFileSystem fileSystem, Path path, String key, FileSystem.Statistics statistics) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create wal staging directory: " + dir);
+        }
+        File file = new File(dir, encode(key));
+        MinioWalOutputStream segment = new MinioWalOutputStream(this, fileSystem, path, key, file, bufferSize, statistics);
+        segments.put(key, segment);
+        return segment;
+    }
+
+    /**
+     * @param key object key
+     * @return the segment of the key being written or uploaded or null
+     */
+    public MinioWalOutputStream get(String key) {
+        return segments.get(key);
+    }
+
+    /**
+     * Waits for the uploads of the closed segments under the key, so that
+     * renames and deletes find the objects. A segment whose retries are used
+     * up is shipped once more before failing.
+     *
+     * @param key object key of a file or a directory
+     * @throws IOException if an upload failed
+     */
+    public void awaitShipped(String key) throws IOException {
+        for (MinioWalOutputStream segment : segments.values()) {
+            if (segment.getKey().startsWith(key) && segment.isClosed()) {
+                if (segment.reship()) {
+                    ship(segment);
+                }
+                segment.awaitShipped();
+            }
+        }
+    }
+
+    void ship(MinioWalOutputStream segment) {
+        updatePending();
+        MinioUtil minioUtil = MinioUtil.getInstance();
+        minioUtil.getExecutor().execute(() -> {
+            IOException failure = null;
+            MinioIOScheduler.IOClassScope scope = MinioIOScheduler.withIOClass(MinioIOClass.WRITE);
+            try {
+                upload(minioUtil, segment.getPath(), segment.getFile());
+            } catch (IOException | RuntimeException ex) {
+                failure = ex instanceof IOException ? (IOException) ex : new IOException(ex);
+                logger.error("wal segment {} cannot be uploaded, it stays at {}", segment.getPath(), segment.getFile(), ex);
+            } finally {
+                scope.close();
+            }
+            if (failure == null) {
+                segment.getStreamStatistics().increment(MinioStreamStatistics.PARTS_UPLOADED);
+                segment.getStreamStatistics().increment(MinioStreamStatistics.BYTES_UPLOADED, segment.getWritten());
+                segments.remove(segment.getKey(), segment);
+                segment.shipped(null);
+                delete(segment.getFile());
+                // the lock is held until the file is gone, so a recovery never uploads it again
+                segment.release();
+                MinioFileSystemMetrics.getInstance().addOutputStreamStatistics(segment.getStreamStatistics());
+            } else {
+                // the file stays locked for the next await or the recovery after this process
+                segment.shipped(failure);
+            }
+            updatePending();
+        });
+    }
+
+    /**
+     * Uploads the segments staged by a previous process, the segments locked
+     * by a live process are skipped.
+     *
+     * @param minioUtil configured util
+     */
+    void recover(MinioUtil minioUtil) {
+        File[] files = enabled ? dir.listFiles((d, name) -> name.endsWith(SUFFIX)) : null;
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String key;
+            try {
+                key = URLDecoder.decode(file.getName().substring(0, file.getName().length() - SUFFIX.length()), ENCODING);
+            } catch (UnsupportedEncodingException | IllegalArgumentException ex) {
+                logger.warn("staged file {} is not a wal segment", file, ex);
+                continue;
+            }
+            if (segments.containsKey(key)) {
+                continue;
+            }
+            FileChannel channel;
+            try {
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+                if (tryLock(channel) == null) {
+                    channel.close();
+                    logger.debug("staged wal segment {} is locked by a live process", key);
+                    continue;
+                }
+            } catch (IOException ex) {
+                // shipped and deleted by its process meanwhile
+                logger.debug("staged wal segment {} cannot be opened", key, ex);
+                continue;
+            }
+            minioUtil.getExecutor().execute(() -> {
+                try {
+                    if (file.exists()) {
+                        upload(minioUtil, new Path(minioUtil.getRootPath(), key), file);
+                        delete(file);
+                        logger.info("staged wal segment {} recovered", key);
+                    }
+                } catch (IOException | RuntimeException ex) {
+                    logger.error("staged wal segment {} cannot be recovered from {}", key, file, ex);
+                } finally {
+                    IOUtils.closeStream(channel);
+                }
+            });
+        }
+    }
+
+    /**
+     * @return the exclusive lock of the file or null if another channel of
+     * this or another process holds it
+     */
+    static FileLock tryLock(FileChannel channel) throws IOException {
+        try {
+            return channel.tryLock();
+        } catch (OverlappingFileLockException ex) {
+            return null;
+        }
+    }
+
+    private void upload(MinioUtil minioUtil, Path path, File file) throws IOException {
+        logger.debug("uploading staged wal segment {} to {}", file, path);
+        minioUtil.putFile(path, file, file.length());
+        MinioFileSystemMetrics.getInstance().incrementWalSegmentsShipped();
+    }
+
+    private static void delete(File file) {
+        if (!file.delete()) {
+            logger.warn("staged wal segment {} cannot be deleted", file);
+        }
+    }
+
+    private void updatePending() {
+        int pending = 0;
+        for (MinioWalOutputStream segment : segments.values()) {
+            if (segment.isClosed()) {
+                pending++;
+            }
+        }
+        MinioFileSystemMetrics.getInstance().setWalSegmentsPending(pending);
+    }
+
+    private static String encode(String key) throws IOException {
+        return URLEncoder.encode(key, ENCODING) + SUFFIX;
+    }
+
+}
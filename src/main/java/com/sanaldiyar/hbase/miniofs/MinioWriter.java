@@ -0,0 +1,64 @@
+/*
+Copyright 2020 Kazım SARIKAYA
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+ */
+package com.sanaldiyar.hbase.miniofs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Output streams of the jvm whose written data can be read before the
+ * object is complete, see {@link MinioWriterInputStream}.
+ *
+ * @author kazim
+ */
+public interface MinioWriter extends Closeable {
+
+    Path getPath();
+
+    /**
+     * @return bytes written so far
+     */
+    long getWritten();
+
+    /**
+     * Returned by {@link #readWritten} once the data is in the object.
+     */
+    int COMPLETED = -2;
+
+    /**
+     * Reads the data written so far. The writer locks itself only to locate
+     * the data, reads from the object store do not hold up the writes.
+     *
+     * @param pos position to read from
+     * @param data destination
+     * @param off offset in the destination
+     * @param len maximum bytes to read
+     * @return bytes read, -1 if the position is at the end of the written
+     * data or {@link #COMPLETED} if the object should be read instead
+     * @throws IOException if the data cannot be read
+     */
+    int readWritten(long pos, byte[] data, int off, int len) throws IOException;
+
+    boolean isClosed();
+
+    /**
+     * @return true if the written data is in the object of the path
+     */
+    boolean isCompleted();
+
+}
@@ -0,0 +1,142 @@
+/*
+Copyright 2020 Kazım SARIKAYA
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+ */
+package com.sanaldiyar.hbase.miniofs;
+
+import java.io.EOFException;
+import java.io.IOException;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads a file while an output stream of the same jvm is still writing it.
+ * The written data is read through the writer, from its uploaded parts and
+ * its local backend file. A read at the end of the written data returns -1
+ * and a later read returns the data written meanwhile, so the file can be
+ * tailed. Once the writer completes the object the reads go to the object.
+ *
+ * @author kazim
+ */
+public class MinioWriterInputStream extends FSInputStream {
+
+    private final static Logger logger = LoggerFactory.getLogger(MinioWriterInputStream.class.getName());
+
+    private final MinioWriter writer;
+    private final Configuration conf;
+    private final long bufferSize;
+    private final FileSystem.Statistics statistics;
+    private final byte[] oneByte = new byte[1];
+    private MinioInputStream completed;
+    private long position = 0;
+    private boolean closed = false;
+
+    public MinioWriterInputStream(MinioWriter writer, Configuration conf, long bufferSize, FileSystem.Statistics statistics) {
+        this.writer = writer;
+        this.conf = conf;
+        this.bufferSize = bufferSize;
+        this.statistics = statistics;
+        logger.debug("file {} opened through its writer", writer.getPath());
+    }
+
+    @Override
+    public synchronized void seek(long pos) throws IOException {
+        if (pos < 0) {
+            throw new EOFException("negative seek position " + pos);
+        }
+        synchronized (writer) {
+            if (!writer.isCompleted() && pos > writer.getWritten()) {
+                throw new EOFException(String.format("cannot seek to %d after the written data of %s", pos, writer.getPath()));
+            }
+        }
+        position = pos;
+    }
+
+    @Override
+    public synchronized long getPos() throws IOException {
+        return position;
+    }
+
+    @Override
+    public boolean seekToNewSource(long targetPos) throws IOException {
+        return false;
+    }
+
+    @Override
+    public synchronized int read() throws IOException {
+        if (read(oneByte, 0, 1) < 0) {
+            return -1;
+        }
+        return oneByte[0] & 0xff;
+    }
+
+    @Override
+    public synchronized int read(byte[] data, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("stream is closed");
+        }
+        if (off < 0 || len < 0 || off + len > data.length) {
+            throw new IndexOutOfBoundsException("parameters are incorrect");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (completed == null) {
+            int readed = writer.readWritten(position, data, off, len);
+            if (readed != MinioWriter.COMPLETED) {
+                if (readed > 0) {
+                    position += readed;
+                    statistics.incrementBytesRead(readed);
+                    statistics.incrementReadOps(1);
+                }
+                return readed;
+            }
+            // the writer completed the object after the previous read
+            completed = new MinioInputStream(writer.getPath(), conf, bufferSize, statistics);
+            logger.debug("file {} is read from the completed object", writer.getPath());
+        }
+        completed.seek(position);
+        int readed = completed.read(data, off, len);
+        if (readed > 0) {
+            position += readed;
+        }
+        return readed;
+    }
+
+    @Override
+    public synchronized int available() throws IOException {
+        if (completed != null) {
+            return completed.available();
+        }
+        synchronized (writer) {
+            return writer.isCompleted() ? 0 : (int) Math.min(Integer.MAX_VALUE, Math.max(0, writer.getWritten() - position));
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (completed != null) {
+            completed.close();
+        }
+    }
+
+}
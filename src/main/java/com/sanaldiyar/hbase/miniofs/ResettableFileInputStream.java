@@ -0,0 +1,55 @@
+/*
+Copyright 2020 Kazım SARIKAYA
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+ */
+package com.sanaldiyar.hbase.miniofs;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+/**
+ * File stream which supports mark/reset without buffering, so a failed part
+ * upload can be retried from the beginning of the part.
+ */
+class ResettableFileInputStream extends FileInputStream {
+
+    private long mark = 0;
+
+    public ResettableFileInputStream(File file) throws FileNotFoundException {
+        super(file);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+        try {
+            mark = getChannel().position();
+        } catch (IOException ex) {
+            throw new IllegalStateException("cannot mark file stream", ex);
+        }
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        getChannel().position(mark);
+    }
+
+}
@@ -0,0 +1,121 @@
+/*
+Copyright 2020 Kazım SARIKAYA
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+ */
+package com.sanaldiyar.hbase.miniofs;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+@DisplayName("Minio Block Prefetcher Tests")
+public class MinioBlockPrefetcherTest extends BaseTestClass {
+
+    private static byte[] block(String magic, int bodySize, long prevOffset, Random random) {
+        ByteBuffer block = ByteBuffer.allocate(MinioBlockPrefetcher.HEADER_SIZE + bodySize);
+        block.put(magic.getBytes(StandardCharsets.US_ASCII));
+        block.putInt(bodySize);
+        block.putInt(bodySize);
+        block.putLong(prevOffset);
+        block.put((byte) 1);
+        block.putInt(16 << 10);
+        block.putInt(MinioBlockPrefetcher.HEADER_SIZE + bodySize - 4);
+        byte[] body = new byte[bodySize];
+        random.nextBytes(body);
+        block.put(body);
+        return block.array();
+    }
+
+    private static byte[] createHFile(int blocks, Random random) {
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        long prev = -1;
+        for (int i = 0; i < blocks; i++) {
+            long offset = file.size();
+            file.writeBytes(block(i % 5 == 4 ? "IDXLEAF2" : "DATABLK*", 6000 + random.nextInt(30000), prev, random));
+            prev = offset;
+        }
+        file.writeBytes(block("IDXROOT2", 2000, prev, random));
+        file.writeBytes(block("TRABLK\"$", 4000, -1, random));
+        return file.toByteArray();
+    }
+
+    @Test
+    @DisplayName("Block headers are parsed")
+    public void testParseBlockSize() {
+        byte[] data = block("DATABLK*", 100, -1, new Random(3));
+        assert MinioBlockPrefetcher.parseBlockSize(data, 0) == data.length;
+        assert MinioBlockPrefetcher.parseBlockSize(data, 1) == -1;
+        assert MinioBlockPrefetcher.parseBlockSize(block("TRABLK\"$", 100, -1, new Random(3)), 0) == -1;
+        assert MinioBlockPrefetcher.parseBlockSize(Arrays.copyOf(data, 20), 0) == -1;
+    }
+
+    @Test
+    @DisplayName("Sequential reads are served from the prefetched blocks")
+    public void testSequentialRead() throws Exception {
+        Random random = new Random(4);
+        byte[] data = createHFile(40, random);
+        getServer().putObject("test", "bptest/hfile", data);
+        Path path = new Path(getRootPath(), "bptest/hfile");
+        Configuration conf = new Configuration(getConf());
+        conf.setBoolean(MinioFileSystem.MINIO_BLOCK_PREFETCH_ENABLED, true);
+
+        for (int bufferSize : new int[]{8 << 10, 64 << 10, 256 << 10}) {
+            MinioInputStream mis = new MinioInputStream(path, conf, bufferSize, new FileSystem.Statistics("minio"), false);
+            byte[] readed = new byte[data.length];
+            int pos = 0;
+            while (pos < readed.length) {
+                int r = mis.read(readed, pos, Math.min(4096, readed.length - pos));
+                assert r > 0;
+                pos += r;
+            }
+            assert Arrays.equals(data, readed);
+            MinioStreamStatistics stats = mis.getStreamStatistics();
+            assert stats.getCounter(MinioStreamStatistics.BLOCK_PREFETCH_HITS) > 0;
+            assert stats.getCounter(MinioStreamStatistics.BLOCK_PREFETCH_GETS) >= 10;
+            // the blocks after the scanned section are not prefetched
+            assert stats.getCounter(MinioStreamStatistics.BYTES_FETCHED) <= data.length + bufferSize;
+            mis.close();
+        }
+    }
+
+    @Test
+    @DisplayName("Random positional reads do not prefetch")
+    public void testRandomRead() throws Exception {
+        Random random = new Random(5);
+        byte[] data = createHFile(20, random);
+        getServer().putObject("test", "bptest/hfile", data);
+        Path path = new Path(getRootPath(), "bptest/hfile");
+        Configuration conf = new Configuration(getConf());
+        conf.setBoolean(MinioFileSystem.MINIO_BLOCK_PREFETCH_ENABLED, true);
+
+        MinioInputStream mis = new MinioInputStream(path, conf, 64 << 10, new FileSystem.Statistics("minio"), false);
+        byte[] readed = new byte[4096];
+        for (int i = 0; i < 20; i++) {
+            long offset = random.nextInt(data.length - readed.length);
+            mis.readFully(offset, readed);
+            assert Arrays.equals(readed, Arrays.copyOfRange(data, (int) offset, (int) offset + readed.length));
+        }
+        assert mis.getStreamStatistics().getCounter(MinioStreamStatistics.BLOCK_PREFETCH_GETS) == 0;
+        mis.close();
+    }
+
+}
@@ -0,0 +1,71 @@
+/*
+Copyright 2020 Kazım SARIKAYA
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+ */
+package com.sanaldiyar.hbase.miniofs;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+@DisplayName("Minio Buffer Pool Tests")
+public class MinioBufferPoolTest {
+
+    private MinioBufferPool createPool(boolean enabled, long maxSize) {
+        Configuration conf = new Configuration(false);
+        conf.setBoolean(MinioFileSystem.MINIO_BUFFER_POOL_ENABLED, enabled);
+        conf.setLong(MinioFileSystem.MINIO_BUFFER_POOL_MAX_SIZE, maxSize);
+        return new MinioBufferPool(conf);
+    }
+
+    @Test
+    @DisplayName("Buffers are rounded to size classes and reused after release")
+    public void testReuse() {
+        MinioBufferPool pool = createPool(true, 1 << 20);
+        byte[] buffer = pool.borrow(5000);
+        assert buffer.length == 8192;
+        assert pool.fits(buffer, 6000);
+        assert !pool.fits(buffer, 4096);
+        assert pool.borrow(100).length == 4096;
+
+        pool.release(buffer);
+        assert pool.getPooledBytes() == 8192;
+        assert pool.borrow(8192) == buffer;
+        assert pool.getPooledBytes() == 0;
+
+        pool.release(new byte[1000]);
+        pool.release(new byte[5000]);
+        assert pool.getPooledBytes() == 0;
+    }
+
+    @Test
+    @DisplayName("Idle buffers over the limit and disabled pools are not kept")
+    public void testLimits() {
+        MinioBufferPool pool = createPool(true, 16384);
+        pool.release(pool.borrow(8192));
+        pool.release(pool.borrow(16384));
+        assert pool.getPooledBytes() == 8192;
+        pool.release(pool.borrow(8192 - 1));
+        assert pool.getPooledBytes() == 8192;
+
+        pool = createPool(false, 1 << 20);
+        byte[] buffer = pool.borrow(5000);
+        assert buffer.length == 5000;
+        assert pool.fits(buffer, 5000);
+        pool.release(buffer);
+        assert pool.getPooledBytes() == 0;
+    }
+
+}
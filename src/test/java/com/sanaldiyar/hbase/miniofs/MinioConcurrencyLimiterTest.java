@@ -0,0 +1,112 @@
+/*
+Copyright 2020 Kazım SARIKAYA
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+ */
+package com.sanaldiyar.hbase.miniofs;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.conf.Configuration;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+@DisplayName("Minio Concurrency Limiter Tests")
+public class MinioConcurrencyLimiterTest {
+
+    private MinioConcurrencyLimiter createLimiter(int initial) {
+        Configuration conf = new Configuration(false);
+        conf.setInt(MinioFileSystem.MINIO_LIMITER_INITIAL_LIMIT, initial);
+        conf.setInt(MinioFileSystem.MINIO_LIMITER_MIN_LIMIT, 1);
+        conf.setInt(MinioFileSystem.MINIO_LIMITER_MAX_LIMIT, 16);
+        conf.setDouble(MinioFileSystem.MINIO_LIMITER_BACKOFF_RATIO, 0.5);
+        return new MinioConcurrencyLimiter(conf);
+    }
+
+    @Test
+    @DisplayName("Throttling cuts the limit, healthy requests grow it")
+    public void testAimd() throws InterruptedIOException {
+        MinioConcurrencyLimiter limiter = createLimiter(8);
+        assert limiter.getLimit(MinioRequestClass.GET) == 8;
+
+        limiter.acquire(MinioRequestClass.GET);
+        limiter.release(MinioRequestClass.GET, 1000, true);
+        assert limiter.getLimit(MinioRequestClass.GET) == 4;
+        assert limiter.getLimit(MinioRequestClass.PUT) == 8;
+
+        for (int i = 0; i < 200; i++) {
+            for (int j = 0; j < 4; j++) {
+                limiter.acquire(MinioRequestClass.GET);
+            }
+            for (int j = 0; j < 4; j++) {
+                limiter.release(MinioRequestClass.GET, 1000, false);
+            }
+        }
+        assert limiter.getLimit(MinioRequestClass.GET) > 4;
+        assert limiter.getLimit(MinioRequestClass.GET) <= 16;
+        assert limiter.getInFlight(MinioRequestClass.GET) == 0;
+    }
+
+    @Test
+    @DisplayName("Large transfers are not taken for congestion")
+    public void testLatencyPerByte() throws InterruptedIOException {
+        MinioConcurrencyLimiter limiter = createLimiter(8);
+        for (int i = 0; i < 100; i++) {
+            limiter.acquire(MinioRequestClass.PUT);
+            limiter.release(MinioRequestClass.PUT, 1_000_000, 64 * 1024, false);
+        }
+        assert limiter.getLimit(MinioRequestClass.PUT) == 8;
+
+        // 64MB in 64ms is as fast per byte as the small requests
+        for (int i = 0; i < 10; i++) {
+            limiter.acquire(MinioRequestClass.PUT);
+            limiter.release(MinioRequestClass.PUT, 64_000_000, 64 * 1024 * 1024, false);
+        }
+        assert limiter.getLimit(MinioRequestClass.PUT) == 8;
+
+        for (int i = 0; i < 10; i++) {
+            limiter.acquire(MinioRequestClass.PUT);
+            limiter.release(MinioRequestClass.PUT, 64_000_000, 64 * 1024, false);
+        }
+        assert limiter.getLimit(MinioRequestClass.PUT) < 8;
+    }
+
+    @Test
+    @DisplayName("Requests over the limit wait in the queue")
+    public void testQueueing() throws Exception {
+        MinioConcurrencyLimiter limiter = createLimiter(1);
+        limiter.acquire(MinioRequestClass.HEAD);
+
+        CountDownLatch acquired = new CountDownLatch(1);
+        Thread waiter = new Thread(() -> {
+            try {
+                limiter.acquire(MinioRequestClass.HEAD);
+                acquired.countDown();
+                limiter.release(MinioRequestClass.HEAD, 1000, false);
+            } catch (InterruptedIOException ex) {
+                assert false;
+            }
+        });
+        waiter.start();
+
+        assert !acquired.await(200, TimeUnit.MILLISECONDS);
+        assert limiter.getQueueDepth(MinioRequestClass.HEAD) == 1;
+        limiter.release(MinioRequestClass.HEAD, 1000, false);
+        assert acquired.await(5, TimeUnit.SECONDS);
+        waiter.join();
+        assert limiter.getQueueDepth(MinioRequestClass.HEAD) == 0;
+    }
+
+}
@@ -0,0 +1,107 @@
+/*
+Copyright 2020 Kazım SARIKAYA
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+ */
+package com.sanaldiyar.hbase.miniofs;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import org.apache.hadoop.conf.Configuration;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+@DisplayName("Minio Endpoint Balancer Tests")
+public class MinioEndpointBalancerTest {
+
+    private MinioEndpointBalancer createBalancer() {
+        Configuration conf = new Configuration(false);
+        conf.setInt(MinioFileSystem.MINIO_ENDPOINT_EJECT_FAILURES, 2);
+        conf.setLong(MinioFileSystem.MINIO_ENDPOINT_PROBE_INTERVAL, 60000);
+        return new MinioEndpointBalancer(conf, Arrays.asList("http://node1:9000", "http://node2:9000", "http://node3:9000"), "test", "minioadmin", "minioadmin");
+    }
+
+    @Test
+    @DisplayName("Requests are spread over endpoints")
+    public void testLeastOutstanding() {
+        MinioEndpointBalancer balancer = createBalancer();
+        List<MinioEndpointBalancer.Endpoint> acquired = new LinkedList<>();
+        for (int i = 0; i < 30; i++) {
+            acquired.add(balancer.acquire());
+        }
+        for (MinioEndpointBalancer.Endpoint ep : balancer.getEndpoints()) {
+            assert ep.getOutstanding() >= 5;
+        }
+        for (MinioEndpointBalancer.Endpoint ep : acquired) {
+            balancer.release(ep, 1000, false, false);
+        }
+        for (MinioEndpointBalancer.Endpoint ep : balancer.getEndpoints()) {
+            assert ep.getOutstanding() == 0;
+        }
+        balancer.close();
+    }
+
+    @Test
+    @DisplayName("Failing endpoints are ejected")
+    public void testEjection() {
+        MinioEndpointBalancer balancer = createBalancer();
+        MinioEndpointBalancer.Endpoint bad = balancer.acquire();
+        balancer.release(bad, 1000, true, false);
+        assert bad.isHealthy();
+        while (bad.isHealthy()) {
+            MinioEndpointBalancer.Endpoint ep = balancer.acquire();
+            balancer.release(ep, 1000, ep == bad, false);
+        }
+        for (int i = 0; i < 20; i++) {
+            MinioEndpointBalancer.Endpoint ep = balancer.acquire();
+            assert ep != bad;
+            balancer.release(ep, 1000, false, false);
+        }
+        balancer.close();
+    }
+
+    @Test
+    @DisplayName("Throttled endpoints are not ejected")
+    public void testThrottledNotEjected() {
+        MinioEndpointBalancer balancer = createBalancer();
+        MinioEndpointBalancer.Endpoint busy = balancer.acquire();
+        balancer.release(busy, 1000, true, true);
+        for (int i = 0; i < 100; i++) {
+            MinioEndpointBalancer.Endpoint ep = balancer.acquire();
+            // a 503 slow down is retryable and throttled
+            balancer.release(ep, 1000, ep == busy, ep == busy);
+        }
+        assert busy.isHealthy();
+        for (MinioEndpointBalancer.Endpoint ep : balancer.getEndpoints()) {
+            assert ep.isHealthy();
+        }
+        balancer.close();
+    }
+
+    @Test
+    @DisplayName("Hedged requests avoid the excluded endpoint")
+    public void testExclude() {
+        MinioEndpointBalancer balancer = createBalancer();
+        MinioEndpointBalancer.Endpoint primary = balancer.acquire();
+        for (int i = 0; i < 20; i++) {
+            MinioEndpointBalancer.Endpoint ep = balancer.acquire(primary.getClient());
+            assert ep != primary;
+            balancer.release(ep, 1000, false, false);
+        }
+        balancer.release(primary, 1000, false, false);
+        balancer.close();
+    }
+
+}
@@ -0,0 +1,56 @@
+/*
+Copyright 2020 Kazım SARIKAYA
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+ */
+package com.sanaldiyar.hbase.miniofs;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+@DisplayName("Minio File System Metrics Tests")
+public class MinioFileSystemMetricsTest {
+
+    @Test
+    @DisplayName("Path classes follow the hbase layout")
+    public void testPathClass() {
+        assert MinioPathClass.of("hbase/WALs/rs1,16020,1/rs1.1") == MinioPathClass.WAL;
+        assert MinioPathClass.of("hbase/oldWALs/rs1.1") == MinioPathClass.ARCHIVE;
+        assert MinioPathClass.of("hbase/archive/data/default/t1/r1/cf/f1") == MinioPathClass.ARCHIVE;
+        assert MinioPathClass.of("hbase/MasterData/WALs/m1/m1.1") == MinioPathClass.MASTERDATA;
+        assert MinioPathClass.of("hbase/data/default/t1/r1/.tmp/cf/f1") == MinioPathClass.TMP;
+        assert MinioPathClass.of(".tmp-parts/abc/part-1") == MinioPathClass.TMP;
+        assert MinioPathClass.of("hbase/data/default/t1/r1/cf/f1") == MinioPathClass.DATA;
+        assert MinioPathClass.of("hbase/hbase.id") == MinioPathClass.OTHER;
+    }
+
+    @Test
+    @DisplayName("Requests are counted per operation and path class")
+    public void testRecordRequest() {
+        MinioFileSystemMetrics metrics = MinioFileSystemMetrics.getInstance();
+        long gets = metrics.getRequests(MinioOperation.GET);
+        long walGets = metrics.getRequests(MinioPathClass.WAL, MinioOperation.GET);
+        long bytes = metrics.getBytes(MinioOperation.GET);
+        long errors = metrics.getErrors(MinioOperation.GET);
+
+        metrics.recordRequest(MinioOperation.GET, MinioPathClass.WAL, 1_000_000, 4096, false);
+        metrics.recordRequest(MinioOperation.GET, MinioPathClass.DATA, 2_000_000, 4096, true);
+
+        assert metrics.getRequests(MinioOperation.GET) == gets + 2;
+        assert metrics.getRequests(MinioPathClass.WAL, MinioOperation.GET) == walGets + 1;
+        assert metrics.getBytes(MinioOperation.GET) == bytes + 4096;
+        assert metrics.getErrors(MinioOperation.GET) == errors + 1;
+    }
+
+}
@@ -19,6 +19,9 @@ package com.sanaldiyar.hbase.miniofs;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.Random;
+import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.Path;
@@ -213,4 +216,41 @@ public class MinioFileSystemTest extends BaseTestClass {
         }
     }
 
+    @Test
+    @DisplayName("Warmup keeps small hfiles whole and the tail of large ones")
+    public void testWarmup() throws Exception {
+        String region = "mfstest/data/default/t1/0123456789abcdef0123456789abcdef";
+        getFileSystem().mkdirs(new Path(getRootPath(), region + "/cf"));
+        byte[] small = new byte[100 << 10];
+        byte[] large = new byte[300 << 10];
+        new Random(5).nextBytes(small);
+        new Random(6).nextBytes(large);
+        getServer().putObject("test", region + "/cf/aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa", small);
+        getServer().putObject("test", region + "/cf/bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb", large);
+        getServer().putObject("test", region + "/.regioninfo", new byte[64]);
+
+        MinioFileSystem fs = (MinioFileSystem) getFileSystem();
+        fs.getConf().setLong(MinioFileSystem.MINIO_WARMUP_MAX_FILE_SIZE, 200 << 10);
+        try {
+            assert fs.warmup(new Path(getRootPath(), "mfstest/data/default/t1")) == 2;
+        } finally {
+            fs.getConf().unset(MinioFileSystem.MINIO_WARMUP_MAX_FILE_SIZE);
+        }
+
+        getServer().resetRequestCounts();
+        byte[] readed = new byte[small.length];
+        try (FSDataInputStream in = fs.open(new Path(getRootPath(), region + "/cf/aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa"))) {
+            in.readFully(0, readed);
+        }
+        assert Arrays.equals(small, readed);
+        readed = new byte[4096];
+        try (FSDataInputStream in = fs.open(new Path(getRootPath(), region + "/cf/bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb"))) {
+            in.readFully(large.length - readed.length, readed);
+        }
+        assert Arrays.equals(Arrays.copyOfRange(large, large.length - readed.length, large.length), readed);
+        assert getServer().getRequestCount(MinioStandInServer.Operation.GET_OBJECT) == 0;
+
+        assert fs.warmup(new Path(getRootPath(), region)) == 0;
+    }
+
 }
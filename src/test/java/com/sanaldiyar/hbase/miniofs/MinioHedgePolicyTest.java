@@ -0,0 +1,70 @@
+/*
+Copyright 2020 Kazım SARIKAYA
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+ */
+package com.sanaldiyar.hbase.miniofs;
+
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.conf.Configuration;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+@DisplayName("Minio Hedge Policy Tests")
+public class MinioHedgePolicyTest {
+
+    @Test
+    @DisplayName("Latency tracker percentiles")
+    public void testLatencyTracker() {
+        MinioLatencyTracker tracker = new MinioLatencyTracker(100);
+        assert tracker.getPercentile(95) == -1;
+        for (int i = 1; i <= 100; i++) {
+            tracker.record(i);
+        }
+        assert tracker.getPercentile(50) == 50;
+        assert tracker.getPercentile(95) == 95;
+        assert tracker.getPercentile(100) == 100;
+        for (int i = 0; i < 100; i++) {
+            tracker.record(1000);
+        }
+        assert tracker.getPercentile(50) == 1000;
+    }
+
+    @Test
+    @DisplayName("Hedging waits for samples and respects the budget")
+    public void testHedgeBudget() {
+        Configuration conf = new Configuration(false);
+        conf.setBoolean(MinioFileSystem.MINIO_HEDGE_ENABLED, true);
+        conf.setLong(MinioFileSystem.MINIO_HEDGE_MIN_SAMPLES, 10);
+        conf.setDouble(MinioFileSystem.MINIO_HEDGE_BUDGET_PERCENT, 10);
+        conf.setLong(MinioFileSystem.MINIO_HEDGE_MIN_DELAY, 1);
+        MinioHedgePolicy policy = new MinioHedgePolicy(conf);
+
+        assert policy.getHedgeDelay() == -1;
+        for (int i = 0; i < 10; i++) {
+            policy.recordFirstByte(TimeUnit.MILLISECONDS.toNanos(20));
+        }
+        assert policy.getHedgeDelay() == TimeUnit.MILLISECONDS.toNanos(20);
+
+        int hedges = 0;
+        for (int i = 0; i < 100; i++) {
+            policy.onRequest();
+            if (policy.tryAcquireHedge()) {
+                hedges++;
+            }
+        }
+        assert hedges > 0 && hedges <= 10;
+    }
+
+}
@@ -0,0 +1,180 @@
+/*
+Copyright 2020 Kazım SARIKAYA
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+ */
+package com.sanaldiyar.hbase.miniofs;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.apache.hadoop.conf.Configuration;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+@DisplayName("Minio IO Scheduler Tests")
+public class MinioIOSchedulerTest {
+
+    @Test
+    @DisplayName("Class is inferred from the key or set by the caller")
+    public void testClassify() {
+        assert MinioIOScheduler.classify(MinioOperation.GET, "hbase/data/default/t1/abc/cf/f1") == MinioIOClass.INTERACTIVE;
+        assert MinioIOScheduler.classify(MinioOperation.PUT, "hbase/WALs/rs1/rs1.123") == MinioIOClass.WRITE;
+        assert MinioIOScheduler.classify(MinioOperation.PUT, "hbase/data/default/t1/abc/.tmp/cf/f1") == MinioIOClass.COMPACTION;
+        assert MinioIOScheduler.classify(MinioOperation.COPY, "hbase/archive/data/default/t1/abc/cf/f1") == MinioIOClass.HOUSEKEEPING;
+        assert MinioIOScheduler.classify(MinioOperation.REMOVE, "hbase/data/default/t1/abc/cf/f1") == MinioIOClass.HOUSEKEEPING;
+        MinioIOScheduler.IOClassScope scope = MinioIOScheduler.withIOClass(MinioIOClass.WRITE);
+        try {
+            assert MinioIOScheduler.classify(MinioOperation.PUT, ".tmp-parts/abc/part-1") == MinioIOClass.WRITE;
+        } finally {
+            scope.close();
+        }
+        assert MinioIOScheduler.classify(MinioOperation.PUT, ".tmp-parts/abc/part-1") == MinioIOClass.COMPACTION;
+    }
+
+    @Test
+    @DisplayName("Free slots are shared by weight")
+    public void testWeightedSharing() throws Exception {
+        Configuration conf = new Configuration(false);
+        conf.setInt(MinioFileSystem.MINIO_SCHEDULER_MAX_CONCURRENCY, 1);
+        MinioIOScheduler scheduler = new MinioIOScheduler(conf);
+        scheduler.acquire(MinioIOClass.INTERACTIVE);
+
+        List<MinioIOClass> order = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            for (MinioIOClass cls : new MinioIOClass[]{MinioIOClass.HOUSEKEEPING, MinioIOClass.INTERACTIVE}) {
+                Thread t = new Thread(() -> {
+                    try {
+                        scheduler.acquire(cls);
+                        order.add(cls);
+                        scheduler.release(cls);
+                    } catch (InterruptedIOException ex) {
+                        assert false;
+                    }
+                });
+                t.start();
+                threads.add(t);
+            }
+        }
+        while (scheduler.getQueueDepth(MinioIOClass.INTERACTIVE) + scheduler.getQueueDepth(MinioIOClass.HOUSEKEEPING) < 8) {
+            Thread.sleep(10);
+        }
+        scheduler.release(MinioIOClass.INTERACTIVE);
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        assert order.size() == 8;
+        assert order.subList(0, 5).stream().filter(cls -> cls == MinioIOClass.INTERACTIVE).count() == 4;
+        assert scheduler.getInFlight(MinioIOClass.INTERACTIVE) == 0;
+        assert scheduler.getInFlight(MinioIOClass.HOUSEKEEPING) == 0;
+    }
+
+    @Test
+    @DisplayName("Limiter slots are handed out in scheduler order")
+    public void testLimiterAdmissionOrder() throws Exception {
+        Configuration conf = new Configuration(false);
+        conf.setInt(MinioFileSystem.MINIO_LIMITER_INITIAL_LIMIT, 1);
+        conf.setInt(MinioFileSystem.MINIO_LIMITER_MIN_LIMIT, 1);
+        conf.setInt(MinioFileSystem.MINIO_LIMITER_MAX_LIMIT, 1);
+        MinioConcurrencyLimiter limiter = new MinioConcurrencyLimiter(conf);
+        MinioIOScheduler scheduler = new MinioIOScheduler(conf);
+        scheduler.acquire(MinioIOClass.HOUSEKEEPING, () -> limiter.tryAcquire(MinioRequestClass.GET));
+        assert limiter.getInFlight(MinioRequestClass.GET) == 1;
+
+        List<MinioIOClass> order = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        // the compaction requests queue first, the interactive ones must still overtake them
+        for (MinioIOClass cls : new MinioIOClass[]{MinioIOClass.COMPACTION, MinioIOClass.INTERACTIVE}) {
+            for (int i = 0; i < 4; i++) {
+                Thread t = new Thread(() -> {
+                    try {
+                        scheduler.acquire(cls, () -> limiter.tryAcquire(MinioRequestClass.GET));
+                        order.add(cls);
+                        limiter.release(MinioRequestClass.GET, 1000, false);
+                        scheduler.release(cls);
+                    } catch (InterruptedIOException ex) {
+                        assert false;
+                    }
+                });
+                t.start();
+                threads.add(t);
+            }
+            while (scheduler.getQueueDepth(cls) < 4) {
+                Thread.sleep(10);
+            }
+        }
+        assert limiter.getInFlight(MinioRequestClass.GET) == 1;
+        limiter.release(MinioRequestClass.GET, 1000, false);
+        scheduler.release(MinioIOClass.HOUSEKEEPING);
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        assert order.size() == 8;
+        assert order.get(0) == MinioIOClass.INTERACTIVE;
+        assert order.subList(0, 5).stream().filter(cls -> cls == MinioIOClass.INTERACTIVE).count() == 4;
+        assert limiter.getInFlight(MinioRequestClass.GET) == 0;
+        assert scheduler.getInFlight(MinioIOClass.COMPACTION) == 0;
+        assert scheduler.getInFlight(MinioIOClass.INTERACTIVE) == 0;
+    }
+
+    @Test
+    @DisplayName("A slot is taken without waiting only when nothing is queued")
+    public void testTryAcquire() throws Exception {
+        Configuration conf = new Configuration(false);
+        conf.setInt(MinioFileSystem.MINIO_SCHEDULER_MAX_CONCURRENCY, 2);
+        conf.setInt(MinioFileSystem.MINIO_LIMITER_INITIAL_LIMIT, 1);
+        conf.setInt(MinioFileSystem.MINIO_LIMITER_MIN_LIMIT, 1);
+        conf.setInt(MinioFileSystem.MINIO_LIMITER_MAX_LIMIT, 1);
+        MinioConcurrencyLimiter limiter = new MinioConcurrencyLimiter(conf);
+        MinioIOScheduler scheduler = new MinioIOScheduler(conf);
+        assert scheduler.tryAcquire(MinioIOClass.INTERACTIVE, () -> limiter.tryAcquire(MinioRequestClass.GET));
+        assert !scheduler.tryAcquire(MinioIOClass.INTERACTIVE, () -> limiter.tryAcquire(MinioRequestClass.GET));
+        assert scheduler.getInFlight(MinioIOClass.INTERACTIVE) == 1;
+
+        Thread t = new Thread(() -> {
+            try {
+                scheduler.acquire(MinioIOClass.COMPACTION, () -> limiter.tryAcquire(MinioRequestClass.PUT));
+            } catch (InterruptedIOException ex) {
+                assert false;
+            }
+        });
+        t.start();
+        t.join();
+        assert scheduler.getInFlight(MinioIOClass.COMPACTION) == 1;
+        assert !scheduler.tryAcquire(MinioIOClass.INTERACTIVE, () -> true);
+        scheduler.release(MinioIOClass.COMPACTION);
+        limiter.release(MinioRequestClass.GET, 1000, false);
+        scheduler.release(MinioIOClass.INTERACTIVE);
+        assert scheduler.tryAcquire(MinioIOClass.INTERACTIVE, () -> limiter.tryAcquire(MinioRequestClass.GET));
+    }
+
+    @Test
+    @DisplayName("Bandwidth cap delays the class")
+    public void testBandwidthCap() throws InterruptedIOException {
+        Configuration conf = new Configuration(false);
+        conf.setLong(String.format(MinioFileSystem.MINIO_SCHEDULER_CLASS_BANDWIDTH, MinioIOClass.COMPACTION.getName()), 1024 * 1024);
+        MinioIOScheduler scheduler = new MinioIOScheduler(conf);
+        long begin = System.nanoTime();
+        scheduler.throttle(MinioIOClass.COMPACTION, 1024 * 1024);
+        scheduler.throttle(MinioIOClass.INTERACTIVE, 16 * 1024 * 1024);
+        assert System.nanoTime() - begin < 200_000_000L;
+        scheduler.throttle(MinioIOClass.COMPACTION, 256 * 1024);
+        assert System.nanoTime() - begin >= 200_000_000L;
+    }
+
+}
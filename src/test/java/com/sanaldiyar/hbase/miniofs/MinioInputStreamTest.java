@@ -19,10 +19,20 @@ package com.sanaldiyar.hbase.miniofs;
 import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
+import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -79,4 +89,193 @@ public class MinioInputStreamTest extends BaseTestClass {
         }
 
     }
+
+    @Test
+    @DisplayName("Vectored read merges close ranges")
+    public void testReadVectored() throws Exception {
+        FileSystem.Statistics statistics = new FileSystem.Statistics("minio");
+        byte[] data = new byte[1 << 20];
+        new Random(1).nextBytes(data);
+        getServer().putObject("test", "mistest/vectored", data);
+        Path path = new Path(getRootPath(), "mistest/vectored");
+
+        MinioInputStream mis = new MinioInputStream(path, getConf(), 4096, statistics);
+        getServer().resetRequestCounts();
+        List<MinioFileRange> ranges = Arrays.asList(
+                MinioFileRange.createFileRange(900_000, 1000),
+                MinioFileRange.createFileRange(100, 200),
+                MinioFileRange.createFileRange(1000, 500),
+                MinioFileRange.createFileRange(data.length - 10, 20));
+        mis.readVectored(ranges, ByteBuffer::allocate);
+        for (int i = 0; i < 3; i++) {
+            MinioFileRange range = ranges.get(i);
+            ByteBuffer buffer = range.getData().get(10, TimeUnit.SECONDS);
+            assert buffer.remaining() == range.getLength();
+            for (int j = 0; j < range.getLength(); j++) {
+                assert buffer.get(j) == data[(int) range.getOffset() + j];
+            }
+        }
+        try {
+            ranges.get(3).getData().get(10, TimeUnit.SECONDS);
+            assert false;
+        } catch (ExecutionException ex) {
+            assert ex.getCause() instanceof EOFException;
+        }
+        assert getServer().getRequestCount(MinioStandInServer.Operation.GET_OBJECT) == 2;
+        assert mis.getPos() == 0;
+
+        try {
+            mis.readVectored(Arrays.asList(MinioFileRange.createFileRange(0, 100), MinioFileRange.createFileRange(50, 100)), ByteBuffer::allocate);
+            assert false;
+        } catch (IllegalArgumentException ex) {
+            logger.debug("overlapping ranges rejected", ex);
+        }
+        try {
+            MinioFileRange.createFileRange(-1, 10);
+            assert false;
+        } catch (IllegalArgumentException ex) {
+            logger.debug("negative offset rejected", ex);
+        }
+        mis.close();
+    }
+
+    @Test
+    @DisplayName("Vectored read of a replicated file stays local and invalid ranges are rejected")
+    public void testReadVectoredReplica() throws Exception {
+        FileSystem.Statistics statistics = new FileSystem.Statistics("minio");
+        Configuration conf = new Configuration(getConf());
+        conf.setBoolean(MinioFileSystem.MINIO_CACHE_ON_WRITE_ENABLED, true);
+        Path path = new Path(getRootPath(), "mistest/vectored-replica");
+        byte[] data = new byte[64 << 10];
+        new Random(11).nextBytes(data);
+        try (MinioOutputStream mos = new MinioOutputStream(path, conf, statistics)) {
+            mos.write(data);
+        }
+
+        getServer().resetRequestCounts();
+        MinioInputStream mis = new MinioInputStream(path, getConf(), 4096, statistics);
+        List<MinioFileRange> ranges = Arrays.asList(
+                MinioFileRange.createFileRange(30_000, 100),
+                MinioFileRange.createFileRange(10, 20));
+        mis.readVectored(ranges, ByteBuffer::allocate);
+        for (MinioFileRange range : ranges) {
+            ByteBuffer buffer = range.getData().get(10, TimeUnit.SECONDS);
+            assert buffer.remaining() == range.getLength();
+            for (int j = 0; j < range.getLength(); j++) {
+                assert buffer.get(j) == data[(int) range.getOffset() + j];
+            }
+        }
+        assert getServer().getRequestCount(MinioStandInServer.Operation.GET_OBJECT) == 0;
+        mis.close();
+    }
+
+    @Test
+    @DisplayName("Trailer and load-on-open reads of an hfile are served from the prefetched tail")
+    public void testTailPrefetch() throws Exception {
+        FileSystem.Statistics statistics = new FileSystem.Statistics("minio");
+        byte[] data = new byte[1 << 20];
+        new Random(2).nextBytes(data);
+        String key = "data/default/t1/0123456789abcdef0123456789abcdef/cf/fedcba9876543210fedcba9876543210";
+        getServer().putObject("test", key, data);
+        Path path = new Path(getRootPath(), key);
+
+        getServer().resetRequestCounts();
+        MinioInputStream mis = new MinioInputStream(path, getConf(), 4096, statistics);
+        byte[] trailer = new byte[4096];
+        mis.readFully(data.length - trailer.length, trailer);
+        byte[] loadOnOpen = new byte[20000];
+        mis.readFully(data.length - trailer.length - loadOnOpen.length, loadOnOpen);
+        assert Arrays.equals(trailer, Arrays.copyOfRange(data, data.length - trailer.length, data.length));
+        assert Arrays.equals(loadOnOpen, Arrays.copyOfRange(data, data.length - trailer.length - loadOnOpen.length, data.length - trailer.length));
+        assert getServer().getRequestCount(MinioStandInServer.Operation.GET_OBJECT) == 1;
+        assert mis.getPos() == 0;
+        assert mis.getStreamStatistics().getCounter(MinioStreamStatistics.TAIL_PREFETCH_HITS) > 0;
+        mis.close();
+
+        getServer().resetRequestCounts();
+        mis = new MinioInputStream(path, getConf(), 4096, statistics, false);
+        mis.readFully(data.length - trailer.length, trailer);
+        assert getServer().getRequestCount(MinioStandInServer.Operation.GET_OBJECT) == 1;
+        mis.close();
+
+        getServer().putObject("test", "mistest/hinted", data);
+        getServer().resetRequestCounts();
+        try (FSDataInputStream in = getFileSystem().openFile(new Path(getRootPath(), "mistest/hinted"))
+                .opt(MinioFileSystem.MINIO_TAIL_PREFETCH, true).build().get()) {
+            in.readFully(data.length - trailer.length, trailer);
+            in.readFully(data.length - trailer.length - loadOnOpen.length, loadOnOpen);
+        }
+        assert getServer().getRequestCount(MinioStandInServer.Operation.GET_OBJECT) == 1;
+    }
+
+    @Test
+    @DisplayName("Readahead resizes the fetches and drop behind frees the consumed buffer")
+    public void testReadaheadAndDropBehind() throws Exception {
+        FileSystem.Statistics statistics = new FileSystem.Statistics("minio");
+        byte[] data = new byte[1 << 20];
+        new Random(3).nextBytes(data);
+        getServer().putObject("test", "mistest/readahead", data);
+        Path path = new Path(getRootPath(), "mistest/readahead");
+        byte[] readed = new byte[data.length];
+
+        try (FSDataInputStream in = getFileSystem().open(path)) {
+            in.setReadahead(512L << 10);
+            getServer().resetRequestCounts();
+            in.readFully(readed);
+            assert Arrays.equals(data, readed);
+            assert getServer().getRequestCount(MinioStandInServer.Operation.GET_OBJECT) == 2;
+            try {
+                in.setReadahead(-1L);
+                assert false;
+            } catch (IllegalArgumentException ex) {
+                logger.debug("negative readahead rejected", ex);
+            }
+        }
+
+        MinioInputStream mis = new MinioInputStream(path, getConf(), 4096, statistics);
+        mis.setDropBehind(true);
+        assert mis.isDropBehind();
+        byte[] chunk = new byte[4096];
+        mis.readFully(0, chunk);
+        getServer().resetRequestCounts();
+        mis.readFully(0, chunk);
+        assert getServer().getRequestCount(MinioStandInServer.Operation.GET_OBJECT) == 1;
+        assert Arrays.equals(chunk, Arrays.copyOf(data, chunk.length));
+
+        mis.setDropBehind(false);
+        mis.readFully(0, chunk);
+        getServer().resetRequestCounts();
+        mis.readFully(0, chunk);
+        assert getServer().getRequestCount(MinioStandInServer.Operation.GET_OBJECT) == 0;
+        mis.close();
+    }
+
+    @Test
+    @DisplayName("Unbuffer returns the buffer to the pool and single byte reads are unsigned")
+    public void testPooledBuffer() throws Exception {
+        FileSystem.Statistics statistics = new FileSystem.Statistics("minio");
+        byte[] data = new byte[256];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        getServer().putObject("test", "mistest/pooled", data);
+        Path path = new Path(getRootPath(), "mistest/pooled");
+        MinioBufferPool pool = MinioUtil.getInstance().getBufferPool();
+
+        MinioInputStream mis = new MinioInputStream(path, getConf(), 4096, statistics);
+        for (int i = 0; i < data.length; i++) {
+            assert mis.read() == i;
+        }
+        assert mis.read() == -1;
+        long pooled = pool.getPooledBytes();
+        mis.unbuffer();
+        assert pool.getPooledBytes() == pooled + 4096;
+
+        mis.seek(200);
+        assert mis.read() == 200;
+        assert pool.getPooledBytes() == pooled;
+        mis.close();
+        assert pool.getPooledBytes() == pooled + 4096;
+    }
+
 }
@@ -18,9 +18,15 @@ package com.sanaldiyar.hbase.miniofs;
 
 import java.io.IOException;
 import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Random;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -56,4 +62,166 @@ public class MinioOutputStreamTest extends BaseTestClass {
         }
 
     }
+
+    @Test
+    @DisplayName("A file created with an expected size is uploaded as a single part")
+    public void testExpectedSize() throws IOException {
+        Path p = new Path(getRootPath(), "mostest/expected");
+        int partsize = getConf().getInt(MinioFileSystem.MINIO_UPLOAD_PART_SIZE, 0);
+        byte[] data = new byte[2 * partsize + (1 << 20)];
+        new Random(5).nextBytes(data);
+        MinioOutputStream mos;
+        try (FSDataOutputStream out = ((MinioFileSystem) getFileSystem()).createFile(p)
+                .recursive().opt(MinioFileSystem.MINIO_UPLOAD_EXPECTED_SIZE, data.length).build()) {
+            mos = (MinioOutputStream) out.getWrappedStream();
+            out.write(data);
+        }
+        assert mos.getStreamStatistics().getCounter(MinioStreamStatistics.PARTS_UPLOADED) == 1;
+
+        byte[] readed = new byte[data.length];
+        try (FSDataInputStream in = getFileSystem().open(p)) {
+            in.readFully(readed);
+        }
+        assert Arrays.equals(data, readed);
+    }
+
+    @Test
+    @DisplayName("Files written with cache on write are read back from the local replica")
+    public void testCacheOnWrite() throws Exception {
+        FileSystem.Statistics statistics = new FileSystem.Statistics("minio");
+        Configuration conf = new Configuration(getConf());
+        conf.setBoolean(MinioFileSystem.MINIO_CACHE_ON_WRITE_ENABLED, true);
+        Path p = new Path(getRootPath(), "mostest/cached");
+        int partsize = getConf().getInt(MinioFileSystem.MINIO_UPLOAD_PART_SIZE, 0);
+        byte[] data = new byte[partsize + (1 << 20)];
+        new Random(4).nextBytes(data);
+        try (MinioOutputStream mos = new MinioOutputStream(p, conf, partsize, statistics)) {
+            mos.write(data);
+        }
+        assert getMinioUtil().getReplicaCache().contains(getMinioUtil().getPrefix(p), getMinioUtil().getMinioFileStatus(p).getEtag());
+
+        getServer().resetRequestCounts();
+        byte[] readed = new byte[data.length];
+        try (FSDataInputStream in = getFileSystem().open(p)) {
+            in.readFully(readed);
+        }
+        assert Arrays.equals(data, readed);
+        assert getServer().getRequestCount(MinioStandInServer.Operation.GET_OBJECT) == 0;
+        assert getServer().getRequestCount(MinioStandInServer.Operation.HEAD_OBJECT) == 0;
+
+        getFileSystem().delete(p, false);
+        assert !getMinioUtil().getReplicaCache().contains(getMinioUtil().getPrefix(p), null);
+    }
+
+    @Test
+    @DisplayName("A renamed file keeps its local replica")
+    public void testCacheOnWriteRename() throws Exception {
+        FileSystem.Statistics statistics = new FileSystem.Statistics("minio");
+        Configuration conf = new Configuration(getConf());
+        conf.setBoolean(MinioFileSystem.MINIO_CACHE_ON_WRITE_ENABLED, true);
+        Path tmp = new Path(getRootPath(), "mostest/region/.tmp/cf/renamed");
+        Path p = new Path(getRootPath(), "mostest/region/cf/renamed");
+        int partsize = getConf().getInt(MinioFileSystem.MINIO_UPLOAD_PART_SIZE, 0);
+        byte[] data = new byte[partsize + (1 << 20)];
+        new Random(5).nextBytes(data);
+        try (MinioOutputStream mos = new MinioOutputStream(tmp, conf, partsize, statistics)) {
+            mos.write(data);
+        }
+        assert getFileSystem().rename(tmp, p);
+        assert getMinioUtil().getReplicaCache().contains(getMinioUtil().getPrefix(p), getMinioUtil().getMinioFileStatus(p).getEtag());
+        assert !getMinioUtil().getReplicaCache().contains(getMinioUtil().getPrefix(tmp), null);
+
+        getServer().resetRequestCounts();
+        byte[] readed = new byte[data.length];
+        try (FSDataInputStream in = getFileSystem().open(p)) {
+            in.readFully(readed);
+        }
+        assert Arrays.equals(data, readed);
+        assert getServer().getRequestCount(MinioStandInServer.Operation.GET_OBJECT) == 0;
+        getFileSystem().delete(p, false);
+    }
+
+    @Test
+    @DisplayName("A file being written is read through its writer and tailed")
+    public void testReadWhileWriting() throws Exception {
+        FileSystem.Statistics statistics = new FileSystem.Statistics("minio");
+        Path p = new Path(getRootPath(), "mostest/tailed");
+        int partsize = getConf().getInt(MinioFileSystem.MINIO_UPLOAD_PART_SIZE, 0);
+        byte[] data = new byte[partsize + (2 << 20)];
+        new Random(7).nextBytes(data);
+        int written = partsize + (1 << 20);
+
+        MinioOutputStream mos = new MinioOutputStream(p, getConf(), partsize, statistics);
+        mos.write(data, 0, written);
+        try (FSDataInputStream in = getFileSystem().open(p)) {
+            byte[] readed = new byte[4096];
+            in.readFully(partsize - 2048, readed);
+            assert Arrays.equals(Arrays.copyOfRange(data, partsize - 2048, partsize + 2048), readed);
+
+            in.seek(written - 100);
+            assert in.read(readed) == 100;
+            assert in.read(readed) == -1;
+
+            mos.write(data, written, data.length - written);
+            in.readFully(readed);
+            assert Arrays.equals(Arrays.copyOfRange(data, written, written + readed.length), readed);
+
+            mos.close();
+            in.seek(0);
+            readed = new byte[data.length];
+            in.readFully(readed);
+            assert Arrays.equals(data, readed);
+            assert in.read() == -1;
+        }
+        assert MinioFileSystem.getWriters().isEmpty();
+    }
+
+    @Test
+    @DisplayName("A reader waiting for an uploaded part does not hold up the writer")
+    public void testReadUploadedPartWhileWriting() throws Exception {
+        FileSystem.Statistics statistics = new FileSystem.Statistics("minio");
+        Path p = new Path(getRootPath(), "mostest/tailedslow");
+        int partsize = getConf().getInt(MinioFileSystem.MINIO_UPLOAD_PART_SIZE, 0);
+        byte[] data = new byte[partsize + (2 << 20)];
+        new Random(11).nextBytes(data);
+        int written = partsize + (1 << 20);
+
+        MinioOutputStream mos = new MinioOutputStream(p, getConf(), partsize, statistics);
+        try {
+            mos.write(data, 0, written);
+            getServer().resetRequestCounts();
+            getServer().setLatency(MinioStandInServer.Operation.GET_OBJECT, 1000);
+            byte[] readed = new byte[4096];
+            Throwable[] failure = new Throwable[1];
+            Thread reader = new Thread(() -> {
+                try (FSDataInputStream in = getFileSystem().open(p)) {
+                    in.readFully(1024, readed);
+                } catch (Throwable ex) {
+                    failure[0] = ex;
+                }
+            });
+            reader.start();
+            long deadline = System.currentTimeMillis() + 500;
+            while (getServer().getRequestCount(MinioStandInServer.Operation.GET_OBJECT) == 0
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assert getServer().getRequestCount(MinioStandInServer.Operation.GET_OBJECT) > 0;
+
+            long start = System.nanoTime();
+            mos.write(data, written, data.length - written);
+            long elapsed = (System.nanoTime() - start) / 1000000;
+            logger.info("write took {} ms while a reader waited for a part", elapsed);
+            assert elapsed < 500;
+
+            reader.join();
+            assert failure[0] == null;
+            assert Arrays.equals(Arrays.copyOfRange(data, 1024, 1024 + readed.length), readed);
+        } finally {
+            getServer().resetFaults();
+            mos.close();
+        }
+        assert MinioFileSystem.getWriters().isEmpty();
+        getFileSystem().delete(p, false);
+    }
 }
@@ -0,0 +1,104 @@
+/*
+Copyright 2020 Kazım SARIKAYA
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+ */
+package com.sanaldiyar.hbase.miniofs;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+@DisplayName("Minio Parallel Fetcher Tests")
+public class MinioParallelFetcherTest extends BaseTestClass {
+
+    private Configuration createConf() {
+        Configuration conf = new Configuration(getConf());
+        conf.setBoolean(MinioFileSystem.MINIO_PARALLEL_FETCH_ENABLED, true);
+        conf.setInt(MinioFileSystem.MINIO_PARALLEL_FETCH_WINDOW, 2 << 20);
+        conf.setInt(MinioFileSystem.MINIO_PARALLEL_FETCH_MIN_RANGE, 256 << 10);
+        conf.setInt(MinioFileSystem.MINIO_PARALLEL_FETCH_MAX_STREAMS, 8);
+        return conf;
+    }
+
+    private byte[] readAll(MinioInputStream mis, int length) throws Exception {
+        byte[] readed = new byte[length];
+        int pos = 0;
+        while (pos < readed.length) {
+            int r = mis.read(readed, pos, Math.min(64 << 10, readed.length - pos));
+            assert r > 0;
+            pos += r;
+        }
+        return readed;
+    }
+
+    @Test
+    @DisplayName("Sequential reads fill the window with concurrent range gets")
+    public void testSequentialRead() throws Exception {
+        byte[] data = new byte[12 << 20];
+        new Random(6).nextBytes(data);
+        getServer().putObject("test", "pftest/large", data);
+        Path path = new Path(getRootPath(), "pftest/large");
+
+        MinioInputStream mis = new MinioInputStream(path, createConf(), 128 << 10, new FileSystem.Statistics("minio"), false);
+        assert Arrays.equals(data, readAll(mis, data.length));
+        MinioStreamStatistics stats = mis.getStreamStatistics();
+        assert stats.getCounter(MinioStreamStatistics.PARALLEL_FETCHES) > 0;
+        assert stats.getCounter(MinioStreamStatistics.PARALLEL_RANGES) >= 2 * stats.getCounter(MinioStreamStatistics.PARALLEL_FETCHES);
+        assert stats.getCounter(MinioStreamStatistics.BYTES_FETCHED) == data.length;
+        mis.close();
+    }
+
+    @Test
+    @DisplayName("Failed range gets are retried")
+    public void testFailedRange() throws Exception {
+        byte[] data = new byte[6 << 20];
+        new Random(7).nextBytes(data);
+        getServer().putObject("test", "pftest/large", data);
+        Path path = new Path(getRootPath(), "pftest/large");
+
+        MinioInputStream mis = new MinioInputStream(path, createConf(), 128 << 10, new FileSystem.Statistics("minio"), false);
+        byte[] head = readAll(mis, 256 << 10);
+        getServer().failNext(MinioStandInServer.Operation.GET_OBJECT, 2);
+        byte[] rest = readAll(mis, data.length - head.length);
+        assert Arrays.equals(head, Arrays.copyOf(data, head.length));
+        assert Arrays.equals(rest, Arrays.copyOfRange(data, head.length, data.length));
+        mis.close();
+    }
+
+    @Test
+    @DisplayName("Random reads use single gets")
+    public void testRandomRead() throws Exception {
+        byte[] data = new byte[4 << 20];
+        new Random(8).nextBytes(data);
+        getServer().putObject("test", "pftest/large", data);
+        Path path = new Path(getRootPath(), "pftest/large");
+
+        MinioInputStream mis = new MinioInputStream(path, createConf(), 128 << 10, new FileSystem.Statistics("minio"), false);
+        Random random = new Random(9);
+        byte[] readed = new byte[4096];
+        for (int i = 0; i < 10; i++) {
+            long offset = random.nextInt(data.length - readed.length);
+            mis.readFully(offset, readed);
+            assert Arrays.equals(readed, Arrays.copyOfRange(data, (int) offset, (int) offset + readed.length));
+        }
+        assert mis.getStreamStatistics().getCounter(MinioStreamStatistics.PARALLEL_FETCHES) == 0;
+        mis.close();
+    }
+
+}
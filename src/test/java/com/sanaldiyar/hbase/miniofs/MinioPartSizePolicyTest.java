@@ -0,0 +1,65 @@
+/*
+Copyright 2020 Kazım SARIKAYA
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+ */
+package com.sanaldiyar.hbase.miniofs;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+@DisplayName("Minio Part Size Policy Tests")
+public class MinioPartSizePolicyTest {
+
+    private MinioPartSizePolicy createPolicy(boolean adaptive) {
+        Configuration conf = new Configuration(false);
+        conf.setBoolean(MinioFileSystem.MINIO_UPLOAD_PART_ADAPTIVE, adaptive);
+        conf.setInt(MinioFileSystem.MINIO_UPLOAD_PART_SIZE, 5 << 20);
+        conf.setLong(MinioFileSystem.MINIO_UPLOAD_PART_MAX_SIZE, 64L << 20);
+        conf.setDouble(MinioFileSystem.MINIO_UPLOAD_PART_GROWTH_FACTOR, 2);
+        conf.setInt(MinioFileSystem.MINIO_UPLOAD_PART_GROWTH_INTERVAL, 2);
+        return new MinioPartSizePolicy(conf);
+    }
+
+    @Test
+    @DisplayName("Parts grow geometrically up to the max size")
+    public void testGrowth() {
+        MinioPartSizePolicy policy = createPolicy(true);
+        assert policy.getPartSize(1, 0, -1) == 5 << 20;
+        assert policy.getPartSize(2, 0, -1) == 5 << 20;
+        assert policy.getPartSize(3, 0, -1) == 10 << 20;
+        assert policy.getPartSize(5, 0, -1) == 20 << 20;
+        assert policy.getPartSize(9, 0, -1) == 64 << 20;
+        assert policy.getPartSize(100, 0, -1) == 64 << 20;
+        assert policy.getPartSize(MinioPartSizePolicy.MAX_PARTS, 0, -1) == MinioPartSizePolicy.MAX_PART_SIZE;
+
+        MinioPartSizePolicy fixed = createPolicy(false);
+        assert fixed.getPartSize(100, 0, -1) == 5 << 20;
+        assert !new MinioPartSizePolicy(new Configuration(false)).isAdaptive();
+    }
+
+    @Test
+    @DisplayName("The expected size is split into the fewest equal parts")
+    public void testExpectedSize() {
+        MinioPartSizePolicy policy = createPolicy(true);
+        assert policy.getPartSize(1, 0, 1 << 10) == MinioPartSizePolicy.MIN_PART_SIZE;
+        assert policy.getPartSize(1, 0, 40 << 20) == 40 << 20;
+        assert policy.getPartSize(1, 0, 100 << 20) == 50 << 20;
+        assert policy.getPartSize(2, 50 << 20, 100 << 20) == 50 << 20;
+        // written over the hint
+        assert policy.getPartSize(3, 100 << 20, 100 << 20) == 10 << 20;
+    }
+
+}
@@ -0,0 +1,119 @@
+/*
+Copyright 2020 Kazım SARIKAYA
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+ */
+package com.sanaldiyar.hbase.miniofs;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+@DisplayName("Minio Replica Cache Tests")
+public class MinioReplicaCacheTest extends BaseTestClass {
+
+    private MinioReplicaCache createCache(File dir, long maxSize) throws Exception {
+        Configuration conf = new Configuration(false);
+        conf.setBoolean(MinioFileSystem.MINIO_REPLICA_CACHE_ENABLED, true);
+        conf.set(MinioFileSystem.MINIO_REPLICA_CACHE_DIR, dir.toString());
+        conf.setLong(MinioFileSystem.MINIO_REPLICA_CACHE_MAX_FILE_SIZE, 8192);
+        conf.setLong(MinioFileSystem.MINIO_REPLICA_CACHE_MAX_SIZE, maxSize);
+        conf.setLong(MinioFileSystem.MINIO_REPLICA_CACHE_REVALIDATE_INTERVAL, 60000);
+        return new MinioReplicaCache(conf);
+    }
+
+    private static byte[] put(String key, int len, int seed) throws Exception {
+        byte[] data = new byte[len];
+        new Random(seed).nextBytes(data);
+        getServer().putObject("test", key, data);
+        return data;
+    }
+
+    private static byte[] contents(MinioReplicaCache.Replica replica) {
+        ByteBuffer buffer = replica.getData();
+        byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+        return data;
+    }
+
+    @Test
+    @DisplayName("Replicas are downloaded once and replaced when the etag changes")
+    public void testRevalidate() throws Exception {
+        File dir = Files.createTempDirectory("replicas").toFile();
+        try {
+            MinioReplicaCache cache = createCache(dir, 1 << 20);
+            MinioUtil minioUtil = getMinioUtil();
+            Path path = new Path(getRootPath(), "replica/hbase.version");
+            byte[] data = put("replica/hbase.version", 1000, 1);
+
+            assert cache.getFresh("replica/hbase.version") == null;
+            MinioFileStatus status = minioUtil.getMinioFileStatus(path);
+            getServer().resetRequestCounts();
+            MinioReplicaCache.Replica replica = cache.get(minioUtil, path, "replica/hbase.version", status);
+            assert Arrays.equals(data, contents(replica));
+            assert cache.get(minioUtil, path, "replica/hbase.version", status) == replica;
+            assert cache.getFresh("replica/hbase.version") == replica;
+            assert getServer().getRequestCount(MinioStandInServer.Operation.GET_OBJECT) == 1;
+            assert cache.getSize() == 1000;
+
+            byte[] changed = put("replica/hbase.version", 1200, 2);
+            status = minioUtil.getMinioFileStatus(path);
+            MinioReplicaCache.Replica replaced = cache.get(minioUtil, path, "replica/hbase.version", status);
+            assert replaced != replica;
+            assert Arrays.equals(changed, contents(replaced));
+            assert Arrays.equals(data, contents(replica));
+            assert cache.getSize() == 1200;
+
+            cache.invalidate("replica/hbase.version");
+            assert cache.getFresh("replica/hbase.version") == null;
+            assert cache.getSize() == 0;
+
+            Path large = new Path(getRootPath(), "replica/large");
+            put("replica/large", 10000, 3);
+            assert cache.get(minioUtil, large, "replica/large", minioUtil.getMinioFileStatus(large)) == null;
+        } finally {
+            FileUtil.fullyDelete(dir);
+        }
+    }
+
+    @Test
+    @DisplayName("Least recently used replicas are removed over the size limit")
+    public void testEviction() throws Exception {
+        File dir = Files.createTempDirectory("replicas").toFile();
+        try {
+            MinioReplicaCache cache = createCache(dir, 5000);
+            MinioUtil minioUtil = getMinioUtil();
+            for (int i = 0; i < 3; i++) {
+                Path path = new Path(getRootPath(), "replica/" + i);
+                put("replica/" + i, 2000, i);
+                cache.get(minioUtil, path, "replica/" + i, minioUtil.getMinioFileStatus(path));
+                cache.getFresh("replica/0");
+            }
+            assert cache.getSize() == 4000;
+            assert cache.getFresh("replica/0") != null;
+            assert cache.getFresh("replica/1") == null;
+            assert cache.getFresh("replica/2") != null;
+        } finally {
+            FileUtil.fullyDelete(dir);
+        }
+    }
+
+}
@@ -0,0 +1,106 @@
+/*
+Copyright 2020 Kazım SARIKAYA
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+ */
+package com.sanaldiyar.hbase.miniofs;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import io.minio.errors.ErrorResponseException;
+import io.minio.messages.ErrorResponse;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.apache.hadoop.conf.Configuration;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+@DisplayName("Minio Retry Policy Tests")
+public class MinioRetryPolicyTest {
+
+    private MinioRetryPolicy createPolicy() {
+        Configuration conf = new Configuration(false);
+        conf.setInt(MinioFileSystem.MINIO_RETRY_MAX_ATTEMPTS, 3);
+        conf.setInt(String.format(MinioFileSystem.MINIO_RETRY_OPERATION_MAX_ATTEMPTS, MinioOperation.GET.getName()), 5);
+        conf.setLong(MinioFileSystem.MINIO_RETRY_BASE_DELAY, 10);
+        conf.setLong(MinioFileSystem.MINIO_RETRY_MAX_DELAY, 40);
+        return new MinioRetryPolicy(conf);
+    }
+
+    @Test
+    @DisplayName("Network errors are retryable, missing files are not")
+    public void testClassification() {
+        MinioRetryPolicy policy = createPolicy();
+        assert policy.isRetryable(new IOException("connection reset"));
+        assert policy.isRetryable(new SocketTimeoutException("read timed out"));
+        assert !policy.isRetryable(new FileNotFoundException("missing"));
+        assert !policy.isRetryable(new InterruptedIOException("interrupted"));
+        assert !policy.isRetryable(new IllegalArgumentException("bad argument"));
+    }
+
+    private ErrorResponseException errorResponse(int status, String code) {
+        Response response = new Response.Builder()
+                .request(new Request.Builder().url("http://localhost:9000/test/file").build())
+                .protocol(Protocol.HTTP_1_1)
+                .code(status)
+                .message(code)
+                .build();
+        return new ErrorResponseException(new ErrorResponse(code, code, "test", "file", "/test/file", "1", "host"), response);
+    }
+
+    @Test
+    @DisplayName("Throttling is retried, a skewed clock is not")
+    public void testErrorCodes() {
+        MinioRetryPolicy policy = createPolicy();
+        assert policy.isRetryable(errorResponse(503, "SlowDown"));
+        assert policy.isThrottled(errorResponse(503, "SlowDown"));
+        assert policy.isRetryable(errorResponse(500, "InternalError"));
+        // the signature stays skewed until the clock is synced
+        assert !policy.isRetryable(errorResponse(403, "RequestTimeTooSkewed"));
+        assert !policy.isRetryable(errorResponse(404, "NoSuchKey"));
+    }
+
+    @Test
+    @DisplayName("Attempt limits are per operation")
+    public void testMaxAttempts() {
+        MinioRetryPolicy policy = createPolicy();
+        assert policy.getMaxAttempts(MinioOperation.STAT) == 3;
+        assert policy.getMaxAttempts(MinioOperation.GET) == 5;
+
+        IOException ex = new IOException("connection reset");
+        long exhausted = MinioFileSystemMetrics.getInstance().getRetriesExhausted(MinioOperation.STAT);
+        assert policy.shouldRetry(MinioOperation.STAT, ex, 1);
+        assert policy.shouldRetry(MinioOperation.STAT, ex, 2);
+        assert !policy.shouldRetry(MinioOperation.STAT, ex, 3);
+        assert MinioFileSystemMetrics.getInstance().getRetriesExhausted(MinioOperation.STAT) == exhausted + 1;
+        assert policy.shouldRetry(MinioOperation.GET, ex, 4);
+    }
+
+    @Test
+    @DisplayName("Backoff delay grows exponentially and stays under the cap")
+    public void testBackoffDelay() {
+        MinioRetryPolicy policy = createPolicy();
+        for (int i = 0; i < 100; i++) {
+            assert policy.getBackoffDelay(1) <= 10;
+            assert policy.getBackoffDelay(2) <= 20;
+            assert policy.getBackoffDelay(10) <= 40;
+            assert policy.getBackoffDelay(64) <= 40;
+            assert policy.getBackoffDelay(3) >= 0;
+        }
+    }
+
+}
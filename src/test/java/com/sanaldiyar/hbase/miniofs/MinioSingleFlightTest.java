@@ -0,0 +1,186 @@
+/*
+Copyright 2020 Kazım SARIKAYA
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+ */
+package com.sanaldiyar.hbase.miniofs;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+@DisplayName("Minio Single Flight Tests")
+public class MinioSingleFlightTest extends BaseTestClass {
+
+    private final static byte[] DATA = new byte[1 << 16];
+
+    static {
+        new Random(10).nextBytes(DATA);
+    }
+
+    private static class BlockingFetch implements MinioSingleFlight.RangeFetch {
+
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final AtomicInteger calls = new AtomicInteger();
+        private volatile long failStart = -1;
+
+        @Override
+        public int fetch(long start, byte[] buffer, int off, int len) throws IOException {
+            calls.incrementAndGet();
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                throw new IOException(ex);
+            }
+            if (start == failStart) {
+                failStart = -1;
+                throw new IOException("injected failure");
+            }
+            int n = (int) Math.min(len, DATA.length - start);
+            System.arraycopy(DATA, (int) start, buffer, off, n);
+            return n;
+        }
+
+    }
+
+    private static void waitFor(MinioSingleFlight singleFlight, BlockingFetch fetch) throws InterruptedException {
+        assert fetch.started.await(5, TimeUnit.SECONDS);
+        assert singleFlight.getInFlight() == 1;
+        // give the followers time to join the flight
+        Thread.sleep(200);
+    }
+
+    @Test
+    @DisplayName("Covered ranges wait for the get in flight")
+    public void testShared() throws Exception {
+        MinioSingleFlight singleFlight = new MinioSingleFlight(new Configuration(false));
+        BlockingFetch fetch = new BlockingFetch();
+        ExecutorService executor = Executors.newFixedThreadPool(5);
+        try {
+            byte[] leaderBuffer = new byte[8192];
+            Future<Integer> leader = executor.submit(() -> singleFlight.fetch("k", "e1", 4096, leaderBuffer, 0, 8192, fetch));
+            assert fetch.started.await(5, TimeUnit.SECONDS);
+            List<byte[]> buffers = new ArrayList<>();
+            List<Future<Integer>> followers = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                byte[] buffer = new byte[1000];
+                buffers.add(buffer);
+                long start = 4096 + i * 1000;
+                followers.add(executor.submit(() -> singleFlight.fetch("k", "e1", start, buffer, 0, 1000, fetch)));
+            }
+            waitFor(singleFlight, fetch);
+            fetch.release.countDown();
+            assert leader.get(5, TimeUnit.SECONDS) == 8192;
+            for (int i = 0; i < 4; i++) {
+                assert followers.get(i).get(5, TimeUnit.SECONDS) == 1000;
+                assert Arrays.equals(buffers.get(i), Arrays.copyOfRange(DATA, 4096 + i * 1000, 5096 + i * 1000));
+            }
+            assert fetch.calls.get() == 1;
+            assert singleFlight.getInFlight() == 0;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    @DisplayName("Other versions, uncovered ranges and failed gets are fetched separately")
+    public void testNotShared() throws Exception {
+        MinioSingleFlight singleFlight = new MinioSingleFlight(new Configuration(false));
+        BlockingFetch fetch = new BlockingFetch();
+        fetch.failStart = 0;
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Future<Integer> leader = executor.submit(() -> singleFlight.fetch("k", "e1", 0, new byte[4096], 0, 4096, fetch));
+            assert fetch.started.await(5, TimeUnit.SECONDS);
+            byte[] covered = new byte[100];
+            Future<Integer> follower = executor.submit(() -> singleFlight.fetch("k", "e1", 10, covered, 0, 100, fetch));
+            Future<Integer> otherVersion = executor.submit(() -> singleFlight.fetch("k", "e2", 10, new byte[100], 0, 100, fetch));
+            Future<Integer> uncovered = executor.submit(() -> singleFlight.fetch("k", "e1", 4000, new byte[200], 0, 200, fetch));
+            Thread.sleep(200);
+            fetch.release.countDown();
+            try {
+                leader.get(5, TimeUnit.SECONDS);
+                assert false;
+            } catch (ExecutionException ex) {
+                assert ex.getCause() instanceof IOException;
+            }
+            assert follower.get(5, TimeUnit.SECONDS) == 100;
+            assert Arrays.equals(covered, Arrays.copyOfRange(DATA, 10, 110));
+            assert otherVersion.get(5, TimeUnit.SECONDS) == 100;
+            assert uncovered.get(5, TimeUnit.SECONDS) == 200;
+            assert fetch.calls.get() == 4;
+            assert singleFlight.fetch("k", null, 0, new byte[10], 0, 10, fetch) == 10;
+            assert fetch.calls.get() == 5;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    @DisplayName("Streams reading the same range concurrently send one get")
+    public void testConcurrentStreams() throws Exception {
+        byte[] data = new byte[1 << 20];
+        new Random(11).nextBytes(data);
+        getServer().putObject("test", "sftest/hot", data);
+        Path path = new Path(getRootPath(), "sftest/hot");
+        getServer().setLatency(MinioStandInServer.Operation.GET_OBJECT, 300);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<MinioInputStream> streams = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                streams.add(new MinioInputStream(path, getConf(), 128 << 10, new FileSystem.Statistics("minio"), false));
+            }
+            getServer().resetRequestCounts();
+            long shared = MinioFileSystemMetrics.getInstance().getSingleFlightShared();
+            List<Future<byte[]>> reads = new ArrayList<>();
+            for (int i = 0; i < streams.size(); i++) {
+                MinioInputStream mis = streams.get(i);
+                long offset = 300_000 + i * 100;
+                reads.add(executor.submit(() -> {
+                    byte[] readed = new byte[4096];
+                    mis.readFully(offset, readed);
+                    return readed;
+                }));
+            }
+            for (int i = 0; i < reads.size(); i++) {
+                int offset = 300_000 + i * 100;
+                assert Arrays.equals(reads.get(i).get(10, TimeUnit.SECONDS), Arrays.copyOfRange(data, offset, offset + 4096));
+            }
+            assert getServer().getRequestCount(MinioStandInServer.Operation.GET_OBJECT) < streams.size();
+            assert MinioFileSystemMetrics.getInstance().getSingleFlightShared() > shared;
+            for (MinioInputStream mis : streams) {
+                mis.close();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+}
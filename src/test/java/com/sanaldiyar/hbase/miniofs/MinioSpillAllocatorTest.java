@@ -0,0 +1,99 @@
+/*
+Copyright 2020 Kazım SARIKAYA
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+ */
+package com.sanaldiyar.hbase.miniofs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileUtil;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+@DisplayName("Minio Spill Allocator Tests")
+public class MinioSpillAllocatorTest {
+
+    private MinioSpillAllocator createAllocator(String dirs, long minFree) {
+        Configuration conf = new Configuration(false);
+        conf.set(MinioFileSystem.MINIO_BUFFER_DIRS, dirs);
+        conf.setLong(MinioFileSystem.MINIO_BUFFER_DIRS_MIN_FREE, minFree);
+        return new MinioSpillAllocator(conf);
+    }
+
+    @Test
+    @DisplayName("Files are spread to the least loaded directories")
+    public void testSpread() throws IOException {
+        File root = Files.createTempDirectory("spill-").toFile();
+        try {
+            File first = new File(root, "disk0");
+            File second = new File(root, "disk1");
+            MinioSpillAllocator allocator = createAllocator(first + "," + second, 0);
+            assert allocator.getDirCount() == 2;
+
+            File a = allocator.allocate("output-", 100);
+            File b = allocator.allocate("output-", 100);
+            assert !a.getParentFile().equals(b.getParentFile());
+            assert allocator.getBytes(0) == 100 && allocator.getBytes(1) == 100;
+
+            allocator.release(a);
+            a.delete();
+            File c = allocator.allocate("output-", 10);
+            assert c.getParentFile().equals(a.getParentFile());
+            File d = allocator.allocate("output-", 10);
+            assert d.getParentFile().equals(a.getParentFile());
+            assert allocator.getFiles(a.getParentFile().equals(first) ? 0 : 1) == 2;
+
+            for (File file : new File[]{b, c, d}) {
+                allocator.release(file);
+                file.delete();
+            }
+            assert allocator.getBytes(0) == 0 && allocator.getBytes(1) == 0;
+        } finally {
+            FileUtil.fullyDelete(root);
+        }
+    }
+
+    @Test
+    @DisplayName("Failed and full directories are skipped")
+    public void testSkip() throws IOException {
+        File root = Files.createTempDirectory("spill-").toFile();
+        try {
+            File broken = new File(root, "broken");
+            broken.createNewFile();
+            File healthy = new File(root, "healthy");
+            MinioSpillAllocator allocator = createAllocator(broken + "," + healthy, 0);
+            long failures = MinioFileSystemMetrics.getInstance().getSpillDirMetrics(0, broken.toString()).getFailures();
+
+            for (int i = 0; i < 3; i++) {
+                File file = allocator.allocate("output-", 100);
+                assert file.getParentFile().equals(healthy);
+            }
+            assert MinioFileSystemMetrics.getInstance().getSpillDirMetrics(0, broken.toString()).getFailures() == failures + 1;
+
+            MinioSpillAllocator full = createAllocator(healthy.toString(), Long.MAX_VALUE / 2);
+            try {
+                full.allocate("output-", 100);
+                assert false;
+            } catch (IOException ex) {
+                assert ex.getMessage().startsWith("no spill directory");
+            }
+        } finally {
+            FileUtil.fullyDelete(root);
+        }
+    }
+
+}
@@ -0,0 +1,747 @@
+/*
+Copyright 2020 Kazım SARIKAYA
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+ */
+package com.sanaldiyar.hbase.miniofs;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-process stand-in of a minio server for tests and benchmarks. It keeps
+ * objects in memory and serves the subset of the S3 API used by miniofs,
+ * including copies, multipart uploads and multi-object deletes. Requests are
+ * not authenticated and counted per {@link Operation}.
+ *
+ * Latency is injected before each response, globally or per operation, and
+ * each request and response body is streamed at most with the configured
+ * bandwidth, so the results do not depend on the machine running them.
+ * Failures are injected either as a random rate of 503 SlowDown responses or
+ * as a fixed number of 500 InternalError responses.
+ *
+ * @author kazim
+ */
+public class MinioStandInServer implements AutoCloseable {
+
+    private final static Logger logger = LoggerFactory.getLogger(MinioStandInServer.class.getName());
+
+    public final static String ACCESS_KEY = "minioadmin";
+    public final static String SECRET_KEY = "minioadmin";
+
+    private final static String XML_HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n";
+    private final static String S3_NAMESPACE = "http://s3.amazonaws.com/doc/2006-03-01/";
+    private final static DateTimeFormatter HTTP_DATE = DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+    private final static DateTimeFormatter ISO_DATE = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US).withZone(ZoneOffset.UTC);
+    private final static int CHUNK_SIZE = 8 << 10;
+    private final static Pattern PART_NUMBER = Pattern.compile("<PartNumber>(\\d+)</PartNumber>");
+    private final static Pattern DELETE_KEY = Pattern.compile("<Key>(.*?)</Key>");
+
+    private final Map<String, NavigableMap<String, StoredObject>> buckets = new ConcurrentHashMap<>();
+    private final Map<String, MultipartUpload> uploads = new ConcurrentHashMap<>();
+    private final Map<Operation, AtomicLong> requestCounts = new EnumMap<>(Operation.class);
+    private final Map<Operation, Long> operationLatencies = new ConcurrentHashMap<>();
+    private final Map<Operation, Double> errorRates = new ConcurrentHashMap<>();
+    private final Map<Operation, AtomicInteger> pendingFailures = new ConcurrentHashMap<>();
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private volatile long latency = 0;
+    private volatile long bandwidth = 0;
+
+    public MinioStandInServer() throws IOException {
+        this(0);
+    }
+
+    /**
+     * @param port port to listen or 0 for an ephemeral port
+     * @throws IOException if the port cannot be bound
+     */
+    public MinioStandInServer(int port) throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "minio-standin");
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        for (Operation op : Operation.values()) {
+            requestCounts.put(op, new AtomicLong());
+        }
+    }
+
+    public MinioStandInServer start() {
+        server.start();
+        logger.debug("minio stand-in listening at {}", getEndpoint());
+        return this;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public String getEndpoint() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    /**
+     * @param bucket bucket name
+     * @return value of hbase.rootdir for the bucket
+     */
+    public String getRootUri(String bucket) {
+        return "minio://" + ACCESS_KEY + ":" + SECRET_KEY + "@" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/" + bucket;
+    }
+
+    /**
+     * @param millis delay before each response
+     */
+    public void setLatency(long millis) {
+        this.latency = millis;
+    }
+
+    /**
+     * @param op S3 operation
+     * @param millis delay before each op response, overrides the latency of
+     * all operations
+     */
+    public void setLatency(Operation op, long millis) {
+        operationLatencies.put(op, millis);
+    }
+
+    /**
+     * @param op S3 operation
+     * @param rate ratio of op requests answered with 503 SlowDown
+     */
+    public void setErrorRate(Operation op, double rate) {
+        errorRates.put(op, rate);
+    }
+
+    /**
+     * @param op S3 operation
+     * @param count number of the next op requests answered with 500
+     * InternalError
+     */
+    public void failNext(Operation op, int count) {
+        pendingFailures.computeIfAbsent(op, o -> new AtomicInteger()).addAndGet(count);
+    }
+
+    /**
+     * Removes the injected latencies, error rates and failures.
+     */
+    public void resetFaults() {
+        latency = 0;
+        bandwidth = 0;
+        operationLatencies.clear();
+        errorRates.clear();
+        pendingFailures.clear();
+    }
+
+    /**
+     * @param bytesPerSecond rate of each request and response body, 0 for
+     * unlimited
+     */
+    public void setBandwidth(long bytesPerSecond) {
+        this.bandwidth = bytesPerSecond;
+    }
+
+    /**
+     * @param op S3 operation
+     * @return number of op requests received
+     */
+    public long getRequestCount(Operation op) {
+        return requestCounts.get(op).get();
+    }
+
+    public long getRequestCount() {
+        return requestCounts.values().stream().mapToLong(AtomicLong::get).sum();
+    }
+
+    public void resetRequestCounts() {
+        requestCounts.values().forEach(count -> count.set(0));
+    }
+
+    public void createBucket(String bucket) {
+        buckets.putIfAbsent(bucket, new ConcurrentSkipListMap<>());
+    }
+
+    public void clearBucket(String bucket) {
+        NavigableMap<String, StoredObject> objects = buckets.get(bucket);
+        if (objects != null) {
+            objects.clear();
+        }
+    }
+
+    public void putObject(String bucket, String key, byte[] data) {
+        buckets.get(bucket).put(key, new StoredObject(data, md5(data)));
+    }
+
+    public byte[] getObject(String bucket, String key) {
+        StoredObject object = buckets.get(bucket).get(key);
+        return object == null ? null : object.data;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            String path = URLDecoder.decode(exchange.getRequestURI().getRawPath(), StandardCharsets.UTF_8).substring(1);
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            int slash = path.indexOf('/');
+            String bucket = slash < 0 ? path : path.substring(0, slash);
+            String key = slash < 0 ? "" : path.substring(slash + 1);
+            String copySource = exchange.getRequestHeaders().getFirst("x-amz-copy-source");
+            Operation op = Operation.of(method, !key.isEmpty(), query, copySource != null);
+            requestCounts.get(op).incrementAndGet();
+            logger.trace("{} bucket {} key {} query {}", op, bucket, key, query);
+
+            byte[] body = readBody(exchange);
+            long delay = operationLatencies.getOrDefault(op, latency);
+            if (delay > 0) {
+                TimeUnit.MILLISECONDS.sleep(delay);
+            }
+            AtomicInteger failures = pendingFailures.get(op);
+            if (failures != null && failures.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+                sendError(exchange, 500, "InternalError", "injected failure");
+                return;
+            }
+            double errorRate = errorRates.getOrDefault(op, 0.0);
+            if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+                sendError(exchange, 503, "SlowDown", "Please reduce your request rate.");
+                return;
+            }
+
+            if (op == Operation.PUT_BUCKET) {
+                createBucket(bucket);
+                send(exchange, 200, null);
+                return;
+            }
+            NavigableMap<String, StoredObject> objects = buckets.get(bucket);
+            if (objects == null) {
+                sendError(exchange, 404, "NoSuchBucket", "The specified bucket does not exist");
+                return;
+            }
+            switch (op) {
+                case HEAD_BUCKET:
+                    send(exchange, 200, null);
+                    break;
+                case GET_BUCKET_LOCATION:
+                    sendXml(exchange, 200, "<LocationConstraint xmlns=\"" + S3_NAMESPACE + "\">us-east-1</LocationConstraint>");
+                    break;
+                case LIST_OBJECTS:
+                    listObjects(exchange, bucket, objects, query);
+                    break;
+                case DELETE_OBJECTS:
+                    deleteObjects(exchange, objects, new String(body, StandardCharsets.UTF_8));
+                    break;
+                case HEAD_OBJECT:
+                case GET_OBJECT: {
+                    StoredObject object = objects.get(key);
+                    if (object == null) {
+                        sendError(exchange, 404, "NoSuchKey", "The specified key does not exist.");
+                        return;
+                    }
+                    getObject(exchange, op == Operation.HEAD_OBJECT, object);
+                    break;
+                }
+                case PUT_OBJECT: {
+                    StoredObject object = new StoredObject(body, md5(body));
+                    objects.put(key, object);
+                    exchange.getResponseHeaders().set("ETag", "\"" + object.etag + "\"");
+                    send(exchange, 200, null);
+                    break;
+                }
+                case COPY_OBJECT: {
+                    byte[] data = readCopySource(exchange, copySource);
+                    if (data == null) {
+                        return;
+                    }
+                    StoredObject object = new StoredObject(data, md5(data));
+                    objects.put(key, object);
+                    sendXml(exchange, 200, "<CopyObjectResult><LastModified>" + ISO_DATE.format(object.lastModified) + "</LastModified>"
+                            + "<ETag>&quot;" + object.etag + "&quot;</ETag></CopyObjectResult>");
+                    break;
+                }
+                case DELETE_OBJECT:
+                    objects.remove(key);
+                    send(exchange, 204, null);
+                    break;
+                case CREATE_MULTIPART_UPLOAD: {
+                    String uploadId = UUID.randomUUID().toString().replace("-", "");
+                    uploads.put(uploadId, new MultipartUpload(bucket, key));
+                    sendXml(exchange, 200, "<InitiateMultipartUploadResult xmlns=\"" + S3_NAMESPACE + "\"><Bucket>" + bucket + "</Bucket>"
+                            + "<Key>" + escape(key) + "</Key><UploadId>" + uploadId + "</UploadId></InitiateMultipartUploadResult>");
+                    break;
+                }
+                case UPLOAD_PART:
+                case UPLOAD_PART_COPY: {
+                    MultipartUpload upload = uploads.get(query.get("uploadId"));
+                    if (upload == null) {
+                        sendError(exchange, 404, "NoSuchUpload", "The specified multipart upload does not exist.");
+                        return;
+                    }
+                    byte[] data = body;
+                    if (op == Operation.UPLOAD_PART_COPY) {
+                        data = readCopySource(exchange, copySource);
+                        if (data == null) {
+                            return;
+                        }
+                    }
+                    StoredObject part = new StoredObject(data, md5(data));
+                    upload.parts.put(Integer.parseInt(query.get("partNumber")), part);
+                    if (op == Operation.UPLOAD_PART) {
+                        exchange.getResponseHeaders().set("ETag", "\"" + part.etag + "\"");
+                        send(exchange, 200, null);
+                    } else {
+                        sendXml(exchange, 200, "<CopyPartResult><LastModified>" + ISO_DATE.format(part.lastModified) + "</LastModified>"
+                                + "<ETag>&quot;" + part.etag + "&quot;</ETag></CopyPartResult>");
+                    }
+                    break;
+                }
+                case COMPLETE_MULTIPART_UPLOAD:
+                    completeMultipartUpload(exchange, objects, query.get("uploadId"), new String(body, StandardCharsets.UTF_8));
+                    break;
+                case ABORT_MULTIPART_UPLOAD:
+                    uploads.remove(query.get("uploadId"));
+                    send(exchange, 204, null);
+                    break;
+                default:
+                    sendError(exchange, 501, "NotImplemented", method + " is not implemented");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException ex) {
+            logger.error("stand-in request failed", ex);
+            sendError(exchange, 500, "InternalError", ex.toString());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void deleteObjects(HttpExchange exchange, NavigableMap<String, StoredObject> objects, String body) throws IOException {
+        boolean quiet = body.contains("<Quiet>true</Quiet>");
+        StringBuilder xml = new StringBuilder();
+        xml.append("<DeleteResult xmlns=\"").append(S3_NAMESPACE).append("\">");
+        Matcher matcher = DELETE_KEY.matcher(body);
+        while (matcher.find()) {
+            String key = unescape(matcher.group(1));
+            objects.remove(key);
+            if (!quiet) {
+                xml.append("<Deleted><Key>").append(escape(key)).append("</Key></Deleted>");
+            }
+        }
+        xml.append("</DeleteResult>");
+        sendXml(exchange, 200, xml.toString());
+    }
+
+    /**
+     * @return bytes of the copy source or null if an error is sent
+     */
+    private byte[] readCopySource(HttpExchange exchange, String copySource) throws IOException {
+        String source = URLDecoder.decode(copySource, StandardCharsets.UTF_8);
+        if (source.startsWith("/")) {
+            source = source.substring(1);
+        }
+        int slash = source.indexOf('/');
+        NavigableMap<String, StoredObject> objects = buckets.get(source.substring(0, slash));
+        StoredObject object = objects == null ? null : objects.get(source.substring(slash + 1));
+        if (object == null) {
+            sendError(exchange, 404, "NoSuchKey", "The specified key does not exist.");
+            return null;
+        }
+        String range = exchange.getRequestHeaders().getFirst("x-amz-copy-source-range");
+        if (range == null) {
+            return object.data;
+        }
+        String[] parts = range.substring(6).split("-");
+        return Arrays.copyOfRange(object.data, Integer.parseInt(parts[0]), Integer.parseInt(parts[1]) + 1);
+    }
+
+    private void completeMultipartUpload(HttpExchange exchange, NavigableMap<String, StoredObject> objects, String uploadId, String body) throws IOException {
+        MultipartUpload upload = uploads.remove(uploadId);
+        if (upload == null) {
+            sendError(exchange, 404, "NoSuchUpload", "The specified multipart upload does not exist.");
+            return;
+        }
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        ByteArrayOutputStream etags = new ByteArrayOutputStream();
+        int count = 0;
+        Matcher matcher = PART_NUMBER.matcher(body);
+        while (matcher.find()) {
+            StoredObject part = upload.parts.get(Integer.parseInt(matcher.group(1)));
+            if (part == null) {
+                sendError(exchange, 400, "InvalidPart", "One or more of the specified parts could not be found.");
+                return;
+            }
+            data.write(part.data);
+            etags.write(hexToBytes(part.etag));
+            count++;
+        }
+        StoredObject object = new StoredObject(data.toByteArray(), md5(etags.toByteArray()) + "-" + count);
+        objects.put(upload.key, object);
+        sendXml(exchange, 200, "<CompleteMultipartUploadResult xmlns=\"" + S3_NAMESPACE + "\"><Location>" + getEndpoint() + "/" + upload.bucket + "/" + escape(upload.key) + "</Location>"
+                + "<Bucket>" + upload.bucket + "</Bucket><Key>" + escape(upload.key) + "</Key>"
+                + "<ETag>&quot;" + object.etag + "&quot;</ETag></CompleteMultipartUploadResult>");
+    }
+
+    private void getObject(HttpExchange exchange, boolean head, StoredObject object) throws IOException, InterruptedException {
+        long size = object.data.length;
+        long start = 0;
+        long end = size - 1;
+        int status = 200;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        if (range != null && range.startsWith("bytes=")) {
+            String[] parts = range.substring(6).split("-", -1);
+            start = Long.parseLong(parts[0]);
+            if (!parts[1].isEmpty()) {
+                end = Math.min(end, Long.parseLong(parts[1]));
+            }
+            if (start >= size) {
+                sendError(exchange, 416, "InvalidRange", "The requested range is not satisfiable");
+                return;
+            }
+            status = 206;
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + size);
+        }
+        exchange.getResponseHeaders().set("ETag", "\"" + object.etag + "\"");
+        exchange.getResponseHeaders().set("Last-Modified", HTTP_DATE.format(object.lastModified));
+        exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+        exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+        if (head) {
+            exchange.getResponseHeaders().set("Content-Length", String.valueOf(size));
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        int length = (int) (end - start + 1);
+        exchange.sendResponseHeaders(status, length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            writeThrottled(os, object.data, (int) start, length);
+        }
+    }
+
+    private void listObjects(HttpExchange exchange, String bucket, NavigableMap<String, StoredObject> objects, Map<String, String> query) throws IOException, InterruptedException {
+        String prefix = query.getOrDefault("prefix", "");
+        String delimiter = query.getOrDefault("delimiter", "");
+        int maxKeys = Integer.parseInt(query.getOrDefault("max-keys", "1000"));
+        boolean urlEncoded = "url".equals(query.get("encoding-type"));
+        String marker = query.getOrDefault("continuation-token", query.getOrDefault("start-after", ""));
+
+        StringBuilder contents = new StringBuilder();
+        String lastPrefix = null;
+        String last = null;
+        int count = 0;
+        boolean truncated = false;
+        for (Map.Entry<String, StoredObject> entry : objects.tailMap(marker, false).entrySet()) {
+            String key = entry.getKey();
+            if (!key.startsWith(prefix)) {
+                if (key.compareTo(prefix) > 0) {
+                    break;
+                }
+                continue;
+            }
+            if (!marker.isEmpty() && marker.endsWith(delimiter) && !delimiter.isEmpty() && key.startsWith(marker)) {
+                continue;
+            }
+            int idx = delimiter.isEmpty() ? -1 : key.indexOf(delimiter, prefix.length());
+            if (idx >= 0) {
+                String commonPrefix = key.substring(0, idx + delimiter.length());
+                if (commonPrefix.equals(lastPrefix)) {
+                    continue;
+                }
+                if (count == maxKeys) {
+                    truncated = true;
+                    break;
+                }
+                lastPrefix = commonPrefix;
+                last = commonPrefix;
+                count++;
+                contents.append("<CommonPrefixes><Prefix>").append(encodeKey(commonPrefix, urlEncoded)).append("</Prefix></CommonPrefixes>");
+                continue;
+            }
+            if (count == maxKeys) {
+                truncated = true;
+                break;
+            }
+            StoredObject object = entry.getValue();
+            last = key;
+            count++;
+            contents.append("<Contents>")
+                    .append("<Key>").append(encodeKey(key, urlEncoded)).append("</Key>")
+                    .append("<LastModified>").append(ISO_DATE.format(object.lastModified)).append("</LastModified>")
+                    .append("<ETag>&quot;").append(object.etag).append("&quot;</ETag>")
+                    .append("<Size>").append(object.data.length).append("</Size>")
+                    .append("<StorageClass>STANDARD</StorageClass>")
+                    .append("</Contents>");
+        }
+
+        StringBuilder xml = new StringBuilder();
+        xml.append("<ListBucketResult xmlns=\"").append(S3_NAMESPACE).append("\">")
+                .append("<Name>").append(bucket).append("</Name>")
+                .append("<Prefix>").append(encodeKey(prefix, urlEncoded)).append("</Prefix>")
+                .append("<KeyCount>").append(count).append("</KeyCount>")
+                .append("<MaxKeys>").append(maxKeys).append("</MaxKeys>")
+                .append("<Delimiter>").append(encodeKey(delimiter, urlEncoded)).append("</Delimiter>")
+                .append("<IsTruncated>").append(truncated).append("</IsTruncated>");
+        if (truncated) {
+            xml.append("<NextContinuationToken>").append(encodeKey(last, true)).append("</NextContinuationToken>");
+        }
+        if (urlEncoded) {
+            xml.append("<EncodingType>url</EncodingType>");
+        }
+        xml.append(contents).append("</ListBucketResult>");
+        sendXml(exchange, 200, xml.toString());
+    }
+
+    private byte[] readBody(HttpExchange exchange) throws IOException, InterruptedException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] chunk = new byte[CHUNK_SIZE];
+        long begin = System.nanoTime();
+        try (InputStream is = exchange.getRequestBody()) {
+            int r;
+            while ((r = is.read(chunk)) > 0) {
+                baos.write(chunk, 0, r);
+                pace(begin, baos.size());
+            }
+        }
+        return baos.toByteArray();
+    }
+
+    private void writeThrottled(OutputStream os, byte[] data, int offset, int length) throws IOException, InterruptedException {
+        long begin = System.nanoTime();
+        int written = 0;
+        while (written < length) {
+            int len = Math.min(CHUNK_SIZE, length - written);
+            os.write(data, offset + written, len);
+            written += len;
+            pace(begin, written);
+        }
+    }
+
+    /**
+     * Sleeps until the transferred bytes fit into the bandwidth.
+     */
+    private void pace(long begin, long transferred) throws InterruptedException {
+        long rate = bandwidth;
+        if (rate <= 0) {
+            return;
+        }
+        long due = begin + (long) (transferred * 1e9 / rate);
+        long wait = due - System.nanoTime();
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    private void sendXml(HttpExchange exchange, int status, String xml) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/xml");
+        send(exchange, status, (XML_HEADER + xml).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void sendError(HttpExchange exchange, int status, String code, String message) throws IOException {
+        exchange.getResponseHeaders().set("x-amz-request-id", UUID.randomUUID().toString());
+        if (exchange.getRequestMethod().equals("HEAD")) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        sendXml(exchange, status, "<Error><Code>" + code + "</Code><Message>" + escape(message) + "</Message>"
+                + "<Resource>" + escape(exchange.getRequestURI().getPath()) + "</Resource>"
+                + "<RequestId>" + exchange.getResponseHeaders().getFirst("x-amz-request-id") + "</RequestId>"
+                + "<HostId>minio-standin</HostId></Error>");
+    }
+
+    private void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+        if (body == null || body.length == 0) {
+            if (status != 204 && !exchange.getRequestMethod().equals("HEAD")) {
+                exchange.getResponseHeaders().set("Content-Length", "0");
+            }
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return query;
+        }
+        for (String param : rawQuery.split("&")) {
+            int eq = param.indexOf('=');
+            String name = eq < 0 ? param : param.substring(0, eq);
+            String value = eq < 0 ? "" : param.substring(eq + 1);
+            query.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return query;
+    }
+
+    private static String encodeKey(String key, boolean urlEncoded) {
+        if (!urlEncoded) {
+            return escape(key);
+        }
+        return URLEncoder.encode(key, StandardCharsets.UTF_8).replace("+", "%20").replace("%2F", "/");
+    }
+
+    private static String escape(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    private static String unescape(String value) {
+        return value.replace("&quot;", "\"").replace("&apos;", "'").replace("&gt;", ">").replace("&lt;", "<").replace("&amp;", "&");
+    }
+
+    private static byte[] hexToBytes(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
+    private static String md5(byte[] data) {
+        try {
+            StringBuilder sb = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("MD5").digest(data)) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * S3 operations served by the stand-in.
+     */
+    public enum Operation {
+
+        PUT_BUCKET,
+        HEAD_BUCKET,
+        GET_BUCKET_LOCATION,
+        LIST_OBJECTS,
+        DELETE_OBJECTS,
+        HEAD_OBJECT,
+        GET_OBJECT,
+        PUT_OBJECT,
+        COPY_OBJECT,
+        DELETE_OBJECT,
+        CREATE_MULTIPART_UPLOAD,
+        UPLOAD_PART,
+        UPLOAD_PART_COPY,
+        COMPLETE_MULTIPART_UPLOAD,
+        ABORT_MULTIPART_UPLOAD,
+        UNKNOWN;
+
+        static Operation of(String method, boolean hasKey, Map<String, String> query, boolean copy) {
+            if (!hasKey) {
+                switch (method) {
+                    case "PUT":
+                        return PUT_BUCKET;
+                    case "HEAD":
+                        return HEAD_BUCKET;
+                    case "GET":
+                        return query.containsKey("location") ? GET_BUCKET_LOCATION : LIST_OBJECTS;
+                    case "POST":
+                        return query.containsKey("delete") ? DELETE_OBJECTS : UNKNOWN;
+                    default:
+                        return UNKNOWN;
+                }
+            }
+            boolean multipart = query.containsKey("uploadId");
+            switch (method) {
+                case "HEAD":
+                    return HEAD_OBJECT;
+                case "GET":
+                    return GET_OBJECT;
+                case "PUT":
+                    if (multipart) {
+                        return copy ? UPLOAD_PART_COPY : UPLOAD_PART;
+                    }
+                    return copy ? COPY_OBJECT : PUT_OBJECT;
+                case "POST":
+                    if (query.containsKey("uploads")) {
+                        return CREATE_MULTIPART_UPLOAD;
+                    }
+                    return multipart ? COMPLETE_MULTIPART_UPLOAD : UNKNOWN;
+                case "DELETE":
+                    return multipart ? ABORT_MULTIPART_UPLOAD : DELETE_OBJECT;
+                default:
+                    return UNKNOWN;
+            }
+        }
+
+    }
+
+    private static class MultipartUpload {
+
+        private final String bucket;
+        private final String key;
+        private final Map<Integer, StoredObject> parts = new ConcurrentHashMap<>();
+
+        MultipartUpload(String bucket, String key) {
+            this.bucket = bucket;
+            this.key = key;
+        }
+
+    }
+
+    private static class StoredObject {
+
+        private final byte[] data;
+        private final String etag;
+        private final Instant lastModified = Instant.now();
+
+        StoredObject(byte[] data, String etag) {
+            this.data = data;
+            this.etag = etag;
+        }
+
+    }
+
+}
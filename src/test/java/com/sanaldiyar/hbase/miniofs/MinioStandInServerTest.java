@@ -0,0 +1,74 @@
+/*
+Copyright 2020 Kazım SARIKAYA
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+ */
+package com.sanaldiyar.hbase.miniofs;
+
+import io.minio.MinioClient;
+import io.minio.RemoveObjectsArgs;
+import io.minio.Result;
+import io.minio.messages.DeleteError;
+import io.minio.messages.DeleteObject;
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.Path;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+@DisplayName("Minio Stand-in Server Tests")
+public class MinioStandInServerTest extends BaseTestClass {
+
+    @Test
+    @DisplayName("Injected failures are retried and counted")
+    public void testInjectedFailures() throws Exception {
+        byte[] data = new byte[1024];
+        Arrays.fill(data, (byte) 7);
+        Path path = new Path(getRootPath(), "faults/file1");
+        getMinioUtil().putStream(path, new ByteArrayInputStream(data), data.length);
+
+        getServer().resetRequestCounts();
+        getServer().failNext(MinioStandInServer.Operation.GET_OBJECT, 2);
+        byte[] readed = new byte[data.length];
+        try (FSDataInputStream in = getFileSystem().open(path)) {
+            in.readFully(0, readed);
+        }
+        assert Arrays.equals(data, readed);
+        assert getServer().getRequestCount(MinioStandInServer.Operation.GET_OBJECT) == 3;
+        assert getServer().getRequestCount(MinioStandInServer.Operation.PUT_OBJECT) == 0;
+    }
+
+    @Test
+    @DisplayName("Multiple objects are deleted with a single request")
+    public void testDeleteObjects() throws Exception {
+        getServer().putObject("test", "multi/a", new byte[]{1});
+        getServer().putObject("test", "multi/b&c", new byte[]{2});
+        MinioClient client = MinioClient.builder()
+                .endpoint(getServer().getEndpoint())
+                .credentials(MinioStandInServer.ACCESS_KEY, MinioStandInServer.SECRET_KEY)
+                .build();
+        Iterable<Result<DeleteError>> errors = client.removeObjects(RemoveObjectsArgs.builder()
+                .bucket("test")
+                .objects(Arrays.asList(new DeleteObject("multi/a"), new DeleteObject("multi/b&c")))
+                .build());
+        for (Result<DeleteError> error : errors) {
+            assert false : error.get().message();
+        }
+        assert getServer().getObject("test", "multi/a") == null;
+        assert getServer().getObject("test", "multi/b&c") == null;
+        assert getServer().getRequestCount(MinioStandInServer.Operation.DELETE_OBJECTS) == 1;
+    }
+
+}
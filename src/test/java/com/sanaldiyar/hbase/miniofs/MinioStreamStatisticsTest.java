@@ -0,0 +1,59 @@
+/*
+Copyright 2020 Kazım SARIKAYA
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+ */
+package com.sanaldiyar.hbase.miniofs;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+@DisplayName("Minio Stream Statistics Tests")
+public class MinioStreamStatisticsTest {
+
+    @Test
+    @DisplayName("Stream counters are rolled up into the metrics")
+    public void testRollUp() {
+        MinioFileSystemMetrics metrics = MinioFileSystemMetrics.getInstance();
+        long fills = metrics.getInputStreamCounter(MinioStreamStatistics.BUFFER_FILLS);
+        long parts = metrics.getOutputStreamCounter(MinioStreamStatistics.PARTS_UPLOADED);
+
+        MinioStreamStatistics input = MinioStreamStatistics.forInputStream();
+        input.increment(MinioStreamStatistics.BUFFER_FILLS);
+        input.increment(MinioStreamStatistics.BYTES_FETCHED, 4096);
+        assert input.getCounter(MinioStreamStatistics.BUFFER_FILLS) == 1;
+        assert input.snapshot().get(MinioStreamStatistics.BYTES_FETCHED) == 4096;
+        assert input.toString().contains(MinioStreamStatistics.BYTES_FETCHED + "=4096");
+
+        MinioStreamStatistics output = MinioStreamStatistics.forOutputStream();
+        output.increment(MinioStreamStatistics.PARTS_UPLOADED, 3);
+
+        metrics.addInputStreamStatistics(input);
+        metrics.addOutputStreamStatistics(output);
+        assert metrics.getInputStreamCounter(MinioStreamStatistics.BUFFER_FILLS) == fills + 1;
+        assert metrics.getOutputStreamCounter(MinioStreamStatistics.PARTS_UPLOADED) == parts + 3;
+    }
+
+    @Test
+    @DisplayName("Unknown counters are rejected")
+    public void testUnknownCounter() {
+        try {
+            MinioStreamStatistics.forOutputStream().getCounter(MinioStreamStatistics.BUFFER_FILLS);
+            assert false;
+        } catch (IllegalArgumentException ex) {
+            assert ex.getMessage().contains(MinioStreamStatistics.BUFFER_FILLS);
+        }
+    }
+
+}
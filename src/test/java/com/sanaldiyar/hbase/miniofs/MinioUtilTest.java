@@ -17,8 +17,12 @@ limitations under the License.
 package com.sanaldiyar.hbase.miniofs;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.Path;
 import org.junit.jupiter.api.DisplayName;
@@ -302,4 +306,43 @@ public class MinioUtilTest extends BaseTestClass {
             assert false;
         }
     }
+
+    @Test
+    @DisplayName("A file bigger than the part size is put with a single request")
+    public void testPutFile() throws IOException {
+        Path p = new Path(getRootPath(), "test/putfile");
+        int partsize = getConf().getInt(MinioFileSystem.MINIO_UPLOAD_PART_SIZE, 0);
+        byte[] data = new byte[partsize + (1 << 20)];
+        new Random(9).nextBytes(data);
+        File file = File.createTempFile("putfile-", ".tmp");
+        try {
+            Files.write(file.toPath(), data);
+            getServer().resetRequestCounts();
+            getMinioUtil().putFile(p, file, data.length);
+            assert getServer().getRequestCount(MinioStandInServer.Operation.CREATE_MULTIPART_UPLOAD) == 0;
+            assert getServer().getRequestCount(MinioStandInServer.Operation.UPLOAD_PART) == 0;
+        } finally {
+            file.delete();
+        }
+        byte[] readed = new byte[data.length];
+        assert getMinioUtil().fillData(p, 0, readed) == data.length;
+        assert Arrays.equals(data, readed);
+    }
+
+    @Test
+    @DisplayName("A read past the end of the object records the bytes it received")
+    public void testFillDataBytes() throws IOException {
+        Path p = new Path(getRootPath(), "test/filldatabytes");
+        byte[] data = new byte[1000];
+        new Random(13).nextBytes(data);
+        getMinioUtil().putStream(p, new ByteArrayInputStream(data), data.length);
+
+        MinioFileSystemMetrics metrics = MinioFileSystemMetrics.getInstance();
+        long bytes = metrics.getBytes(MinioOperation.GET);
+        byte[] readed = new byte[4096];
+        assert getMinioUtil().fillData(p, 900, readed, 0, readed.length) == 100;
+        assert Arrays.equals(Arrays.copyOfRange(data, 900, 1000), Arrays.copyOf(readed, 100));
+        assert metrics.getBytes(MinioOperation.GET) == bytes + 100;
+        getMinioUtil().delete(p, false);
+    }
 }
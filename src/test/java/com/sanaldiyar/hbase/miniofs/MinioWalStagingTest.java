@@ -0,0 +1,188 @@
+/*
+Copyright 2020 Kazım SARIKAYA
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+
+ */
+package com.sanaldiyar.hbase.miniofs;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.StreamCapabilities;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+@DisplayName("Minio Wal Staging Tests")
+public class MinioWalStagingTest extends BaseTestClass {
+
+    @Test
+    @DisplayName("Wal segments are synced locally and uploaded after they are closed")
+    public void testStagedSegment() throws Exception {
+        FileSystem fs = getFileSystem();
+        Path path = new Path(getRootPath(), "hbase/WALs/rs1,16020,1/rs1.1");
+        Path archived = new Path(getRootPath(), "hbase/oldWALs/rs1.1");
+        byte[] data = new byte[100 << 10];
+        new Random(8).nextBytes(data);
+
+        FSDataOutputStream out = fs.create(path);
+        assert out.hasCapability(StreamCapabilities.HFLUSH);
+        assert out.hasCapability(StreamCapabilities.HSYNC);
+        getServer().resetRequestCounts();
+        out.write(data, 0, 1000);
+        out.hflush();
+        assert fs.getFileStatus(path).getLen() == 1000;
+
+        long syncs = MinioFileSystemMetrics.getInstance().getWalSyncs();
+        long coalesced = MinioFileSystemMetrics.getInstance().getWalSyncsCoalesced();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            threads.add(new Thread(() -> {
+                try {
+                    for (int i = 0; i < 25; i++) {
+                        out.hsync();
+                    }
+                } catch (Exception ex) {
+                    assert false;
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assert MinioFileSystemMetrics.getInstance().getWalSyncs() - syncs + MinioFileSystemMetrics.getInstance().getWalSyncsCoalesced() - coalesced == 100;
+
+        out.write(data, 1000, data.length - 1000);
+        byte[] readed = new byte[data.length];
+        try (FSDataInputStream in = fs.open(path)) {
+            in.readFully(readed);
+        }
+        assert Arrays.equals(data, readed);
+        assert getServer().getRequestCount(MinioStandInServer.Operation.PUT_OBJECT) == 0;
+
+        out.close();
+        assert fs.rename(path, archived);
+        try {
+            fs.getFileStatus(path);
+            assert false;
+        } catch (FileNotFoundException ex) {
+            // uploaded and moved
+        }
+        try (FSDataInputStream in = fs.open(archived)) {
+            in.readFully(readed);
+        }
+        assert Arrays.equals(data, readed);
+    }
+
+    @Test
+    @DisplayName("Segments left by a stopped process are uploaded")
+    public void testRecover() throws Exception {
+        String key = getMinioUtil().getPrefix(new Path(getRootPath(), "hbase/WALs/rs2,16020,1/rs2.1"));
+        File dir = new File(getConf().get("hadoop.tmp.dir"), "minio-wal");
+        dir.mkdirs();
+        byte[] data = new byte[5000];
+        new Random(9).nextBytes(data);
+        File staged = new File(dir, URLEncoder.encode(key, "UTF-8") + ".wal");
+        Files.write(staged.toPath(), data);
+
+        getMinioUtil().getWalStaging().recover(getMinioUtil());
+        for (int i = 0; i < 100 && staged.exists(); i++) {
+            Thread.sleep(100);
+        }
+        assert !staged.exists();
+        byte[] readed = new byte[data.length];
+        try (FSDataInputStream in = getFileSystem().open(new Path(getRootPath(), key))) {
+            in.readFully(readed);
+        }
+        assert Arrays.equals(data, readed);
+    }
+
+    @Test
+    @DisplayName("Segments locked by a live process are not recovered")
+    public void testRecoverSkipsLocked() throws Exception {
+        String key = getMinioUtil().getPrefix(new Path(getRootPath(), "hbase/WALs/rs3,16020,1/rs3.1"));
+        File dir = new File(getConf().get("hadoop.tmp.dir"), "minio-wal");
+        dir.mkdirs();
+        byte[] data = new byte[5000];
+        new Random(10).nextBytes(data);
+        File staged = new File(dir, URLEncoder.encode(key, "UTF-8") + ".wal");
+        Files.write(staged.toPath(), data);
+
+        getServer().resetRequestCounts();
+        try (FileChannel channel = FileChannel.open(staged.toPath(), StandardOpenOption.WRITE)) {
+            // released when the channel is closed
+            channel.lock();
+            getMinioUtil().getWalStaging().recover(getMinioUtil());
+            Thread.sleep(500);
+            assert staged.exists();
+            assert getServer().getRequestCount(MinioStandInServer.Operation.PUT_OBJECT) == 0;
+        }
+
+        getMinioUtil().getWalStaging().recover(getMinioUtil());
+        for (int i = 0; i < 100 && staged.exists(); i++) {
+            Thread.sleep(100);
+        }
+        assert !staged.exists();
+        assert getFileSystem().getFileStatus(new Path(getRootPath(), key)).getLen() == data.length;
+    }
+
+    @Test
+    @DisplayName("A segment whose put failed is uploaded again by the rename")
+    public void testShipRetry() throws Exception {
+        FileSystem fs = getFileSystem();
+        Path path = new Path(getRootPath(), "hbase/WALs/rs4,16020,1/rs4.1");
+        Path archived = new Path(getRootPath(), "hbase/oldWALs/rs4.1");
+        byte[] data = new byte[10000];
+        new Random(11).nextBytes(data);
+
+        MinioWalOutputStream segment;
+        try (FSDataOutputStream out = fs.create(path)) {
+            out.write(data);
+            out.hsync();
+            segment = getMinioUtil().getWalStaging().get(getMinioUtil().getPrefix(path));
+            // as many failures as the attempts of a single put
+            getServer().failNext(MinioStandInServer.Operation.PUT_OBJECT, getMinioUtil().getRetryPolicy().getMaxAttempts(MinioOperation.PUT));
+        }
+        try {
+            try {
+                segment.awaitShipped();
+                assert false;
+            } catch (IOException ex) {
+                // the retries of the put are used up, the segment is not retried on its own
+            }
+            assert segment.getFile().isFile();
+            assert fs.rename(path, archived);
+        } finally {
+            getServer().resetFaults();
+        }
+        byte[] readed = new byte[data.length];
+        try (FSDataInputStream in = fs.open(archived)) {
+            in.readFully(readed);
+        }
+        assert Arrays.equals(data, readed);
+    }
+
+}